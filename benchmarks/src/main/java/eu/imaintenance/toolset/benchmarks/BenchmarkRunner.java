@@ -0,0 +1,23 @@
+package eu.imaintenance.toolset.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+/**
+ * Runs the benchmarks with the allocation profiler, the optional argument is a regular 
+ * expression selecting the benchmarks, e.g. <code>ProcessorBenchmark</code>.
+ * @author dglachs
+ *
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : ".*Benchmark.*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,67 @@
+package eu.imaintenance.toolset.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.json.JSON;
+import eu.imaintenance.toolset.util.json.ResultHelper;
+/**
+ * Benchmarks the JSON helpers used when parsing observations and settings.
+ * @author dglachs
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"MEASUREMENT", "COUNT_OBSERVATION", "TRUTH_OBSERVATION", "CATEGORY_OBSERVATION", "OBSERVATION"})
+    public ObservationType type;
+
+    private String payload;
+    private Map<?, ?> map;
+
+    @Setup
+    public void setup() throws Exception {
+        payload = Payloads.json(type);
+        map = JSON.deserializeFromString(payload, Map.class);
+    }
+    /**
+     * Parsing of the serialized observation
+     */
+    @Benchmark
+    public Observation deserializeFromString() throws Exception {
+        return JSON.deserializeFromString(payload, Observation.class);
+    }
+    /**
+     * Serialization of a deserialized map, the former conversion of structured results and settings
+     */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String resultHelperToString() {
+        return new ResultHelper(map).toString();
+    }
+    /**
+     * Conversion of a deserialized map into the target class, as done for structured results and settings
+     */
+    @Benchmark
+    public Observation convert() throws Exception {
+        return JSON.convert(map, Observation.class);
+    }
+}
@@ -0,0 +1,152 @@
+package eu.imaintenance.toolset.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.Sensor;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import eu.imaintenance.toolset.api.ObservationHandler;
+import eu.imaintenance.toolset.observation.AbstractObservationHandler;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.json.JSON;
+/**
+ * Realistic SensorThings observation payloads, one per {@link ObservationType}, along with
+ * the metadata (thing, datastream) and handlers required to process them.
+ * @author dglachs
+ *
+ */
+public final class Payloads {
+    public static final String TOPIC = "sensor-data";
+    public static final long THING_ID = 1;
+
+    private static final String TEMPLATE = "{"
+            + "\"phenomenonTime\":\"2018-10-17T10:15:30.123Z\","
+            + "\"resultTime\":\"2018-10-17T10:15:30.125Z\","
+            + "\"result\":%s,"
+            + "\"validTime\":\"2018-10-17T10:15:30.125Z/2018-10-17T10:16:00.125Z\","
+            + "\"parameters\":{\"quality\":\"good\"},"
+            + "\"Datastream\":{\"@iot.id\":%s}"
+            + "}";
+
+    private Payloads() {
+        // static helper
+    }
+    /**
+     * Structured result of {@link ObservationType#OBSERVATION} datastreams
+     */
+    public static class Vibration {
+        public String unit;
+        public double rms;
+        public double peak;
+        public List<Double> spectrum;
+        public Location location;
+    }
+    public static class Location {
+        public String axis;
+        public int bearing;
+    }
+    /**
+     * @return The id of the datastream carrying the given type
+     */
+    public static long datastreamId(ObservationType type) {
+        return 10 + type.ordinal();
+    }
+    /**
+     * The serialized observation as sent by the ObservationSender
+     * @param type
+     * @return
+     */
+    public static String json(ObservationType type) {
+        return String.format(TEMPLATE, result(type), datastreamId(type));
+    }
+    public static String result(ObservationType type) {
+        switch (type) {
+        case MEASUREMENT:
+            return "21.375";
+        case COUNT_OBSERVATION:
+            return "4711";
+        case TRUTH_OBSERVATION:
+            return "true";
+        case CATEGORY_OBSERVATION:
+            return "\"OPERATING\"";
+        default:
+            return "{\"unit\":\"mm/s\",\"rms\":2.31,\"peak\":7.9,"
+                    + "\"spectrum\":[0.12,0.4,1.7,3.2,0.9,0.31,0.05,0.02],"
+                    + "\"location\":{\"axis\":\"x\",\"bearing\":2}}";
+        }
+    }
+    /**
+     * The parsed observation
+     */
+    public static Observation observation(ObservationType type) throws IOException {
+        return JSON.deserializeFromString(json(type), Observation.class);
+    }
+    public static Thing thing() {
+        Thing thing = new Thing("benchmark", "Thing used by the benchmarks");
+        thing.setId(new IdLong(THING_ID));
+        thing.setProperties(new HashMap<String, Object>());
+        return thing;
+    }
+    public static Datastream datastream(Thing thing, ObservationType type) {
+        Datastream stream = new Datastream();
+        stream.setId(new IdLong(datastreamId(type)));
+        stream.setName(type.name().toLowerCase());
+        stream.setDescription("Datastream used by the benchmarks");
+        stream.setObservationType(type.getType());
+        stream.setThing(thing);
+        Sensor sensor = new Sensor();
+        sensor.setName("benchmark-sensor");
+        stream.setSensor(sensor);
+        return stream;
+    }
+    /**
+     * Create the handler for the type, the results are handed to the sink
+     * @param type
+     * @param sink
+     * @return
+     */
+    public static ObservationHandler<?> handler(ObservationType type, Consumer<Object> sink) {
+        switch (type) {
+        case MEASUREMENT:
+            return new AbstractObservationHandler<Double>() {
+                @Override
+                public void onObservation(Observation observation, Double result) {
+                    sink.accept(result);
+                }
+            };
+        case COUNT_OBSERVATION:
+            return new AbstractObservationHandler<Integer>() {
+                @Override
+                public void onObservation(Observation observation, Integer result) {
+                    sink.accept(result);
+                }
+            };
+        case TRUTH_OBSERVATION:
+            return new AbstractObservationHandler<Boolean>() {
+                @Override
+                public void onObservation(Observation observation, Boolean result) {
+                    sink.accept(result);
+                }
+            };
+        case CATEGORY_OBSERVATION:
+            return new AbstractObservationHandler<String>() {
+                @Override
+                public void onObservation(Observation observation, String result) {
+                    sink.accept(result);
+                }
+            };
+        default:
+            return new AbstractObservationHandler<Vibration>() {
+                @Override
+                public void onObservation(Observation observation, Vibration result) {
+                    sink.accept(result);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package eu.imaintenance.toolset.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import eu.imaintenance.toolset.observation.ObservationDispatcher;
+import eu.imaintenance.toolset.observation.ObservationProcessor;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+/**
+ * Benchmarks the consuming side of the pipeline: the dispatcher routing a message by its
+ * datastream, the processor parsing the message and the typed handler invocation.
+ * <p>
+ * The dispatcher is not started, so the messages are processed with the benchmark thread.
+ * </p>
+ * @author dglachs
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorBenchmark {
+    @Param({"MEASUREMENT", "COUNT_OBSERVATION", "TRUTH_OBSERVATION", "CATEGORY_OBSERVATION", "OBSERVATION"})
+    public ObservationType type;
+
+    private ObservationProcessor processor;
+    private ObservationDispatcher dispatcher;
+    private String payload;
+    private byte[] bytes;
+    private Observation observation;
+    /**
+     * The last result delivered to the handler
+     */
+    private Object result;
+
+    @Setup
+    public void setup() throws Exception {
+        Thing thing = Payloads.thing();
+        Datastream stream = Payloads.datastream(thing, type);
+        processor = new ObservationProcessor(thing, Collections.<String>emptyList(), Collections.singletonList(Payloads.TOPIC));
+        processor.registerHandler(Payloads.handler(type, r -> result = r), stream);
+        dispatcher = new ObservationDispatcher(Collections.<String>emptyList());
+        dispatcher.register(processor);
+        payload = Payloads.json(type);
+        bytes = payload.getBytes(StandardCharsets.UTF_8);
+        observation = Payloads.observation(type);
+        // verify the setup, the handler must be reached
+        processor.processKafkaMessage(Payloads.TOPIC, null, payload);
+        if ( result == null ) {
+            throw new IllegalStateException(String.format("Handler for %s not invoked", type));
+        }
+    }
+    /**
+     * Full message processing with the processor, including the header parsing
+     */
+    @Benchmark
+    public Object processKafkaMessage() throws Exception {
+        processor.processKafkaMessage(Payloads.TOPIC, null, payload);
+        return result;
+    }
+    /**
+     * Message processing when the header has been read by the dispatcher
+     */
+    @Benchmark
+    public Object processKafkaMessageWithHeader() throws Exception {
+        ObservationHeader header = ObservationHeader.forThread();
+        header.read(bytes);
+        processor.processKafkaMessage(Payloads.TOPIC, null, bytes, header);
+        return result;
+    }
+    /**
+     * Routing with the dispatcher and processing with the processor in charge
+     */
+    @Benchmark
+    public Object dispatch() throws Exception {
+        dispatcher.processKafkaMessage(Payloads.TOPIC, null, bytes, null, 0);
+        return result;
+    }
+    /**
+     * Typed handler invocation for an already parsed observation, e.g. the result
+     * conversion performed by <code>handlePayloadTyped</code>
+     */
+    @Benchmark
+    public Object processObservation() throws Exception {
+        processor.processObservation(observation);
+        return result;
+    }
+}
@@ -0,0 +1,68 @@
+package eu.imaintenance.toolset.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.codec.ObservationCodec;
+import eu.imaintenance.toolset.util.codec.ObservationCodecs;
+/**
+ * Benchmarks the serialization performed by the sender before the record is handed to the
+ * Kafka producer, e.g. <code>Sender.sendObservation</code> and the codecs.
+ * @author dglachs
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+    @Param({"MEASUREMENT", "COUNT_OBSERVATION", "TRUTH_OBSERVATION", "CATEGORY_OBSERVATION", "OBSERVATION"})
+    public ObservationType type;
+
+    private ObjectMapper mapper;
+    private Datastream stream;
+    private Observation observation;
+    private ObservationCodec binary;
+
+    @Setup
+    public void setup() throws Exception {
+        mapper = ObjectMapperFactory.get();
+        stream = Payloads.datastream(Payloads.thing(), type);
+        observation = Payloads.observation(type);
+        observation.setDatastream(stream);
+        binary = ObservationCodecs.forName("binary");
+    }
+    /**
+     * The serialization of <code>Sender.sendObservation</code>
+     */
+    @Benchmark
+    public byte[] sendObservation() throws Exception {
+        return mapper.writeValueAsBytes(observation);
+    }
+    /**
+     * Encoding with the compact binary codec
+     */
+    @Benchmark
+    public byte[] binaryCodec() throws Exception {
+        return binary.encode(stream, observation);
+    }
+}
@@ -0,0 +1,70 @@
+package eu.imaintenance.toolset.benchmarks;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.json.ObservationTemplate;
+/**
+ * Benchmarks the template rendering used by the sender for primitive results, compare
+ * with {@link SerializeBenchmark#sendObservation()}.
+ * @author dglachs
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    @Param({"MEASUREMENT", "COUNT_OBSERVATION", "TRUTH_OBSERVATION"})
+    public ObservationType type;
+
+    /**
+     * Instant of the rendered observations
+     */
+    private static final Instant NOW = Instant.parse("2018-10-17T10:15:30.123Z");
+    private static final ZoneId ZONE = ZoneId.of("Europe/Vienna");
+
+    private ObservationTemplate template;
+    private long second;
+    private int nano;
+    private long validSecond;
+
+    @Setup
+    public void setup() {
+        template = ObservationTemplate.create(Payloads.datastream(Payloads.thing(), type), ZONE);
+        if ( template == null ) {
+            throw new IllegalStateException(String.format("No template available for %s", type));
+        }
+        Instant now = NOW;
+        second = now.getEpochSecond();
+        nano = now.getNano();
+        validSecond = now.plus(ObservationTemplate.VALIDITY).getEpochSecond();
+    }
+    @Benchmark
+    public byte[] render() {
+        switch (type) {
+        case MEASUREMENT:
+            return template.render(second, nano, 21.375d, validSecond, nano);
+        case COUNT_OBSERVATION:
+            return template.render(second, nano, 4711L, validSecond, nano);
+        default:
+            return template.render(second, nano, true, validSecond, nano);
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package eu.imaintenance.toolset;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,14 +25,30 @@ import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.Id;
 import de.fraunhofer.iosb.ilt.sta.model.Thing;
-import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
 import eu.imaintenance.toolset.api.ObservationHandler;
 import eu.imaintenance.toolset.api.Producer;
+import eu.imaintenance.toolset.observation.ObservationDispatcher;
 import eu.imaintenance.toolset.observation.ObservationProcessor;
+import eu.imaintenance.toolset.observation.ObservationScheduler;
 import eu.imaintenance.toolset.observation.ObservationType;
 import eu.imaintenance.toolset.observation.handler.OMMeasurementHandler;
 import eu.imaintenance.toolset.observation.handler.OMTruthObservationHandler;
+import eu.imaintenance.toolset.util.cache.CatalogSnapshot;
+import eu.imaintenance.toolset.util.cache.HistoryCursor;
+import eu.imaintenance.toolset.util.cache.MetadataCache;
+import eu.imaintenance.toolset.util.cache.ObservationHistory;
+import eu.imaintenance.toolset.util.cache.ThingCatalog;
+import eu.imaintenance.toolset.util.json.IsoTime;
+import eu.imaintenance.toolset.util.kafka.Consumer;
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+import eu.imaintenance.toolset.util.kafka.TopicRole;
+import eu.imaintenance.toolset.util.metrics.Metrics;
+import eu.imaintenance.toolset.util.metrics.MetricsSnapshot;
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.ConsumerBudget;
+import eu.imaintenance.toolset.util.transport.MemoryTransport;
+import eu.imaintenance.toolset.util.transport.Transport;
 
 public class ToolsetClient {
     private Logger logger = LoggerFactory.getLogger(ToolsetClient.class);
@@ -38,8 +62,93 @@ public class ToolsetClient {
      */
    
     private Map<Id, ObservationProcessor> processor = new HashMap<Id, ObservationProcessor>();
+    /**
+     * Dispatchers, one per Kafka cluster, shared by all processors of the cluster
+     */
+    private Map<String, ObservationDispatcher> dispatcher = new HashMap<String, ObservationDispatcher>();
     
     private String clientName = UUID.randomUUID().toString();
+    /**
+     * Time to live for cached datastream metadata (found and unknown datastreams)
+     */
+    private long metadataTtl = MetadataCache.DEFAULT_TTL;
+    private long metadataMissTtl = MetadataCache.DEFAULT_MISS_TTL;
+    /**
+     * Number of worker threads executing the handlers and the number of messages each worker may queue
+     */
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int workerQueueCapacity = 1024;
+    /**
+     * Run the consumers and workers on virtual threads when supported
+     */
+    private boolean virtualThreads;
+    /**
+     * The threads of the client, shared by all clusters
+     */
+    private ObservationScheduler scheduler;
+    /**
+     * Maximum number of consumer threads of all clusters
+     */
+    private ConsumerBudget consumerBudget = new ConsumerBudget(Runtime.getRuntime().availableProcessors());
+    /**
+     * The history of the recent observations, <code>null</code> when not enabled
+     */
+    private ObservationHistory history;
+    /**
+     * Number of unprocessed records per partition which pause (high) and resume (low) the partition
+     */
+    private int highWaterMark = Consumer.DEFAULT_HIGH_WATER_MARK;
+    private int lowWaterMark = Consumer.DEFAULT_LOW_WATER_MARK;
+    /**
+     * Producer and consumer profiles per topic role
+     */
+    private Map<TopicRole, KafkaProfile> profiles = new EnumMap<TopicRole, KafkaProfile>(TopicRole.class);
+    /**
+     * The transport for all things, <code>null</code> for the Kafka clusters of the things
+     */
+    private Transport transport;
+    /**
+     * When the consumers commit their positions
+     */
+    private CommitPolicy commitPolicy = CommitPolicy.AUTO;
+    /**
+     * Initial and maximum delay for reconciling the snapshot with the server
+     */
+    private static final long RECONCILE_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long RECONCILE_MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * Bulk loading of the metadata, see {@link #withBulkBootstrap(int, int)}
+     */
+    private boolean bulkBootstrap;
+    private int bootstrapPageSize = ThingCatalog.DEFAULT_PAGE_SIZE;
+    private int bootstrapParallelism = ThingCatalog.DEFAULT_PARALLELISM;
+    /**
+     * The metadata loaded in bulk, <code>null</code> until {@link #bootstrap()}
+     */
+    private volatile ThingCatalog catalog;
+    /**
+     * The local snapshot of the metadata, see {@link #withSnapshot(Path)}
+     */
+    private Path snapshot;
+    /**
+     * Registrations waiting for the bulk loaded metadata
+     */
+    private List<Registration> pending = new ArrayList<Registration>();
+    /**
+     * Registrations which failed with the metadata of the snapshot, resolved again once the 
+     * snapshot is reconciled with the server
+     */
+    private List<Registration> unresolved = new ArrayList<Registration>();
+    /**
+     * Set by {@link #startup()}, processors created later on are attached right away
+     */
+    private volatile boolean started;
+    /**
+     * Registration performing the lookups of the metadata
+     */
+    private interface Registration {
+        void resolve() throws ServiceFailureException;
+    }
     
     /**
      * Default constructor. Creates <i>empty</i> client. The <b>mandatory</b> service uri must be set
@@ -78,33 +187,38 @@ public class ToolsetClient {
         if (service == null ) {
             throw new IllegalStateException("No service URI set - use withServiceUri before!");
         }
-        for (Long thingId : thingIds) {
-            Thing theThing = service.things().find(thingId);
-            if ( theThing == null ) {
-                throw new IllegalStateException(String.format("Thing(%s) not found!", thingId));
+        return defer(() -> {
+            for (Long thingId : thingIds) {
+                Thing theThing = findThing(thingId);
+                if ( theThing == null ) {
+                    throw new IllegalStateException(String.format("Thing(%s) not found!", thingId));
+                }
+                // register the observation processor
+                registerObservationProcessor(theThing);
             }
-            // register the observation processor
-            registerObservationProcessor(theThing);
-        }
-        return this;
+        });
 
     }
     public ToolsetClient forThing(String thingName) throws ServiceFailureException {
         if (service == null ) {
             throw new IllegalStateException("No service URI set - use withServiceUri before!");
         }
-        EntityList<Thing> things = service.things().query().filter(String.format("%s eq '%s'", "name", thingName)).list();
-        if ( things.size() > 1) {
-            // in case there are more "things with the same name!
-            throw new ServiceFailureException("The name of the thing is ambigious! - use the respective ID's ");
-        }
-        Iterator<Thing> thingIterator = things.iterator();
-        while ( thingIterator.hasNext() ) {
-            registerObservationProcessor(thingIterator.next());
-        }
-        return this;
+        return defer(() -> {
+            List<Thing> things = findThings(thingName);
+            if ( things.size() > 1) {
+                // in case there are more "things with the same name!
+                throw new ServiceFailureException("The name of the thing is ambigious! - use the respective ID's ");
+            }
+            Iterator<Thing> thingIterator = things.iterator();
+            while ( thingIterator.hasNext() ) {
+                registerObservationProcessor(thingIterator.next());
+            }
+        });
     }
     public List<Thing> getThings() throws ServiceFailureException {
+        if ( catalog != null ) {
+            return new ArrayList<Thing>(catalog.getThings());
+        }
         List<Thing> things = new ArrayList<Thing>();
         Iterator<Thing> thingIterator = service.things().query().list().iterator();
         while (thingIterator.hasNext()) {
@@ -114,6 +228,16 @@ public class ToolsetClient {
     }
     public List<Datastream> getDatastreams(ObservationType ofType) throws ServiceFailureException {
         List<Datastream> things = new ArrayList<Datastream>();
+        if ( catalog != null ) {
+            for (Thing thing : catalog.getThings()) {
+                for (Datastream stream : catalog.getDatastreams(thing.getId())) {
+                    if ( ofType.getType().equals(stream.getObservationType())) {
+                        things.add(stream);
+                    }
+                }
+            }
+            return things;
+        }
         Iterator<Datastream> thingIterator = service.datastreams()
                 .query()
                 .filter(filterEquals("observationType", ofType.getType()))
@@ -132,9 +256,8 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(Long thingId, ObservationHandler<?> handler) throws ServiceFailureException {
-        Thing theThing = service.things().find(thingId);
         // register the handler for the entier thing
-        return registerHandler(theThing, handler);
+        return defer(() -> registerHandler(findThing(thingId), handler));
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. The handler is assigned
@@ -145,13 +268,12 @@ public class ToolsetClient {
      * @throws ServiceFailureException In case the metadata for the thing cannot be retrieved!
      */
     public ToolsetClient registerHandler(String thingName, ObservationHandler<?> handler) throws ServiceFailureException {
-        Iterator<Thing> thingIterator = service.things().query().filter(filterEquals("name",thingName)).list().iterator();
-        while (thingIterator.hasNext()) {
-            Thing theThing = thingIterator.next();
-            // register the handler for the entire thing
-            registerHandler(theThing, handler);
-        }
-        return this;
+        return defer(() -> {
+            for (Thing theThing : findThings(thingName)) {
+                // register the handler for the entire thing
+                registerHandler(theThing, handler);
+            }
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. The handler is assigned
@@ -162,9 +284,10 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(Thing theThing, ObservationHandler<?> handler) throws ServiceFailureException {
-        ObservationProcessor proc = registerObservationProcessor(theThing);
-        proc.registerHandler(handler);
-        return this;
+        return defer(() -> {
+            ObservationProcessor proc = registerObservationProcessor(theThing);
+            proc.registerHandler(handler);
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. Optionally, a list of datastream
@@ -176,17 +299,18 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(Thing theThing, ObservationHandler<?> handler, Long ...datastreamIds ) throws ServiceFailureException {
-        ObservationProcessor proc = registerObservationProcessor(theThing);
-        if ( datastreamIds == null || datastreamIds.length == 0) {
-            proc.registerHandler(handler);
-        }
-        else {
-            for (Long datastreamId : datastreamIds) {
-                Datastream stream = theThing.datastreams().find(datastreamId);
-                proc.registerHandler(handler, stream);
+        return defer(() -> {
+            ObservationProcessor proc = registerObservationProcessor(theThing);
+            if ( datastreamIds == null || datastreamIds.length == 0) {
+                proc.registerHandler(handler);
             }
-        }
-        return this;
+            else {
+                for (Long datastreamId : datastreamIds) {
+                    Datastream stream = findDatastream(theThing, datastreamId);
+                    proc.registerHandler(handler, stream);
+                }
+            }
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. Optionally, a list of datastream
@@ -198,21 +322,19 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(Thing theThing, ObservationHandler<?> handler, String ...datastreamNames ) throws ServiceFailureException {
-        ObservationProcessor proc = registerObservationProcessor(theThing);
-        if ( datastreamNames == null || datastreamNames.length == 0) {
-            proc.registerHandler(handler);
-        }
-        else {
-            for (String datastreamName : datastreamNames) {
-                
-                Iterator<Datastream> streamIterator = theThing.datastreams().query().filter(filterEquals("name", datastreamName)).list().iterator();
-                while (streamIterator.hasNext()) {
-                    Datastream stream = streamIterator.next();
-                    proc.registerHandler(handler, stream);
+        return defer(() -> {
+            ObservationProcessor proc = registerObservationProcessor(theThing);
+            if ( datastreamNames == null || datastreamNames.length == 0) {
+                proc.registerHandler(handler);
+            }
+            else {
+                for (String datastreamName : datastreamNames) {
+                    for (Datastream stream : findDatastreams(theThing, datastreamName)) {
+                        proc.registerHandler(handler, stream);
+                    }
                 }
             }
-        }
-        return this;
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. Optionally, a list of datastream
@@ -224,11 +346,12 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(Long thingId, ObservationHandler<?> handler, Long ...datastreamIds ) throws ServiceFailureException {
-        Thing theThing = service.things().find(thingId);
-        if ( theThing != null ) {
-            return registerHandler(theThing, handler, datastreamIds);
-        }
-        return this;
+        return defer(() -> {
+            Thing theThing = findThing(thingId);
+            if ( theThing != null ) {
+                registerHandler(theThing, handler, datastreamIds);
+            }
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. Optionally, a list of datastream
@@ -240,11 +363,12 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(Long thingId, ObservationHandler<?> handler, String ...datastreamNames ) throws ServiceFailureException {
-        Thing theThing = service.things().find(thingId);
-        if ( theThing != null ) {
-            return registerHandler(theThing, handler, datastreamNames);
-        }
-        return this;
+        return defer(() -> {
+            Thing theThing = findThing(thingId);
+            if ( theThing != null ) {
+                registerHandler(theThing, handler, datastreamNames);
+            }
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. Optionally, a list of datastream
@@ -256,12 +380,11 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(String thingName, ObservationHandler<?> handler, Long ...datastreamIds ) throws ServiceFailureException {
-        Iterator<Thing> thingIterator = service.things().query().filter(filterEquals("name",thingName)).list().iterator();
-        while (thingIterator.hasNext()) {
-            Thing theThing = thingIterator.next();
-            registerHandler(theThing, handler, datastreamIds);
-        }
-        return this;
+        return defer(() -> {
+            for (Thing theThing : findThings(thingName)) {
+                registerHandler(theThing, handler, datastreamIds);
+            }
+        });
     }
     /**
      * Register an {@link ObservationHandler} for datastreams assigned to the given Thing. Optionally, a list of datastream
@@ -273,12 +396,11 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(String thingName, ObservationHandler<?> handler, String ...datastreamNames ) throws ServiceFailureException {
-        Iterator<Thing> thingIterator = service.things().query().filter(filterEquals("name",thingName)).list().iterator();
-        while (thingIterator.hasNext()) {
-            Thing theThing = thingIterator.next();
-            registerHandler(theThing, handler, datastreamNames);
-        }
-        return this;
+        return defer(() -> {
+            for (Thing theThing : findThings(thingName)) {
+                registerHandler(theThing, handler, datastreamNames);
+            }
+        });
     }
     /**
      * Register an an observation handler with the named datastreams.
@@ -288,17 +410,14 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(ObservationHandler<?> handler, String...datastreamNames) throws ServiceFailureException {
-
-        for ( String name : datastreamNames ) {
-            Iterator<Datastream> streamIterator = service.datastreams().query().filter(filterEquals("name", name)).list().iterator();
-            while (streamIterator.hasNext()) {
-                Datastream stream = streamIterator.next();
-                ObservationProcessor proc = registerObservationProcessor(stream.getThing());
-                proc.registerHandler(handler, stream);
-                
+        return defer(() -> {
+            for ( String name : datastreamNames ) {
+                for (Datastream stream : findDatastreams(name)) {
+                    ObservationProcessor proc = registerObservationProcessor(stream.getThing());
+                    proc.registerHandler(handler, stream);
+                }
             }
-        }
-        return this;
+        });
     }
     /**
      * Register an {@link ObservationHandler} for the provided datastream id's
@@ -308,21 +427,260 @@ public class ToolsetClient {
      * @throws ServiceFailureException
      */
     public ToolsetClient registerHandler(ObservationHandler<?> handler, Long ... datastreams) throws ServiceFailureException {
-        for ( Long id : datastreams ) {
-            Datastream stream = service.datastreams().find(id);
-            ObservationProcessor proc = registerObservationProcessor(stream.getThing());
-            proc.registerHandler(handler, stream);
-        }
-        return this;
+        return defer(() -> {
+            for ( Long id : datastreams ) {
+                Datastream stream = findDatastream(id);
+                ObservationProcessor proc = registerObservationProcessor(stream.getThing());
+                proc.registerHandler(handler, stream);
+            }
+        });
     }
     
     public ToolsetClient setName(String name) {
         this.clientName = name;
         return this;
     }
+    /**
+     * Specify the workers executing the handlers. The handlers are not executed by the threads polling 
+     * the messages, each datastream is assigned to one of the workers, so that the observations of a
+     * datastream are processed in order. The workers are shared by all things, each worker serves 
+     * the queued messages of the things round robin, so that a thing with a backlog does not hold 
+     * back the others.
+     * @param threads The number of worker threads, defaults to the number of available processors
+     * @param queueCapacity The number of messages each worker may queue, defaults to 1024
+     * @return
+     */
+    public ToolsetClient withWorkers(int threads, int queueCapacity) {
+        if ( threads < 1 || queueCapacity < 1 ) {
+            throw new IllegalArgumentException("Number of workers and queue capacity must be positive!");
+        }
+        this.workerThreads = threads;
+        this.workerQueueCapacity = queueCapacity;
+        return this;
+    }
+    /**
+     * Run the consumers and the workers on virtual threads (Java 21 and later), platform threads 
+     * are used on older JVMs. Must be specified before {@link #startup()}.
+     * @param virtualThreads
+     * @return
+     */
+    public ToolsetClient withVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+    /**
+     * Specify the maximum number of consumer threads. The topics are consumed by one consumer per 
+     * partition, the consumers of all clusters share the budget. Partitions added at runtime are 
+     * detected within a minute and served by additional consumers while the budget permits. Each 
+     * group of topics is served by at least one consumer, regardless of the budget.
+     * @param maxConsumers The maximum number of consumers, defaults to the number of available processors
+     * @return
+     */
+    public ToolsetClient withConsumerBudget(int maxConsumers) {
+        this.consumerBudget = new ConsumerBudget(maxConsumers);
+        return this;
+    }
+    /**
+     * Keep the recent observations of the handled datastreams, so that handlers query the 
+     * history with {@link #history(Long, Instant, Instant)} instead of keeping their own lists. 
+     * Numeric and truth values are kept in a ring buffer of fixed capacity per datastream, 
+     * 16 bytes per observation. Must be specified before registering handlers.
+     * @param capacity The number of observations kept per datastream
+     * @param offHeap <code>true</code> to allocate the ring buffers outside of the heap
+     * @return
+     */
+    public ToolsetClient withHistory(int capacity, boolean offHeap) {
+        this.history = new ObservationHistory(capacity, offHeap);
+        for ( ObservationProcessor proc : processor.values()) {
+            proc.setHistory(history);
+        }
+        return this;
+    }
+    /**
+     * Specify the backpressure limits. Whenever the number of records received from a partition but 
+     * not yet processed by the handlers exceeds the high water mark, the partition is paused until 
+     * the number drops to the low water mark. This keeps the memory flat while a backlog is consumed.
+     * @param highWaterMark Unprocessed records per partition pausing the partition, defaults to 5000
+     * @param lowWaterMark Unprocessed records per partition resuming the partition, defaults to 1000
+     * @return
+     */
+    public ToolsetClient withBackpressure(int highWaterMark, int lowWaterMark) {
+        if ( lowWaterMark < 0 || highWaterMark < lowWaterMark ) {
+            throw new IllegalArgumentException("Water marks must satisfy 0 <= low <= high!");
+        }
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        return this;
+    }
+    /**
+     * Specify how long datastream metadata obtained from the SensorThings server is cached. 
+     * Unknown datastreams are cached as well, so that messages of foreign datastreams do not
+     * trigger a lookup per message.
+     * @param ttl The time to live for found datastreams
+     * @param missTtl The time to live for unknown datastreams
+     * @return
+     */
+    public ToolsetClient withMetadataTtl(Duration ttl, Duration missTtl) {
+        this.metadataTtl = ttl.toMillis();
+        this.metadataMissTtl = missTtl.toMillis();
+        for ( ObservationProcessor proc : processor.values()) {
+            proc.setMetadataTtl(metadataTtl, metadataMissTtl, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+    /**
+     * Specify the producer and consumer settings for the topics with the given role, e.g. 
+     * {@link KafkaProfile#THROUGHPUT} for the sensor data and {@link KafkaProfile#LOW_LATENCY} 
+     * for the alerts. Things may override the profile with their kafka settings. Must be 
+     * specified before creating producers and before {@link #startup()}.
+     * @param role The topic role
+     * @param profile The profile, defaults to {@link KafkaProfile#DEFAULT}
+     * @return
+     */
+    public ToolsetClient withProfile(TopicRole role, KafkaProfile profile) {
+        profiles.put(role, profile);
+        return this;
+    }
+    /**
+     * Specify the transport carrying the observations of all things, e.g. the {@link MemoryTransport}
+     * for running producers and consumers in-process. By default the observations are exchanged with 
+     * the Kafka cluster specified with the thing's kafka settings. Must be specified before registering
+     * handlers or creating producers.
+     * @param transport The transport
+     * @return
+     */
+    public ToolsetClient withTransport(Transport transport) {
+        this.transport = transport;
+        for ( ObservationProcessor proc : processor.values()) {
+            proc.setTransport(transport);
+        }
+        return this;
+    }
+    /**
+     * Specify when the positions of the consumer group are committed. By default the transport
+     * commits periodically, regardless whether the handlers have processed the records. With
+     * {@link CommitPolicy#atLeastOnce(Duration, int)} the positions are committed asynchronously
+     * in batches once all records up to the position are processed, so that no record is lost 
+     * when the client crashes. Observations collected for batch handlers count as processed once 
+     * the batch has been delivered to the handler. Must be specified before {@link #startup()}.
+     * @param commitPolicy The commit policy, defaults to {@link CommitPolicy#AUTO}
+     * @return
+     */
+    public ToolsetClient withCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+        return this;
+    }
+    /**
+     * Load the metadata in bulk. With bulk loading, {@link #forThing(Long...)} and the 
+     * <code>registerHandler</code> methods do not query the SensorThings server, the registrations 
+     * are kept until {@link #bootstrap()} (or {@link #startup()}) loads all things along with their 
+     * datastreams in parallel pages and resolves the registrations in one pass. Unknown things 
+     * are reported when resolving. Must be specified before registering handlers.
+     * @param pageSize The number of things per request, defaults to {@value ThingCatalog#DEFAULT_PAGE_SIZE}
+     * @param parallelism The number of pages requested in parallel, defaults to {@value ThingCatalog#DEFAULT_PARALLELISM}
+     * @return
+     */
+    public ToolsetClient withBulkBootstrap(int pageSize, int parallelism) {
+        if ( pageSize < 1 || parallelism < 1 ) {
+            throw new IllegalArgumentException("Page size and parallelism must be positive!");
+        }
+        this.bulkBootstrap = true;
+        this.bootstrapPageSize = pageSize;
+        this.bootstrapParallelism = parallelism;
+        return this;
+    }
+    /**
+     * Keep a local snapshot of the metadata for warm starts, implies bulk loading (see 
+     * {@link #withBulkBootstrap(int, int)}). The snapshot is written after the metadata has been
+     * loaded from the SensorThings server. When a snapshot is present, {@link #bootstrap()} resolves
+     * the registrations from the snapshot, so that consuming starts right away even when the server
+     * is not available, and reconciles with the server in the background.
+     * @param file The snapshot file
+     * @return
+     */
+    public ToolsetClient withSnapshot(Path file) {
+        this.bulkBootstrap = true;
+        this.snapshot = file;
+        return this;
+    }
+    /**
+     * Load the metadata of all things in bulk and resolve the pending registrations, see 
+     * {@link #withBulkBootstrap(int, int)}. The metadata is read from the snapshot when present, 
+     * see {@link #withSnapshot(Path)}. The time spent loading and resolving is logged. Registrations
+     * failing with the metadata of the snapshot are resolved again after reconciling with the server.
+     * @return The loaded metadata
+     * @throws ServiceFailureException When the metadata cannot be loaded or a registration fails
+     */
+    public ThingCatalog bootstrap() throws ServiceFailureException {
+        if (service == null ) {
+            throw new IllegalStateException("No service URI set - use withServiceUri before!");
+        }
+        ThingCatalog restored = readSnapshot();
+        if ( restored != null ) {
+            catalog = restored;
+        }
+        else {
+            catalog = ThingCatalog.load(service, bootstrapPageSize, bootstrapParallelism);
+            writeSnapshot(catalog);
+        }
+        long start = System.nanoTime();
+        List<Registration> registrations = pending;
+        pending = new ArrayList<Registration>();
+        for (Registration registration : registrations) {
+            try {
+                registration.resolve();
+            } catch (ServiceFailureException e) {
+                if ( restored == null ) {
+                    throw e;
+                }
+                logger.warn("Registration cannot be resolved with the snapshot, retried after reconciling: {}", e.getLocalizedMessage());
+                unresolved.add(registration);
+            }
+        }
+        logger.info("Bootstrap: {} things, {} datastreams loaded {} in {} ms, {} registrations resolved in {} ms",
+                catalog.getThings().size(), catalog.getDatastreamCount(), 
+                restored != null ? "from snapshot" : String.format("with %s requests", catalog.getPages()), catalog.getLoadMillis(),
+                registrations.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if ( restored != null ) {
+            reconcile(RECONCILE_DELAY);
+        }
+        return catalog;
+    }
+    /**
+     * Obtain the current metrics of the observation pipeline: records polled, parsed, dropped
+     * and failed as well as handler and send latencies per topic, thing and datastream. The 
+     * metrics are exported as JMX MBeans in the domain {@value Metrics#DOMAIN} as well.
+     * @return The snapshots by <code>scope/name</code>, e.g. <code>topic/telemetry</code>
+     */
+    public Map<String, MetricsSnapshot> getMetrics() {
+        return Metrics.snapshot();
+    }
+    /**
+     * Query the recent observations of a datastream, see {@link #withHistory(int, boolean)}
+     * @param datastreamId The id of the datastream
+     * @param from The start of the range (inclusive)
+     * @param to The end of the range (exclusive)
+     * @return The cursor over the observations of the range
+     */
+    public HistoryCursor history(Long datastreamId, Instant from, Instant to) {
+        return history(datastreamId, IsoTime.toEpochNanos(from), IsoTime.toEpochNanos(to));
+    }
+    /**
+     * Query the recent observations of a datastream, see {@link #withHistory(int, boolean)}
+     * @param datastreamId The id of the datastream
+     * @param fromEpochNanos The start of the range in nanoseconds since the epoch (inclusive)
+     * @param toEpochNanos The end of the range in nanoseconds since the epoch (exclusive)
+     * @return The cursor over the observations of the range
+     */
+    public HistoryCursor history(long datastreamId, long fromEpochNanos, long toEpochNanos) {
+        if ( history == null ) {
+            throw new IllegalStateException("The history is not enabled, see withHistory(int, boolean)!");
+        }
+        return history.history(datastreamId, fromEpochNanos, toEpochNanos);
+    }
     
     public <T> Producer<T> createProducer(Long streamId, String topic, Class<T> resultType) throws ServiceFailureException {
-        Datastream stream = service.datastreams().find(streamId);
+        Datastream stream = findDatastream(streamId);
         if ( stream == null ) {
             throw new ServiceFailureException(String.format("Datastream(%s) not found!", streamId));
         }
@@ -331,11 +689,69 @@ public class ToolsetClient {
         return proc.createProducer(stream, topic, resultType);
     }
 
+    /**
+     * Start listening to the messages. The processors are grouped by their Kafka cluster (or
+     * transport, see {@link #withTransport(Transport)}), each cluster is served by a single consumer group which parses every message once and 
+     * routes it to the processor in charge of the message's datastream. With bulk loading, the
+     * metadata is loaded first unless {@link #bootstrap()} has been called. All clusters share the
+     * threads of the client: the consumers (see {@link #withConsumerBudget(int)}) and the workers 
+     * (see {@link #withWorkers(int, int)}), which serve the things round robin. A single shutdown
+     * hook stops the consumers and drains the workers.
+     */
     public void startup() {
-        for ( Id tId : processor.keySet()) {
-            processor.get(tId).startup(clientName);
+        if ( bulkBootstrap && catalog == null ) {
+            try {
+                bootstrap();
+            } catch (ServiceFailureException e) {
+                throw new IllegalStateException(String.format("Bootstrap failed: %s", e.getLocalizedMessage()), e);
+            }
+        }
+        if ( scheduler == null ) {
+            scheduler = new ObservationScheduler(clientName, workerThreads, workerQueueCapacity, virtualThreads);
+            scheduler.addShutdownHook();
+        }
+        // the reconciling thread attaches the processors resolved later on
+        synchronized (this) {
+            for ( ObservationProcessor proc : processors()) {
+                attach(proc);
+            }
+            for ( ObservationDispatcher d : dispatcher.values()) {
+                d.startup(clientName);
+            }
+            started = true;
         }
     }
+    /**
+     * Register the processor with the dispatcher of it's cluster, the dispatcher is created
+     * with the first processor of the cluster. All dispatchers consume with the client's name
+     * as group, hence a cluster must not be served by two dispatchers, see {@link Transport#isSameCluster(Transport)}.
+     * Called by the startup and the reconciling thread while holding the client's lock.
+     * @param proc
+     * @return The dispatcher when created
+     */
+    private synchronized ObservationDispatcher attach(ObservationProcessor proc) {
+        Transport procTransport = proc.getTransport();
+        for ( ObservationDispatcher d : dispatcher.values()) {
+            if ( d.getTransport().isSameCluster(procTransport)) {
+                d.register(proc);
+                return null;
+            }
+        }
+        String cluster = procTransport.getName();
+        ObservationDispatcher created = null;
+        if (! dispatcher.containsKey(cluster)) {
+            created = new ObservationDispatcher(procTransport);
+            created.setMetadataTtl(metadataTtl, metadataMissTtl, TimeUnit.MILLISECONDS);
+            created.setWorkers(workerThreads, workerQueueCapacity);
+            created.setBackpressure(highWaterMark, lowWaterMark);
+            created.setCommitPolicy(commitPolicy);
+            created.setConsumerBudget(consumerBudget);
+            created.setScheduler(scheduler);
+            dispatcher.put(cluster, created);
+        }
+        dispatcher.get(cluster).register(proc);
+        return created;
+    }
     
     public void shutdown() {
         // 
@@ -351,15 +767,243 @@ public class ToolsetClient {
     private String filterEquals(String name, String value) throws ServiceFailureException {
         return String.format("%s eq '%s'", name, value);
     }
+    /**
+     * Read the snapshot, see {@link #withSnapshot(Path)}
+     * @return The catalog, <code>null</code> when no (valid) snapshot is present
+     */
+    private ThingCatalog readSnapshot() {
+        if ( snapshot == null || !Files.isReadable(snapshot)) {
+            return null;
+        }
+        try {
+            return CatalogSnapshot.read(snapshot, service);
+        } catch (IOException e) {
+            logger.warn("Snapshot {} cannot be read: {}", snapshot, e.getLocalizedMessage());
+            return null;
+        }
+    }
+    private void writeSnapshot(ThingCatalog loaded) {
+        if ( snapshot != null ) {
+            try {
+                CatalogSnapshot.write(loaded, snapshot);
+            } catch (IOException e) {
+                logger.warn("Snapshot {} cannot be written: {}", snapshot, e.getLocalizedMessage());
+            }
+        }
+    }
+    /**
+     * Load the metadata from the server in the background, retried with increasing delay until
+     * the server is available. The processors receive the current datastreams of their thing,
+     * changed kafka settings require a restart.
+     * @param delay The delay in milliseconds
+     */
+    private void reconcile(long delay) {
+        Thread reconciler = new Thread(() -> {
+            long wait = delay;
+            while (true) {
+                try {
+                    Thread.sleep(wait);
+                    ThingCatalog loaded = ThingCatalog.load(service, bootstrapPageSize, bootstrapParallelism);
+                    ThingCatalog previous = catalog;
+                    for (ObservationProcessor proc : processors()) {
+                        Id thingId = proc.getThing().getId();
+                        List<Datastream> streams = loaded.getDatastreams(thingId);
+                        if ( streams == null ) {
+                            logger.warn("Thing {} is no longer known to the server", proc.getThing().getName());
+                            continue;
+                        }
+                        proc.preload(streams);
+                        Thing current = loaded.getThing(thingId);
+                        Thing known = previous.getThing(thingId);
+                        if ( known != null && !Objects.equals(kafkaSettings(known), kafkaSettings(current))) {
+                            logger.warn("Kafka settings of thing {} changed, restart to apply", current.getName());
+                        }
+                    }
+                    catalog = loaded;
+                    writeSnapshot(loaded);
+                    logger.info("Reconciled snapshot with the server: {} things, {} datastreams",
+                            loaded.getThings().size(), loaded.getDatastreamCount());
+                    resolveUnresolved();
+                    return;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (ServiceFailureException | RuntimeException e) {
+                    wait = Math.min(wait * 2, RECONCILE_MAX_DELAY);
+                    logger.warn("Reconciling the snapshot failed, retry in {} s: {}", 
+                            TimeUnit.MILLISECONDS.toSeconds(wait), e.getLocalizedMessage());
+                }
+            }
+        }, "metadata-reconcile");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+    /**
+     * Resolve the registrations which failed with the snapshot, the processors created 
+     * meanwhile are attached when the client is already started
+     */
+    private void resolveUnresolved() {
+        List<Registration> registrations;
+        List<ObservationProcessor> known;
+        synchronized (this) {
+            registrations = unresolved;
+            unresolved = new ArrayList<Registration>();
+            known = processors();
+        }
+        if ( registrations.isEmpty()) {
+            return;
+        }
+        int failed = 0;
+        for (Registration registration : registrations) {
+            try {
+                registration.resolve();
+            } catch (ServiceFailureException | RuntimeException e) {
+                failed++;
+                logger.error("Registration cannot be resolved: {}", e.getLocalizedMessage());
+            }
+        }
+        logger.info("{} registrations resolved after reconciling, {} failed", registrations.size() - failed, failed);
+        synchronized (this) {
+            if ( started ) {
+                for (ObservationProcessor proc : processors()) {
+                    if (! known.contains(proc)) {
+                        ObservationDispatcher created = attach(proc);
+                        if ( created != null ) {
+                            created.startup(clientName);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    private static Object kafkaSettings(Thing thing) {
+        return thing.getProperties() != null ? thing.getProperties().get("kafka") : null;
+    }
+    private synchronized List<ObservationProcessor> processors() {
+        return new ArrayList<ObservationProcessor>(processor.values());
+    }
+    /**
+     * Perform the registration, with bulk loading the registration is kept until the metadata is loaded
+     * @param registration
+     * @return
+     * @throws ServiceFailureException
+     */
+    private ToolsetClient defer(Registration registration) throws ServiceFailureException {
+        if ( bulkBootstrap && catalog == null ) {
+            pending.add(registration);
+        }
+        else {
+            registration.resolve();
+        }
+        return this;
+    }
+    /**
+     * Lookup helpers, answered from the {@link #catalog} when loaded. Entities missing in the 
+     * catalog (e.g. created after the snapshot was taken) are requested from the server.
+     * @throws ServiceFailureException When the entity is not found
+     */
+    private Thing findThing(Long thingId) throws ServiceFailureException {
+        if ( catalog != null ) {
+            Thing thing = catalog.getThing(thingId);
+            if ( thing != null ) {
+                return thing;
+            }
+        }
+        Thing thing = service.things().find(thingId);
+        if ( thing == null ) {
+            throw new ServiceFailureException(String.format("Thing(%s) not found!", thingId));
+        }
+        return thing;
+    }
+    private List<Thing> findThings(String thingName) throws ServiceFailureException {
+        if ( catalog != null ) {
+            List<Thing> things = catalog.getThings(thingName);
+            if ( things != null && !things.isEmpty()) {
+                return things;
+            }
+        }
+        List<Thing> things = new ArrayList<Thing>();
+        Iterator<Thing> thingIterator = service.things().query().filter(filterEquals("name",thingName)).list().iterator();
+        while (thingIterator.hasNext()) {
+            things.add(thingIterator.next());
+        }
+        return things;
+    }
+    private Datastream findDatastream(Long datastreamId) throws ServiceFailureException {
+        if ( catalog != null ) {
+            Datastream stream = catalog.getDatastream(datastreamId);
+            if ( stream != null ) {
+                return stream;
+            }
+        }
+        Datastream stream = service.datastreams().find(datastreamId);
+        if ( stream == null ) {
+            throw new ServiceFailureException(String.format("Datastream(%s) not found!", datastreamId));
+        }
+        return stream;
+    }
+    private Datastream findDatastream(Thing theThing, Long datastreamId) throws ServiceFailureException {
+        if ( catalog != null && catalog.getDatastreams(theThing.getId()) != null ) {
+            for (Datastream stream : catalog.getDatastreams(theThing.getId())) {
+                if ( datastreamId.equals(stream.getId().getValue())) {
+                    return stream;
+                }
+            }
+        }
+        Datastream stream = theThing.datastreams().find(datastreamId);
+        if ( stream == null ) {
+            throw new ServiceFailureException(String.format("Datastream(%s) of thing %s not found!", datastreamId, theThing.getName()));
+        }
+        return stream;
+    }
+    private List<Datastream> findDatastreams(String datastreamName) throws ServiceFailureException {
+        if ( catalog != null ) {
+            List<Datastream> streams = catalog.getDatastreams(datastreamName);
+            if ( streams != null && !streams.isEmpty()) {
+                return streams;
+            }
+        }
+        List<Datastream> streams = new ArrayList<Datastream>();
+        Iterator<Datastream> streamIterator = service.datastreams().query().filter(filterEquals("name", datastreamName)).list().iterator();
+        while (streamIterator.hasNext()) {
+            streams.add(streamIterator.next());
+        }
+        return streams;
+    }
+    private List<Datastream> findDatastreams(Thing theThing, String datastreamName) throws ServiceFailureException {
+        if ( catalog != null && catalog.getDatastreams(theThing.getId()) != null ) {
+            List<Datastream> streams = new ArrayList<Datastream>();
+            for (Datastream stream : catalog.getDatastreams(theThing.getId())) {
+                if ( datastreamName.equals(stream.getName())) {
+                    streams.add(stream);
+                }
+            }
+            if (! streams.isEmpty()) {
+                return streams;
+            }
+        }
+        List<Datastream> streams = new ArrayList<Datastream>();
+        Iterator<Datastream> streamIterator = theThing.datastreams().query().filter(filterEquals("name", datastreamName)).list().iterator();
+        while (streamIterator.hasNext()) {
+            streams.add(streamIterator.next());
+        }
+        return streams;
+    }
     /**
      * Creates and registers the internal {@link ObservationProcessor}
      * @param aThing
      * @return
      */
-    private ObservationProcessor registerObservationProcessor(Thing aThing) {
+    private synchronized ObservationProcessor registerObservationProcessor(Thing aThing) {
         // register only once
         if (! processor.containsKey(aThing.getId())) {
             ObservationProcessor thingProcessor = new ObservationProcessor(aThing);
+            thingProcessor.setMetadataTtl(metadataTtl, metadataMissTtl, TimeUnit.MILLISECONDS);
+            thingProcessor.setProfiles(profiles);
+            thingProcessor.setTransport(transport);
+            thingProcessor.setHistory(history);
+            if ( catalog != null && catalog.getDatastreams(aThing.getId()) != null ) {
+                thingProcessor.preload(catalog.getDatastreams(aThing.getId()));
+            }
             processor.put(aThing.getId(), thingProcessor);
             return thingProcessor;
         }
@@ -0,0 +1,55 @@
+package eu.imaintenance.toolset.api;
+/**
+ * Rollup of the observations of one datastream within a window, delivered to an
+ * {@link AggregateHandler}. The window covers the phenomenon times from {@link #getWindowStart()}
+ * (inclusive) to {@link #getWindowEnd()} (exclusive). Truth values are aggregated as 
+ * <code>1</code> (true) and <code>0</code> (false), the mean is the share of <code>true</code>.
+ * <p>
+ * The aggregate is reused for the subsequent windows of the datastream, it must not be used 
+ * after {@link AggregateHandler#onAggregate(Aggregate)} returns.
+ * </p>
+ * @author dglachs
+ *
+ */
+public interface Aggregate {
+    /**
+     * @return The numeric id of the datastream, <code>-1</code> for non numeric id's
+     */
+    long getDatastreamId();
+    /**
+     * @return The start of the window in nanoseconds since the epoch (inclusive)
+     */
+    long getWindowStart();
+    /**
+     * @return The end of the window in nanoseconds since the epoch (exclusive)
+     */
+    long getWindowEnd();
+    /**
+     * @return The number of observations within the window, always positive
+     */
+    long getCount();
+    /**
+     * @return The smallest value
+     */
+    double getMin();
+    /**
+     * @return The largest value
+     */
+    double getMax();
+    /**
+     * @return The sum of the values
+     */
+    double getSum();
+    /**
+     * @return The mean of the values
+     */
+    double getMean();
+    /**
+     * @return The value with the latest phenomenon time
+     */
+    double getLast();
+    /**
+     * @return The phenomenon time of the last value in nanoseconds since the epoch
+     */
+    long getLastTime();
+}
@@ -0,0 +1,23 @@
+package eu.imaintenance.toolset.api;
+
+import eu.imaintenance.toolset.observation.handler.Window;
+import eu.imaintenance.toolset.observation.handler.WindowAggregator;
+/**
+ * Handler receiving one {@link Aggregate} per datastream and window instead of each 
+ * observation. The handler is wrapped by a {@link WindowAggregator}, which is registered like 
+ * any other {@link ObservationHandler}, e.g.
+ * <pre>
+ * client.registerHandler(thingId, WindowAggregator.measurements(Window.tumbling(1, TimeUnit.SECONDS), aggregate -&gt; ...));
+ * </pre>
+ * @see Window
+ * @author dglachs
+ *
+ */
+@FunctionalInterface
+public interface AggregateHandler {
+    /**
+     * Method invoked once the window of a datastream is closed
+     * @param aggregate The rollup of the window, must not be used after the method returns
+     */
+    void onAggregate(Aggregate aggregate);
+}
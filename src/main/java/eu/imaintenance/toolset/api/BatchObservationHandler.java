@@ -0,0 +1,56 @@
+package eu.imaintenance.toolset.api;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+/**
+ * Handler receiving the observations of its datastreams in batches instead of one by one. 
+ * A batch contains observations received with one poll of the underlying 
+ * messaging infrastructure, limited by {@link #getMaxBatchSize()}. With a positive 
+ * {@link #getMaxLingerMillis()} the observations of subsequent polls are collected 
+ * until the linger time is over.
+ * <p>
+ * The observations are collected by the worker processing their datastream, each
+ * datastream is always processed by the same worker. A poll is therefore delivered as
+ * one batch per worker and {@link #onObservations(ObservationBatch)} is invoked concurrently
+ * by the workers, so the handler must be thread safe. The observations of a datastream
+ * are delivered in the order received.
+ * </p>
+ * <p>
+ * The handler is registered like any other {@link ObservationHandler}, e.g. by extending
+ * {@link eu.imaintenance.toolset.observation.AbstractObservationHandler} and implementing this interface.
+ * </p>
+ * @author dglachs
+ *
+ * @param <T>
+ */
+public interface BatchObservationHandler<T> extends ObservationHandler<T> {
+    /**
+     * Default maximum number of observations per batch
+     */
+    int DEFAULT_MAX_BATCH_SIZE = 1000;
+    /**
+     * Method invoked with the observations collected for the handler
+     * @param batch The observations, the batch must not be used after the method returns
+     */
+    public void onObservations(ObservationBatch<T> batch);
+    /**
+     * @return The maximum number of observations per batch
+     */
+    default int getMaxBatchSize() {
+        return DEFAULT_MAX_BATCH_SIZE;
+    }
+    /**
+     * @return The maximum time in milliseconds the observations are collected, <code>0</code>
+     * delivers the observations at the end of each poll
+     */
+    default long getMaxLingerMillis() {
+        return 0;
+    }
+    /**
+     * Invoked when the observation is not collected by a dispatcher, delivers
+     * the observation as batch of one with {@link #onObservations(ObservationBatch)}
+     */
+    @Override
+    default void onObservation(Observation observation, T result) {
+        onObservations(new SingleObservation<T>(observation, result));
+    }
+}
@@ -0,0 +1,70 @@
+package eu.imaintenance.toolset.api;
+
+import java.util.List;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+/**
+ * Batch of observations delivered to a {@link BatchObservationHandler}. The batch 
+ * may be used as list of observations and results or as columnar view providing the 
+ * datastream id's, the phenomenon times and the (numeric) values.
+ * @author dglachs
+ *
+ * @param <T> The type of the results
+ */
+public interface ObservationBatch<T> {
+    /**
+     * @return The number of observations in the batch
+     */
+    int size();
+    /**
+     * @param index
+     * @return The observation at the given position
+     */
+    Observation getObservation(int index);
+    /**
+     * @param index
+     * @return The typed result of the observation at the given position
+     */
+    T getResult(int index);
+    /**
+     * @param index
+     * @return The datastream of the observation at the given position
+     */
+    Datastream getDatastream(int index);
+    /**
+     * @param index
+     * @return The numeric id of the observation's datastream, <code>-1</code> for non numeric id's
+     */
+    long getDatastreamId(int index);
+    /**
+     * @param index
+     * @return The phenomenon time (start) in nanoseconds since the epoch
+     */
+    long getPhenomenonTime(int index);
+    /**
+     * @param index
+     * @return The result as <code>double</code>, <code>NaN</code> for non numeric results
+     */
+    double getValue(int index);
+    /**
+     * @return The observations as list
+     */
+    List<Observation> getObservations();
+    /**
+     * @return The typed results as list
+     */
+    List<T> getResults();
+    /**
+     * @return Column with the numeric datastream id's, see {@link #getDatastreamId(int)}
+     */
+    long[] getDatastreamIds();
+    /**
+     * @return Column with the phenomenon times, see {@link #getPhenomenonTime(int)}
+     */
+    long[] getPhenomenonTimes();
+    /**
+     * @return Column with the values, see {@link #getValue(int)}
+     */
+    double[] getValues();
+}
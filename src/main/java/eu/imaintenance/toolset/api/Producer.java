@@ -2,12 +2,17 @@ package eu.imaintenance.toolset.api;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
 
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import eu.imaintenance.toolset.observation.SendPolicy;
 
 /**
  * Interface provided to the clients for sending their data to the
@@ -31,6 +36,10 @@ import de.fraunhofer.iosb.ilt.sta.model.Thing;
  */
 
 public interface Producer<T> {
+    /**
+     * Default limit of in-flight sends, see {@link #withMaxInFlight(int, boolean)}
+     */
+    int DEFAULT_MAX_IN_FLIGHT = 10000;
     /**
      * Send the observed value, the observation time is inserted
      * automatically (actual time)
@@ -84,6 +93,87 @@ public interface Producer<T> {
      * @return
      */
     boolean send(T value, Instant when, Duration duration, Callback callback);
+    /**
+     * Send the observed value asynchronously, the observation time is inserted
+     * automatically (actual time). The returned future completes when the message 
+     * is acknowledged by the messaging infrastructure or fails with the delivery error.
+     * <p>
+     * The future is completed by the producer's I/O thread, dependent stages with 
+     * expensive processing should use an executor (e.g. <code>thenAcceptAsync</code>).
+     * </p>
+     * <p>
+     * The number of in-flight sends is limited, see {@link #withMaxInFlight(int, boolean)}.
+     * </p>
+     * @param value The observed value
+     * @return The future reporting the record's metadata
+     */
+    CompletableFuture<RecordMetadata> sendAsync(T value);
+    /**
+     * Send the observed value asynchronously, see {@link #sendAsync(Object)}
+     * @param value The observed value
+     * @param when The time, the observation has been made
+     * @return The future reporting the record's metadata
+     */
+    CompletableFuture<RecordMetadata> sendAsync(T value, Instant when);
+    /**
+     * Send the observed value asynchronously, see {@link #sendAsync(Object)}
+     * @param value The observed value
+     * @param when The start time of the observation
+     * @param duration The duration of the observation
+     * @return The future reporting the record's metadata
+     */
+    CompletableFuture<RecordMetadata> sendAsync(T value, Instant when, Duration duration);
+    /**
+     * Limit the number of in-flight sends of {@link #sendAsync(Object)}, e.g. sends 
+     * not yet acknowledged by the messaging infrastructure. 
+     * @param maxInFlight The maximum number of in-flight sends, defaults to {@link #DEFAULT_MAX_IN_FLIGHT}
+     * @param block <code>true</code> when a send should block until an in-flight send completes, 
+     *              <code>false</code> to fail fast with a {@link RejectedExecutionException}
+     * @return The producer
+     */
+    Producer<T> withMaxInFlight(int maxInFlight, boolean block);
+    /**
+     * Filter the values to send, e.g. with a deadband or a minimum interval. Values filtered 
+     * by the policy are not serialized, {@link #send(Object)} reports them as sent, the callback 
+     * of {@link #send(Object, Callback)} is invoked with neither metadata nor exception and 
+     * {@link #sendAsync(Object)} completes with <code>null</code>. A value counts as the last value 
+     * sent once it is handed over to the messaging infrastructure.
+     * @param policy The policy, <code>null</code> or {@link SendPolicy#always()} sends every value
+     * @return The producer
+     */
+    Producer<T> withSendPolicy(SendPolicy policy);
+    /**
+     * Send a buffer of measurements, the buffer is serialized in one pass and handed 
+     * over to the messaging infrastructure in one burst. Only applicable for 
+     * datastreams expecting {@link Double} values.
+     * @param values The observed values
+     * @param epochMillis The observation times in milliseconds since the epoch, one per value
+     * @return
+     */
+    boolean sendAll(double[] values, long[] epochMillis);
+    /**
+     * Send a buffer of counts, see {@link #sendAll(double[], long[])}. Only applicable 
+     * for datastreams expecting {@link Integer} values.
+     * @param values The observed counts
+     * @param epochMillis The observation times in milliseconds since the epoch, one per value
+     * @return
+     */
+    boolean sendAll(int[] values, long[] epochMillis);
+    /**
+     * Send a buffer of truth values, see {@link #sendAll(double[], long[])}. Only applicable 
+     * for datastreams expecting {@link Boolean} values.
+     * @param values The observed truth values
+     * @param epochMillis The observation times in milliseconds since the epoch, one per value
+     * @return
+     */
+    boolean sendAll(boolean[] values, long[] epochMillis);
+    /**
+     * Send a list of observed values, see {@link #sendAll(double[], long[])}.
+     * @param values The observed values
+     * @param epochMillis The observation times in milliseconds since the epoch, one per value
+     * @return
+     */
+    boolean sendAll(List<T> values, long[] epochMillis);
     /**
      * Close the {@link Producer}. Upon closing the producer is no longer usable!
      */
@@ -0,0 +1,107 @@
+package eu.imaintenance.toolset.api;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
+/**
+ * Batch holding a single observation, used by the default 
+ * {@link BatchObservationHandler#onObservation(Observation, Object)}.
+ * @author dglachs
+ *
+ * @param <T>
+ */
+final class SingleObservation<T> implements ObservationBatch<T> {
+    private final Observation observation;
+    private final T result;
+
+    SingleObservation(Observation observation, T result) {
+        this.observation = observation;
+        this.result = result;
+    }
+    @Override
+    public int size() {
+        return 1;
+    }
+    @Override
+    public Observation getObservation(int index) {
+        checkIndex(index);
+        return observation;
+    }
+    @Override
+    public T getResult(int index) {
+        checkIndex(index);
+        return result;
+    }
+    @Override
+    public Datastream getDatastream(int index) {
+        checkIndex(index);
+        return datastream();
+    }
+    @Override
+    public long getDatastreamId(int index) {
+        checkIndex(index);
+        Datastream stream = datastream();
+        if ( stream != null && stream.getId() != null && stream.getId().getValue() instanceof Number ) {
+            return ((Number) stream.getId().getValue()).longValue();
+        }
+        return -1;
+    }
+    @Override
+    public long getPhenomenonTime(int index) {
+        checkIndex(index);
+        TimeObject time = observation.getPhenomenonTime();
+        if ( time == null ) {
+            return 0;
+        }
+        Instant instant = time.isInterval() ? time.getAsInterval().getStart() : time.getAsDateTime().toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        if ( result instanceof Number ) {
+            return ((Number) result).doubleValue();
+        }
+        if ( result instanceof Boolean ) {
+            return ((Boolean) result) ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+    @Override
+    public List<Observation> getObservations() {
+        return Collections.singletonList(observation);
+    }
+    @Override
+    public List<T> getResults() {
+        return Collections.singletonList(result);
+    }
+    @Override
+    public long[] getDatastreamIds() {
+        return new long[] { getDatastreamId(0) };
+    }
+    @Override
+    public long[] getPhenomenonTimes() {
+        return new long[] { getPhenomenonTime(0) };
+    }
+    @Override
+    public double[] getValues() {
+        return new double[] { getValue(0) };
+    }
+    private Datastream datastream() {
+        try {
+            return observation.getDatastream();
+        } catch (ServiceFailureException e) {
+            return null;
+        }
+    }
+    private void checkIndex(int index) {
+        if ( index != 0 ) {
+            throw new IndexOutOfBoundsException(String.format("Index %s, size 1", index));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package eu.imaintenance.toolset.observation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.BatchObservationHandler;
+import eu.imaintenance.toolset.util.kafka.PartitionState;
+/**
+ * Collects the observations for a {@link BatchObservationHandler} and delivers them
+ * when the batch is full, at the end of a poll or when the linger time is over.
+ * <p>
+ * The record of an observation is completed once the batch holding the observation has been
+ * delivered, so that the committed position does not pass undelivered observations. The 
+ * threads processing the records announce the record with {@link #processing(PartitionState, long)}
+ * and {@link #processed()}.
+ * </p>
+ * @author dglachs
+ *
+ * @param <T>
+ */
+final class BatchAccumulator<T> {
+    private Logger logger = LoggerFactory.getLogger(BatchAccumulator.class);
+
+    /**
+     * The record processed by the current thread
+     */
+    private static final ThreadLocal<Record> RECORD = ThreadLocal.withInitial(Record::new);
+
+    private final BatchObservationHandler<T> handler;
+    private final int maxBatchSize;
+    private final long maxLinger;
+
+    private ObservationBuffer<T> buffer;
+    /**
+     * The records of the buffered observations
+     */
+    private List<Completion> records;
+    private long started;
+
+    BatchAccumulator(BatchObservationHandler<T> handler) {
+        this.handler = handler;
+        this.maxBatchSize = Math.max(1, handler.getMaxBatchSize());
+        this.maxLinger = TimeUnit.MILLISECONDS.toNanos(Math.max(0, handler.getMaxLingerMillis()));
+    }
+    /**
+     * Add an observation, a full batch is delivered immediately
+     * @param observation
+     * @param result
+     */
+    void add(Observation observation, T result) {
+        Completion record = hold();
+        ObservationBuffer<T> full = null;
+        List<Completion> fullRecords = null;
+        synchronized (this) {
+            if ( buffer == null ) {
+                buffer = new ObservationBuffer<T>(Math.min(maxBatchSize, 64));
+                records = new ArrayList<Completion>(Math.min(maxBatchSize, 64));
+                started = System.nanoTime();
+            }
+            buffer.add(observation, result);
+            if ( record != null ) {
+                records.add(record);
+            }
+            if ( buffer.size() >= maxBatchSize ) {
+                full = buffer;
+                fullRecords = records;
+                buffer = null;
+                records = null;
+            }
+        }
+        deliver(full, fullRecords);
+    }
+    /**
+     * Deliver the collected observations unless the linger time is not yet over
+     */
+    void flush() {
+        ObservationBuffer<T> due = null;
+        List<Completion> dueRecords = null;
+        synchronized (this) {
+            if ( buffer != null && System.nanoTime() - started >= maxLinger ) {
+                due = buffer;
+                dueRecords = records;
+                buffer = null;
+                records = null;
+            }
+        }
+        deliver(due, dueRecords);
+    }
+    /**
+     * Deliver the batch, the records are completed once the handler returns
+     */
+    private void deliver(ObservationBuffer<T> batch, List<Completion> batchRecords) {
+        if ( batch == null ) {
+            return;
+        }
+        try {
+            handler.onObservations(batch);
+        } catch (Exception e) {
+            logger.error("Batch handler {} failed: {}", handler.getClass().getName(), e.getLocalizedMessage(), e);
+        } finally {
+            for (Completion record : batchRecords) {
+                record.release();
+            }
+        }
+    }
+    /**
+     * Announce the record processed by the current thread
+     * @param partition The partition of the record, may be <code>null</code> when not tracked
+     * @param offset The offset of the record
+     */
+    static void processing(PartitionState partition, long offset) {
+        Record record = RECORD.get();
+        record.partition = partition;
+        record.offset = offset;
+        record.completion = null;
+    }
+    /**
+     * The current thread has processed the record, the record is completed unless batches 
+     * hold observations of the record
+     */
+    static void processed() {
+        Record record = RECORD.get();
+        if ( record.completion != null ) {
+            record.completion.release();
+        }
+        else {
+            PartitionState.completed(record.partition, record.offset);
+        }
+        record.partition = null;
+        record.completion = null;
+    }
+    /**
+     * Hold the record processed by the current thread until the batch is delivered
+     * @return The completion of the record, <code>null</code> when the record is not tracked
+     */
+    private static Completion hold() {
+        Record record = RECORD.get();
+        if ( record.partition == null ) {
+            return null;
+        }
+        if ( record.completion == null ) {
+            record.completion = new Completion(record.partition, record.offset);
+        }
+        record.completion.remaining.incrementAndGet();
+        return record.completion;
+    }
+    /**
+     * The record processed by a thread
+     */
+    private static final class Record {
+        PartitionState partition;
+        long offset;
+        Completion completion;
+    }
+    /**
+     * Completes the record once the processing thread and all batches are done with it
+     */
+    private static final class Completion {
+        final PartitionState partition;
+        final long offset;
+        /**
+         * The holders of the record, the processing thread holds the record until processed
+         */
+        final AtomicInteger remaining = new AtomicInteger(1);
+
+        Completion(PartitionState partition, long offset) {
+            this.partition = partition;
+            this.offset = offset;
+        }
+        void release() {
+            if ( remaining.decrementAndGet() == 0 ) {
+                partition.completed(offset);
+            }
+        }
+    }
+}
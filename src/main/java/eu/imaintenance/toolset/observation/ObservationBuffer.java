@@ -0,0 +1,159 @@
+package eu.imaintenance.toolset.observation;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.ObservationBatch;
+import eu.imaintenance.toolset.util.json.IsoTime;
+/**
+ * Growing buffer of observations implementing the {@link ObservationBatch}. The 
+ * columns (datastream id's, phenomenon times, values) are filled when an observation
+ * is added.
+ * @author dglachs
+ *
+ * @param <T> The type of the results
+ */
+public final class ObservationBuffer<T> implements ObservationBatch<T> {
+    private Observation[] observations;
+    private Object[] results;
+    private long[] datastreamIds;
+    private long[] phenomenonTimes;
+    private double[] values;
+    private int size;
+
+    public ObservationBuffer(int capacity) {
+        int initial = Math.max(capacity, 1);
+        observations = new Observation[initial];
+        results = new Object[initial];
+        datastreamIds = new long[initial];
+        phenomenonTimes = new long[initial];
+        values = new double[initial];
+    }
+    /**
+     * Add the observation along with it's typed result
+     * @param observation
+     * @param result
+     */
+    public void add(Observation observation, T result) {
+        if ( size == observations.length ) {
+            int capacity = size * 2;
+            observations = Arrays.copyOf(observations, capacity);
+            results = Arrays.copyOf(results, capacity);
+            datastreamIds = Arrays.copyOf(datastreamIds, capacity);
+            phenomenonTimes = Arrays.copyOf(phenomenonTimes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        observations[size] = observation;
+        results[size] = result;
+        datastreamIds[size] = datastreamId(observation);
+        phenomenonTimes[size] = IsoTime.toEpochNanos(observation.getPhenomenonTime());
+        values[size] = value(result);
+        size++;
+    }
+    @Override
+    public int size() {
+        return size;
+    }
+    @Override
+    public Observation getObservation(int index) {
+        checkIndex(index);
+        return observations[index];
+    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public T getResult(int index) {
+        checkIndex(index);
+        return (T) results[index];
+    }
+    @Override
+    public Datastream getDatastream(int index) {
+        checkIndex(index);
+        try {
+            return observations[index].getDatastream();
+        } catch (ServiceFailureException e) {
+            return null;
+        }
+    }
+    @Override
+    public long getDatastreamId(int index) {
+        checkIndex(index);
+        return datastreamIds[index];
+    }
+    @Override
+    public long getPhenomenonTime(int index) {
+        checkIndex(index);
+        return phenomenonTimes[index];
+    }
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+    @Override
+    public List<Observation> getObservations() {
+        return new AbstractList<Observation>() {
+            @Override
+            public Observation get(int index) {
+                return getObservation(index);
+            }
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    @Override
+    public List<T> getResults() {
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                return getResult(index);
+            }
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    @Override
+    public long[] getDatastreamIds() {
+        return Arrays.copyOf(datastreamIds, size);
+    }
+    @Override
+    public long[] getPhenomenonTimes() {
+        return Arrays.copyOf(phenomenonTimes, size);
+    }
+    @Override
+    public double[] getValues() {
+        return Arrays.copyOf(values, size);
+    }
+    private void checkIndex(int index) {
+        if ( index < 0 || index >= size ) {
+            throw new IndexOutOfBoundsException(String.format("Index %s, size %s", index, size));
+        }
+    }
+    private static long datastreamId(Observation observation) {
+        try {
+            Datastream stream = observation.getDatastream();
+            if ( stream != null && stream.getId() != null && stream.getId().getValue() instanceof Number ) {
+                return ((Number) stream.getId().getValue()).longValue();
+            }
+        } catch (ServiceFailureException e) {
+            // no datastream available
+        }
+        return -1;
+    }
+    private static double value(Object result) {
+        if ( result instanceof Number ) {
+            return ((Number) result).doubleValue();
+        }
+        if ( result instanceof Boolean ) {
+            return ((Boolean) result) ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,612 @@
+package eu.imaintenance.toolset.observation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import eu.imaintenance.toolset.api.BatchObservationHandler;
+import eu.imaintenance.toolset.util.cache.DatastreamIndex;
+import eu.imaintenance.toolset.util.cache.MetadataCache;
+import eu.imaintenance.toolset.util.codec.ObservationCodec;
+import eu.imaintenance.toolset.util.codec.ObservationCodecs;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.kafka.Consumer;
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+import eu.imaintenance.toolset.util.kafka.KafkaTransport;
+import eu.imaintenance.toolset.util.kafka.PartitionState;
+import eu.imaintenance.toolset.util.metrics.Metrics;
+import eu.imaintenance.toolset.util.metrics.PipelineMetrics;
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.ConsumerBudget;
+import eu.imaintenance.toolset.util.transport.Transport;
+/**
+ * Dispatcher serving all {@link ObservationProcessor}s connected to the same Kafka cluster
+ * (or {@link Transport}).
+ * The dispatcher runs a single consumer group for the union of the processors' topics,
+ * reads the datastream id of each message and routes the message to the
+ * {@link ObservationProcessor} owning the observation's datastream, which parses the 
+ * {@link Observation} once.
+ * @author dglachs
+ *
+ */
+public final class ObservationDispatcher {
+    private Logger logger = LoggerFactory.getLogger(ObservationDispatcher.class);
+    /**
+     * The transport providing the messages, e.g. the Kafka cluster
+     */
+    private final Transport transport;
+    /**
+     * The union of the topics watched by the processors
+     */
+    private final List<String> topics = new ArrayList<String>();
+    /**
+     * The processors served by the dispatcher
+     */
+    private final List<ObservationProcessor> processors = new CopyOnWriteArrayList<ObservationProcessor>();
+    /**
+     * The processors by the id of their thing, routes the discovered datastreams
+     */
+    private final Map<Id, ObservationProcessor> processorsByThing = new ConcurrentHashMap<Id, ObservationProcessor>();
+    /**
+     * Routing index, maps the datastream id to the processor in charge
+     */
+    private final DatastreamIndex<ObservationProcessor> routes = new DatastreamIndex<ObservationProcessor>();
+
+    /**
+     * Cache for datastreams not registered upfront, the processor in charge is looked up
+     * asynchronously, unknown datastreams are cached as well
+     */
+    private final MetadataCache<Id, ObservationProcessor> discovered;
+    /**
+     * Messages waiting for the lookup of their datastream, guarded by the map itself. While
+     * messages of a datastream are waiting, subsequent messages of the datastream are parked 
+     * behind them, so that the order is kept.
+     */
+    private final Map<Id, List<PendingMessage>> pending = new HashMap<Id, List<PendingMessage>>();
+    /**
+     * Datastreams whose lookup has finished, the pending messages are processed with the next message
+     */
+    private final Queue<Resolution> resolved = new ConcurrentLinkedQueue<Resolution>();
+    /**
+     * Maximum number of messages kept per datastream while waiting for the lookup
+     */
+    private static final int MAX_PENDING = 1000;
+
+    /**
+     * Accumulators collecting the observations of the {@link BatchObservationHandler}s, used
+     * when the handlers are not invoked by the workers
+     */
+    private final Map<BatchObservationHandler<?>, BatchAccumulator<?>> batches = new ConcurrentHashMap<BatchObservationHandler<?>, BatchAccumulator<?>>();
+
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+    /**
+     * The consumers per group of topics, see {@link #topicsByProfile()}
+     */
+    private final Map<KafkaProfile, List<Consumer>> consumerGroups = new ConcurrentHashMap<KafkaProfile, List<Consumer>>();
+    private final AtomicInteger nextConsumerId = new AtomicInteger();
+    /**
+     * The threads of the client running the consumers and the workers
+     */
+    private ObservationScheduler scheduler;
+    /**
+     * Interval for checking the number of partitions
+     */
+    private static final long PARTITION_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private ConsumerBudget consumerBudget = new ConsumerBudget(Runtime.getRuntime().availableProcessors());
+
+    private String clientName;
+    /**
+     * Workers executing the handlers, decoupled from the polling threads
+     */
+    private WorkerStripes workers;
+
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+
+    private int workerQueueCapacity = WorkerStripes.DEFAULT_QUEUE_CAPACITY;
+
+    private int highWaterMark = Consumer.DEFAULT_HIGH_WATER_MARK;
+
+    private int lowWaterMark = Consumer.DEFAULT_LOW_WATER_MARK;
+
+    private CommitPolicy commitPolicy = CommitPolicy.AUTO;
+
+    public ObservationDispatcher(List<String> hosts) {
+        this(new KafkaTransport(hosts));
+    }
+    public ObservationDispatcher(Transport transport) {
+        this.transport = transport;
+        this.discovered = new MetadataCache<Id, ObservationProcessor>(this::discover);
+    }
+    /**
+     * Dispatcher looking up the datastreams not registered upfront with the given loader
+     * @param transport
+     * @param discovery
+     */
+    ObservationDispatcher(Transport transport, MetadataCache.Loader<Id, ObservationProcessor> discovery) {
+        this.transport = transport;
+        this.discovered = new MetadataCache<Id, ObservationProcessor>(discovery);
+    }
+    /**
+     * @return The transport providing the messages
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+    /**
+     * Specify the workers executing the handlers
+     * @param threads The number of worker threads
+     * @param queueCapacity The number of messages each worker may queue
+     */
+    public void setWorkers(int threads, int queueCapacity) {
+        this.workerThreads = threads;
+        this.workerQueueCapacity = queueCapacity;
+    }
+    /**
+     * Add a {@link ObservationProcessor} to the dispatcher, the processor's topics
+     * are added to the list of watched topics.
+     * @param processor
+     */
+    public void register(ObservationProcessor processor) {
+        processors.add(processor);
+        if ( processor.getThing().getId() != null ) {
+            processorsByThing.putIfAbsent(processor.getThing().getId(), processor);
+        }
+        for (String topic : processor.getTopics()) {
+            if (! topics.contains(topic)) {
+                topics.add(topic);
+            }
+        }
+        processor.attach(this);
+    }
+    /**
+     * Route the observations of the given datastream to the processor
+     * @param streamId The id of the datastream
+     * @param processor The processor in charge
+     */
+    public void route(Id streamId, ObservationProcessor processor) {
+        routes.put(streamId, processor);
+    }
+    /**
+     * Specify the backpressure limits per partition, see {@link Consumer#withBackpressure(int, int)}
+     * @param highWaterMark
+     * @param lowWaterMark
+     */
+    public void setBackpressure(int highWaterMark, int lowWaterMark) {
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+    /**
+     * Specify when the consumers commit the positions, see {@link CommitPolicy}
+     * @param commitPolicy
+     */
+    public void setCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+    /**
+     * Specify the budget limiting the consumers of all dispatchers, see {@link ConsumerBudget}
+     * @param consumerBudget
+     */
+    public void setConsumerBudget(ConsumerBudget consumerBudget) {
+        this.consumerBudget = consumerBudget;
+    }
+    /**
+     * Specify the threads running the consumers and the workers, shared with the other
+     * dispatchers of the client. Must be specified before {@link #startup(String)}.
+     * @param scheduler
+     */
+    public void setScheduler(ObservationScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    /**
+     * Start the workers and the consumers. The topics are consumed by one consumer per partition,
+     * limited by the {@link ConsumerBudget}. Each group of topics starts with a single consumer,
+     * the partitions are checked right away and periodically, so that the consumers grow along
+     * with partitions added at runtime. Without a shared {@link ObservationScheduler}, the 
+     * dispatcher creates it's own.
+     * @param clientName The consumer group
+     */
+    public void startup(String clientName) {
+        this.clientName = clientName;
+        if ( scheduler == null ) {
+            scheduler = new ObservationScheduler(clientName, workerThreads, workerQueueCapacity, false);
+            scheduler.addShutdownHook();
+        }
+        scheduler.start(this);
+        workers = scheduler.workers();
+        // topics with different consumer settings are consumed by separate consumers
+        for (Map.Entry<KafkaProfile, List<String>> entry : topicsByProfile().entrySet()) {
+            consumerGroups.put(entry.getKey(), new ArrayList<Consumer>());
+            startConsumers(entry.getKey(), entry.getValue(), consumerBudget.acquire(1, 1));
+        }
+        scheduler.timer().scheduleWithFixedDelay(this::resize, 0, PARTITION_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * Stop the consumers and return them to the budget, invoked by the {@link ObservationScheduler}
+     * on shutdown
+     */
+    void stopConsumers() {
+        for (Consumer consumer : consumers) {
+            consumer.shutdown();
+        }
+        consumerBudget.release(consumers.size());
+    }
+    /**
+     * Start additional consumers for the topics, all consumers share the same group - each
+     * message is received once per client
+     */
+    private void startConsumers(KafkaProfile profile, List<String> topics, int count) {
+        List<Consumer> group = consumerGroups.get(profile);
+        for (int i = 0; i < count; i++) {
+            Consumer consumer = new Consumer(nextConsumerId.getAndIncrement(), transport, clientName, topics, this, profile)
+                    .withBackpressure(highWaterMark, lowWaterMark)
+                    .withCommitPolicy(commitPolicy);
+            group.add(consumer);
+            consumers.add(consumer);
+            scheduler.consumers().submit(consumer);
+        }
+    }
+    /**
+     * Grow the consumers of each group of topics up to the number of partitions, as far as 
+     * the budget permits. Surplus consumers are not stopped, they take over partitions when
+     * other members leave the group.
+     */
+    private void resize() {
+        for (Map.Entry<KafkaProfile, List<String>> entry : topicsByProfile().entrySet()) {
+            try {
+                int partitions = 0;
+                for (String topic : entry.getValue()) {
+                    partitions += Math.max(1, transport.partitions(topic));
+                }
+                List<Consumer> group = consumerGroups.get(entry.getKey());
+                if ( group == null ) {
+                    // topics registered after startup are not subscribed
+                    continue;
+                }
+                int running = group.size();
+                if ( partitions > running ) {
+                    int granted = consumerBudget.acquire(partitions - running, 0);
+                    if ( granted > 0 ) {
+                        startConsumers(entry.getKey(), entry.getValue(), granted);
+                    }
+                    logger.info("Topics {}: {} partitions, {} consumers ({} of {} consumers of the budget in use)",
+                            entry.getValue(), partitions, running + granted, consumerBudget.getUsed(), consumerBudget.getMax());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Partitions of {} cannot be obtained: {}", entry.getValue(), e.getLocalizedMessage());
+            }
+        }
+    }
+    /**
+     * Group the topics by the profile of the processors, the first processor watching 
+     * a topic determines the topic's profile
+     * @return
+     */
+    private Map<KafkaProfile, List<String>> topicsByProfile() {
+        Map<String, KafkaProfile> profiles = new LinkedHashMap<String, KafkaProfile>();
+        for (ObservationProcessor processor : processors) {
+            for (String topic : processor.getTopics()) {
+                KafkaProfile profile = processor.getProfile(topic);
+                KafkaProfile existing = profiles.putIfAbsent(topic, profile);
+                if ( existing != null && existing != profile ) {
+                    logger.warn("Topic {} is requested with profiles {} and {}, using {}", topic, existing, profile, existing);
+                }
+            }
+        }
+        Map<KafkaProfile, List<String>> grouped = new LinkedHashMap<KafkaProfile, List<String>>();
+        for (String topic : topics) {
+            grouped.computeIfAbsent(profiles.getOrDefault(topic, KafkaProfile.DEFAULT), p -> new ArrayList<String>()).add(topic);
+        }
+        if ( grouped.isEmpty()) {
+            grouped.put(KafkaProfile.DEFAULT, topics);
+        }
+        return grouped;
+    }
+    /**
+     * Specify the time to live of the routing metadata for datastreams which are not registered upfront
+     * @param ttl The time to live for found datastreams
+     * @param missTtl The time to live for unknown datastreams
+     * @param unit The time unit of the provided values
+     */
+    public void setMetadataTtl(long ttl, long missTtl, TimeUnit unit) {
+        discovered.withTtl(ttl, missTtl, unit);
+    }
+    /**
+     * Raw method processing Kafka messages. Only the datastream id is read upfront, the 
+     * payload is transformed to an {@link Observation} by the {@link ObservationProcessor} 
+     * in charge of the observation's datastream. Messages of datastreams no processor is
+     * interested in are skipped without further parsing.
+     * @param topic
+     * @param key
+     * @param payload
+     * @throws ServiceFailureException
+     */
+    public void processKafkaMessage(String topic, String key, String payload) throws ServiceFailureException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        while (! processKafkaMessage(topic, key, bytes, null, 0)) {
+            // not invoked by a polling thread, wait for the workers
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+    /**
+     * Raw method processing Kafka messages, the message is reported as completed to the 
+     * partition once it has been processed or skipped. The codec of the payload is detected
+     * per message, see {@link ObservationCodecs#detect(byte[])}.
+     * @param topic
+     * @param key
+     * @param payload The encoded observation
+     * @param partition The partition of the message, may be <code>null</code> when not tracked
+     * @param offset The offset of the message
+     * @return <code>false</code> when the message is not taken since the workers (or the messages 
+     *         waiting for the datastream's lookup) are at capacity, the caller keeps the message 
+     *         and hands it over again after the next poll
+     * @throws ServiceFailureException When the message cannot be routed, the message is not taken 
+     *         and must be completed by the caller
+     */
+    public boolean processKafkaMessage(String topic, String key, byte[] payload, PartitionState partition, long offset) throws ServiceFailureException {
+        processResolved();
+        ObservationHeader header = ObservationHeader.forThread();
+        ObservationCodec codec = ObservationCodecs.detect(payload);
+        try {
+            if (! codec.readHeader(payload, header)) {
+                logger.error("Payload of topic {}, key {} does not reference a datastream: {}", topic, key, codec.toString(payload));
+                metrics(partition, topic).parseFailed();
+                PartitionState.completed(partition, offset);
+                return true;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Payload of topic {}, key {} cannot be parsed as an observation: {}", topic, key, codec.toString(payload));
+            metrics(partition, topic).parseFailed();
+            PartitionState.completed(partition, offset);
+            return true;
+        }
+        ObservationProcessor processor = header.isNumeric() ? routes.get(header.getNumericId()) : routes.get(header.getStringId());
+        if ( processor == null ) {
+            Id streamId = header.getId();
+            Optional<ObservationProcessor> cached;
+            synchronized (pending) {
+                cached = pending.containsKey(streamId) ? null : discovered.getIfPresent(streamId);
+                if ( cached == null ) {
+                    // do not block on the lookup, keep the message until the lookup is finished
+                    return park(streamId, new PendingMessage(topic, key, payload, partition, offset));
+                }
+            }
+            processor = cached.orElse(null);
+        }
+        if ( processor != null ) {
+            return dispatch(processor, topic, key, payload, header, partition, offset);
+        }
+        // no processor is interested in the datastream
+        metrics(partition, topic).dropped();
+        PartitionState.completed(partition, offset);
+        return true;
+    }
+    /**
+     * Hand the message over to the worker in charge of the datastream, the message is 
+     * processed with the calling thread when the workers are not started. Like with the 
+     * workers, a failing handler is logged and the message is completed.
+     * @return <code>false</code> when the worker has no free slot
+     */
+    private boolean dispatch(ObservationProcessor processor, String topic, String key, byte[] payload, ObservationHeader header, PartitionState partition, long offset) {
+        if ( workers != null ) {
+            return workers.dispatch(processor, topic, key, payload, header, partition, offset);
+        }
+        BatchAccumulator.processing(partition, offset);
+        try {
+            processor.processKafkaMessage(topic, key, payload, header);
+        } catch (ServiceFailureException | RuntimeException e) {
+            logger.error(e.getLocalizedMessage(), e);
+        } finally {
+            BatchAccumulator.processed();
+        }
+        return true;
+    }
+    /**
+     * Method invoked by the consumers after the records of a poll have been processed. 
+     * The collected batches are delivered (unless their linger time is not yet over), 
+     * messages whose datastream lookup has finished are processed.
+     */
+    public void endOfPoll() {
+        processResolved();
+        if ( workers != null ) {
+            // the workers flush their batches after the messages of the poll
+            workers.flush();
+        }
+        for (BatchAccumulator<?> accumulator : batches.values()) {
+            accumulator.flush();
+        }
+    }
+    /**
+     * Obtain the accumulator for the batch handler
+     * @param handler
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    <T> BatchAccumulator<T> batch(BatchObservationHandler<T> handler) {
+        BatchAccumulator<T> accumulator = WorkerStripes.currentBatch(handler);
+        if ( accumulator != null ) {
+            return accumulator;
+        }
+        return (BatchAccumulator<T>) batches.computeIfAbsent(handler, h -> new BatchAccumulator<T>(handler));
+    }
+    /**
+     * Process the messages whose datastream lookup has finished in the meantime. The waiting
+     * messages are dispatched in order while holding the lock, subsequent messages of the
+     * datastream are routed with the {@link #discovered} cache once the messages are dispatched.
+     * When the workers are at capacity, the remaining messages keep waiting for the next call.
+     */
+    public void processResolved() {
+        List<Resolution> blocked = null;
+        Resolution resolution;
+        while ( (resolution = resolved.poll()) != null ) {
+            synchronized (pending) {
+                List<PendingMessage> messages = pending.remove(resolution.streamId);
+                if ( messages == null ) {
+                    continue;
+                }
+                int dispatched = dispatchPending(resolution.processor, messages);
+                if ( dispatched < messages.size() ) {
+                    pending.put(resolution.streamId, new ArrayList<PendingMessage>(messages.subList(dispatched, messages.size())));
+                    if ( blocked == null ) {
+                        blocked = new ArrayList<Resolution>();
+                    }
+                    blocked.add(resolution);
+                }
+            }
+        }
+        if ( blocked != null ) {
+            resolved.addAll(blocked);
+        }
+    }
+    /**
+     * Dispatch the waiting messages of a datastream in order
+     * @param processor The processor in charge, <code>null</code> to drop the messages
+     * @param messages The waiting messages
+     * @return The number of messages taken, less than the messages when the workers are at capacity
+     */
+    private int dispatchPending(ObservationProcessor processor, List<PendingMessage> messages) {
+        ObservationHeader header = ObservationHeader.forThread();
+        for (int i = 0; i < messages.size(); i++) {
+            PendingMessage message = messages.get(i);
+            try {
+                if ( processor != null && ObservationCodecs.detect(message.payload).readHeader(message.payload, header)) {
+                    if (! dispatch(processor, message.topic, message.key, message.payload, header, message.partition, message.offset)) {
+                        return i;
+                    }
+                }
+                else {
+                    metrics(message.partition, message.topic).dropped();
+                    PartitionState.completed(message.partition, message.offset);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error(e.getLocalizedMessage(), e);
+                PartitionState.completed(message.partition, message.offset);
+            }
+        }
+        return messages.size();
+    }
+    /**
+     * Keep the message until the processor in charge of the datastream is known, must be 
+     * called while holding the lock of {@link #pending}
+     * @param streamId
+     * @param message
+     * @return <code>false</code> when too many messages are waiting for the datastream
+     */
+    private boolean park(Id streamId, PendingMessage message) {
+        List<PendingMessage> waiting = pending.get(streamId);
+        if ( waiting == null ) {
+            waiting = new ArrayList<PendingMessage>();
+            pending.put(streamId, waiting);
+            // the messages are dispatched by the polling threads, see processResolved
+            discovered.getAsync(streamId).whenComplete((processor, failure) -> resolved.add(new Resolution(streamId, processor)));
+        }
+        if ( waiting.size() >= MAX_PENDING ) {
+            logger.debug("Too many messages waiting for datastream {}", streamId);
+            return false;
+        }
+        waiting.add(message);
+        return true;
+    }
+    /**
+     * Loader for the {@link #discovered} cache. A processor already knowing the datastream is 
+     * in charge, otherwise the datastream is looked up once along with it's thing and routed to 
+     * the processor of the thing, provided the processor has a typed handler for the datastream.
+     * @param streamId
+     * @return The processor or <code>null</code> when no processor handles the datastream
+     * @throws ServiceFailureException
+     */
+    private ObservationProcessor discover(Id streamId) throws ServiceFailureException {
+        SensorThingsService service = null;
+        for (ObservationProcessor candidate : processors) {
+            if ( candidate.knowsDatastream(streamId)) {
+                return candidate;
+            }
+            if ( service == null && candidate.hasTypedHandlers()) {
+                service = candidate.getThing().getService();
+            }
+        }
+        if ( service == null ) {
+            // only processors with typed handlers take datastreams not registered upfront
+            return null;
+        }
+        Datastream stream = service.datastreams().query()
+                .filter("id eq " + literal(streamId))
+                .expand("Thing($select=id)")
+                .first();
+        if ( stream == null || stream.getThing() == null ) {
+            return null;
+        }
+        ObservationProcessor owner = processorsByThing.get(stream.getThing().getId());
+        if ( owner != null && owner.adopt(stream)) {
+            return owner;
+        }
+        return null;
+    }
+    /**
+     * The id as literal of a <code>$filter</code> expression
+     */
+    private static String literal(Id id) {
+        Object value = id.getValue();
+        if ( value instanceof Number ) {
+            return value.toString();
+        }
+        return "'" + String.valueOf(value).replace("'", "''") + "'";
+    }
+    /**
+     * Obtain the metrics of the topic, provided by the partition when tracked
+     */
+    private static PipelineMetrics metrics(PartitionState partition, String topic) {
+        return partition != null ? partition.getMetrics() : Metrics.topic(topic);
+    }
+    /**
+     * Result of the lookup of a datastream's processor
+     */
+    private static final class Resolution {
+        final Id streamId;
+        /**
+         * The processor in charge, <code>null</code> when no processor handles the datastream
+         */
+        final ObservationProcessor processor;
+        Resolution(Id streamId, ObservationProcessor processor) {
+            this.streamId = streamId;
+            this.processor = processor;
+        }
+    }
+    /**
+     * Raw message kept while the datastream is looked up
+     */
+    private static final class PendingMessage {
+        final String topic;
+        final String key;
+        final byte[] payload;
+        final PartitionState partition;
+        final long offset;
+        PendingMessage(String topic, String key, byte[] payload, PartitionState partition, long offset) {
+            this.topic = topic;
+            this.key = key;
+            this.payload = payload;
+            this.partition = partition;
+            this.offset = offset;
+        }
+    }
+}
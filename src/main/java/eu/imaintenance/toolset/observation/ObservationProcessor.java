@@ -2,12 +2,13 @@ package eu.imaintenance.toolset.observation;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -19,15 +20,32 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.Thing;
 import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
+import eu.imaintenance.toolset.api.BatchObservationHandler;
 import eu.imaintenance.toolset.api.ObservationHandler;
 import eu.imaintenance.toolset.api.Producer;
+import eu.imaintenance.toolset.observation.handler.PrimitiveHandlers;
+import eu.imaintenance.toolset.util.cache.DatastreamIndex;
+import eu.imaintenance.toolset.util.cache.MetadataCache;
+import eu.imaintenance.toolset.util.cache.ObservationHistory;
+import eu.imaintenance.toolset.util.cache.ThingCatalog;
+import eu.imaintenance.toolset.util.codec.ObservationCodec;
+import eu.imaintenance.toolset.util.codec.ObservationCodecs;
+import eu.imaintenance.toolset.util.json.IsoTime;
 import eu.imaintenance.toolset.util.json.JSON;
-import eu.imaintenance.toolset.util.json.ResultHelper;
-import eu.imaintenance.toolset.util.kafka.Consumer;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.json.PrimitiveObservation;
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
 import eu.imaintenance.toolset.util.kafka.KafkaSetting;
+import eu.imaintenance.toolset.util.kafka.KafkaTransport;
+import eu.imaintenance.toolset.util.kafka.TopicRole;
+import eu.imaintenance.toolset.util.metrics.Metrics;
+import eu.imaintenance.toolset.util.metrics.PipelineMetrics;
+import eu.imaintenance.toolset.util.transport.MemoryTransport;
+import eu.imaintenance.toolset.util.transport.Transport;
 /**
  * Helper class performing the mapping of datastreams and their id's
  * @author dglachs
@@ -40,37 +58,88 @@ public final class ObservationProcessor {
      */
     private final Thing theThing;
     /**
-     * List of registered datastreams
+     * List of registered datastreams. The registrations may change while the workers process
+     * observations (e.g. when reconciling the metadata), hence the maps are concurrent.
      */
-    private Map<Id, Datastream> registeredDatastream = new HashMap<Id, Datastream>();
+    private Map<Id, Datastream> registeredDatastream = new ConcurrentHashMap<Id, Datastream>();
     /**
      * List of handlers assigned to a distinct datastream
      */
-    private Map<Id, ObservationHandler<?>> registeredHandler = new HashMap<Id, ObservationHandler<?>>();
+    private Map<Id, ObservationHandler<?>> registeredHandler = new ConcurrentHashMap<Id, ObservationHandler<?>>();
     /**
      * List of collected datastreams ...
      */
-    private Map<Id, Datastream> collectedDatastream = new HashMap<Id, Datastream>();
+    private Map<Id, Datastream> collectedDatastream = new ConcurrentHashMap<Id, Datastream>();
     /**
      * List of registered datastream types ...
      */
-    private Map<Id, Class<?>> registeredDatastreamType = new HashMap<Id, Class<?>>();
+    private Map<Id, Class<?>> registeredDatastreamType = new ConcurrentHashMap<Id, Class<?>>();
     /**
      * Mapping of observation types and ObservationHandlers
      */
-    private Map<Class<?>, ObservationHandler<?> > typedHandler = new HashMap<Class<?>, ObservationHandler<?>>();
+    private Map<Class<?>, ObservationHandler<?> > typedHandler = new ConcurrentHashMap<Class<?>, ObservationHandler<?>>();
     
-    private List<Consumer> consumers = new ArrayList<Consumer>();
+    /**
+     * Handlers by datastream id, allows the lookup by primitive id for the primitive handlers
+     */
+    private final DatastreamIndex<ObservationHandler<?>> handlerIndex = new DatastreamIndex<ObservationHandler<?>>();
+    /**
+     * Cache for datastreams looked up with the SensorThings server, keeps unknown datastreams as well
+     */
+    private final MetadataCache<Id, Datastream> datastreamCache = new MetadataCache<Id, Datastream>(this::findDatastream);
+    /**
+     * Metrics of the thing and it's datastreams
+     */
+    private final PipelineMetrics thingMetrics;
+    private final DatastreamIndex<PipelineMetrics> streamMetrics = new DatastreamIndex<PipelineMetrics>();
+    /**
+     * The dispatcher routing the observations of the thing's datastreams to this processor
+     */
+    private volatile ObservationDispatcher dispatcher;
+    /**
+     * The transport carrying the observations, the Kafka cluster of the thing when not specified
+     */
+    private Transport transport;
+    /**
+     * The transport of the thing's Kafka cluster, created on first use
+     */
+    private KafkaTransport kafkaTransport;
     
+    /**
+     * The history of the recent observations, <code>null</code> when not enabled
+     */
+    private ObservationHistory history;
+    /**
+     * Whether all datastreams of the thing are provided with {@link #preload(Collection)}
+     */
+    private boolean preloaded;
     private List<String> hosts = new ArrayList<String>();
     private List<String> topics = new ArrayList<String>();
+    /**
+     * The codec for sending observations, specified with the thing's kafka settings
+     */
+    private ObservationCodec codec = ObservationCodecs.JSON;
+    /**
+     * The role of the thing's topics
+     */
+    private Map<String, TopicRole> topicRoles = new HashMap<String, TopicRole>();
+    /**
+     * The profiles specified with the thing's kafka settings, override the client's profiles
+     */
+    private Map<TopicRole, KafkaProfile> thingProfiles = new EnumMap<TopicRole, KafkaProfile>(TopicRole.class);
+    /**
+     * The profiles specified with the client
+     */
+    private Map<TopicRole, KafkaProfile> profiles = new EnumMap<TopicRole, KafkaProfile>(TopicRole.class);
     
     public ObservationProcessor(Thing theThing) {
         this.theThing = theThing;
+        this.thingMetrics = Metrics.thing(theThing.getId() != null ? theThing.getId().getValue() : theThing.getName());
         processKafkaSettings(this.theThing);
     }
     public ObservationProcessor(Thing theThing, List<String> hosts, List<String> topics) {
         this.theThing = theThing;
+        this.thingMetrics = Metrics.thing(theThing.getId() != null ? theThing.getId().getValue() : theThing.getName());
         this.hosts = hosts !=null ? hosts: new ArrayList<String>();
         this.topics = topics != null ? topics : new ArrayList<String>();
         processKafkaSettings(this.theThing);
@@ -115,34 +184,52 @@ public final class ObservationProcessor {
         }
         
     }
-    public void startup(String clientName) {
-        int numConsumers = 3;
-        final ExecutorService executor = Executors.newFixedThreadPool(numConsumers);
-        for (int i = 0; i < numConsumers; i++) {
-            // 
-            
-            Consumer consumer = new Consumer(i, String.format("%s: %s", clientName, theThing.getName()), hosts, topics, this);
-            consumers.add(consumer);
-            executor.submit(consumer);
+    /**
+     * Provide the datastreams of the thing upfront, e.g. from the {@link ThingCatalog} loaded
+     * at startup. The datastreams are not collected from the SensorThings server when attaching.
+     * May be called again with the current datastreams of the thing, e.g. after reconciling a
+     * snapshot with the server, new datastreams are routed to thing-wide (typed) handlers.
+     * @param streams All datastreams of the thing
+     */
+    public void preload(Collection<Datastream> streams) {
+        for ( Datastream stream : streams ) {
+            stream.setThing(theThing);
+            collect(stream);
+            if ( dispatcher != null && typedHandler.size() > 0 ) {
+                dispatcher.route(stream.getId(), this);
+            }
         }
-
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                for (Consumer consumer : consumers) {
-                    consumer.shutdown();
-                }
-                executor.shutdown();
-                try {
-                    executor.awaitTermination(5000, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        preloaded = true;
+    }
+    /**
+     * Attach the processor to the {@link ObservationDispatcher} consuming the processor's 
+     * Kafka cluster. All datastreams known so far are announced to the dispatcher's routing 
+     * index, datastreams registered later on are routed as soon as they are registered. 
+     * When thing-wide (typed) handlers are present, the datastreams of the thing are 
+     * collected upfront, so that the dispatcher does not need to ask for them per message.
+     * @param dispatcher The dispatcher serving this processor
+     */
+    public void attach(ObservationDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        if ( typedHandler.size() > 0 ) {
+            if ( preloaded ) {
+                // index the typed handlers for the datastreams known upfront
+                for ( Datastream stream : collectedDatastream.values()) {
+                    collect(stream);
                 }
             }
-        });
+            else {
+                collectDatastreams();
+            }
+        }
+        for ( Id id : registeredDatastream.keySet()) {
+            dispatcher.route(id, this);
+        }
+        for ( Id id : collectedDatastream.keySet()) {
+            dispatcher.route(id, this);
+        }
     }
 
-
     /**
      * Helper method to retrieve a datastream. If not found a {@link ServiceFailureException} is thrown.
      * @param streamId The stream to obtain
@@ -150,12 +237,13 @@ public final class ObservationProcessor {
      * @throws ServiceFailureException
      */
     public Datastream getDatastream(Long streamId) throws ServiceFailureException {
-        Datastream s = registeredDatastream.get(streamId); 
+        Id id = new IdLong(streamId);
+        Datastream s = registeredDatastream.get(id); 
         if ( s == null ) {
-            s = collectedDatastream.get(streamId);
+            s = collectedDatastream.get(id);
         }
         if ( s == null ) {
-            s = theThing.datastreams().find(streamId);
+            s = datastreamCache.get(id);
         }
         if ( s == null ) {
             throw new ServiceFailureException(String.format("Datastream with id %s is not available!", streamId));
@@ -177,11 +265,15 @@ public final class ObservationProcessor {
     private <T> void registerDatastream(Datastream stream, ObservationHandler<T> handler) {
         ObservationType obsType = ObservationType.fromString(stream.getObservationType());
         if ( obsType.getObservedType().isAssignableFrom(handler.getObservedType())) {
-            // keep the stram in the registred map
-            registeredDatastream.put(stream.getId(), stream);
-            // keep the handler mapped with the stream id
+            // keep the handler mapped with the stream id, before the stream is visible
             registeredHandler.put(stream.getId(), handler);
             registeredDatastreamType.put(stream.getId(), handler.getObservedType());
+            // keep the stram in the registred map
+            registeredDatastream.put(stream.getId(), stream);
+            handlerIndex.put(stream.getId(), handler);
+            if ( dispatcher != null ) {
+                dispatcher.route(stream.getId(), this);
+            }
         }
         else {
             logger.debug(String.format("Datastream [%s] not assigned to handler [%s] - Incompatible types", stream.getName(), handler.getClass().getName()));
@@ -194,10 +286,7 @@ public final class ObservationProcessor {
      * @param handler
      */
     public <T> void registerHandler(ObservationHandler<T> handler) {
-        Class<T> clazz = handler.getObservedType();
-        if (! typedHandler.containsKey(clazz)) {
-            typedHandler.put(clazz, handler);
-        }
+        typedHandler.putIfAbsent(handler.getObservedType(), handler);
     }
     /**
      * Raw method processing Kafka messages, the payload first transformed to 
@@ -211,56 +300,327 @@ public final class ObservationProcessor {
     public void processKafkaMessage(String topic, String key, String payload) throws ServiceFailureException {
         try {
             Observation observation = JSON.deserializeFromString(payload, Observation.class);
-            Id streamId = observation.getDatastream().getId();
-            if (registeredDatastream != null && registeredDatastream.containsKey(streamId)) {
-                // found the stream in the registered map
-                observation.setDatastream(registeredDatastream.get(streamId));
-                // use the handler registred with the stream
-                ObservationHandler<?> handler = registeredHandler.get(streamId);
-                //
-                if ( handler != null) {
-                    // transform the payload into the requested object
-                    handlePayloadTyped(handler, observation);
-                }
-            }
-            else {
-                // 
-                if ( typedHandler != null && typedHandler.size() > 0 ) {
-                    Datastream stream = getFromCollectedDatastreams(observation.getDatastream().getId());
-                    if ( stream != null) {
-                        observation.setDatastream(stream);
-                    
-                        ObservationType obType = ObservationType.fromString(stream.getObservationType());
-                        ObservationHandler<?> handler = typedHandler.get(obType.getObservedType());
-                        if ( handler != null ) {
-                            handlePayloadTyped(handler, observation);
+            processObservation(observation);
+        } catch (IOException e) {
+            parseFailed(topic);
+            logger.error("Payload of topic {}, key {} cannot be parsed as an observation: {}", topic, key, payload);
+
+        }
+    }
+    /**
+     * Raw method processing Kafka messages encoded with any of the available codecs, 
+     * see {@link ObservationCodecs#detect(byte[])}.
+     * @param topic
+     * @param key
+     * @param payload The encoded observation
+     * @throws ServiceFailureException
+     */
+    public void processKafkaMessage(String topic, String key, byte[] payload) throws ServiceFailureException {
+        ObservationCodec codec = ObservationCodecs.detect(payload);
+        try {
+            processObservation(codec.decode(payload));
+        } catch (IOException e) {
+            parseFailed(topic);
+            logger.error("Payload of topic {}, key {} cannot be parsed as an observation: {}", topic, key, codec.toString(payload));
+        }
+    }
+    /**
+     * Process a Kafka message whose header is already known. For primitive handlers 
+     * (see {@link PrimitiveHandlers}) the values are read straight from the payload, 
+     * otherwise the payload is transformed to an {@link Observation}. 
+     * @param topic
+     * @param key
+     * @param payload The encoded observation
+     * @param header The header of the payload, providing the datastream id
+     * @throws ServiceFailureException
+     */
+    public void processKafkaMessage(String topic, String key, byte[] payload, ObservationHeader header) throws ServiceFailureException {
+        ObservationCodec codec = ObservationCodecs.detect(payload);
+        try {
+            if ( header.isNumeric()) {
+                ObservationHandler<?> handler = handlerIndex.get(header.getNumericId());
+                if ( handler != null && PrimitiveHandlers.isPrimitive(handler)) {
+                    PrimitiveObservation observation = PrimitiveObservation.forThread();
+                    if ( codec.readPrimitive(payload, observation)) {
+                        if ( history != null ) {
+                            history.record(header.getNumericId(), observation.getPhenomenonTime(), observation.getDouble());
                         }
+                        long start = System.nanoTime();
+                        PrimitiveHandlers.deliver(handler, observation);
+                        handled(streamMetrics(header.getNumericId()), start);
+                        return;
                     }
                 }
             }
+            // no primitive handler or no primitive result
+            processObservation(codec.decode(payload));
         } catch (IOException e) {
-            logger.error("Payload of topic {}, key {} cannot be parsed as an observation: {}", topic, key, payload);
-
+            parseFailed(topic);
+            logger.error("Payload of topic {}, key {} cannot be parsed as an observation: {}", topic, key, codec.toString(payload));
+        }
+    }
+    /**
+     * Process an already parsed {@link Observation}, the respective handler is 
+     * determined by the observation's datastream and invoked with the typed
+     * result.
+     * @param observation The observation as received from the messaging infrastructure
+     * @throws ServiceFailureException
+     * @throws IOException When the result cannot be transformed into the handler's type
+     */
+    public void processObservation(Observation observation) throws ServiceFailureException, IOException {
+        Id streamId = observation.getDatastream().getId();
+        if (registeredDatastream != null && registeredDatastream.containsKey(streamId)) {
+            // found the stream in the registered map
+            observation.setDatastream(registeredDatastream.get(streamId));
+            // use the handler registred with the stream
+            ObservationHandler<?> handler = registeredHandler.get(streamId);
+            //
+            if ( handler != null) {
+                // transform the payload into the requested object
+                long start = System.nanoTime();
+                handlePayloadTyped(handler, observation);
+                handled(streamMetrics(streamId), start);
+                return;
+            }
+        }
+        else {
+            // 
+            if ( typedHandler != null && typedHandler.size() > 0 ) {
+                Datastream stream = getFromCollectedDatastreams(streamId);
+                if ( stream != null) {
+                    observation.setDatastream(stream);
+                
+                    ObservationType obType = ObservationType.fromString(stream.getObservationType());
+                    ObservationHandler<?> handler = typedHandler.get(obType.getObservedType());
+                    if ( handler != null ) {
+                        long start = System.nanoTime();
+                        handlePayloadTyped(handler, observation);
+                        handled(streamMetrics(streamId), start);
+                        return;
+                    }
+                }
+            }
+        }
+        // no handler for the observation's datastream
+        thingMetrics.dropped();
+    }
+    /**
+     * Record the handler invocation with the thing's and the datastream's metrics
+     * @param stream The datastream's metrics
+     * @param start The start of the invocation ({@link System#nanoTime()})
+     */
+    private void handled(PipelineMetrics stream, long start) {
+        long nanos = System.nanoTime() - start;
+        thingMetrics.parsed();
+        thingMetrics.handled(nanos);
+        stream.parsed();
+        stream.handled(nanos);
+    }
+    private void parseFailed(String topic) {
+        thingMetrics.parseFailed();
+        Metrics.topic(topic).parseFailed();
+    }
+    /**
+     * Obtain the metrics of the datastream, kept in an index to avoid the lookup per message
+     */
+    private PipelineMetrics streamMetrics(long id) {
+        PipelineMetrics metrics = streamMetrics.get(id);
+        if ( metrics == null ) {
+            metrics = Metrics.datastream(id);
+            streamMetrics.put(id, metrics);
+        }
+        return metrics;
+    }
+    private PipelineMetrics streamMetrics(Id id) {
+        PipelineMetrics metrics = streamMetrics.get(id);
+        if ( metrics == null ) {
+            metrics = Metrics.datastream(id.getValue());
+            streamMetrics.put(id, metrics);
+        }
+        return metrics;
+    }
+    /**
+     * Check whether the processor's thing owns the requested datastream. Only processors
+     * with thing-wide (typed) handlers are interested in datastreams which are not explicitly
+     * registered.
+     * @param id The id of the datastream
+     * @return <code>true</code> when the datastream is handled by this processor
+     * @throws ServiceFailureException
+     */
+    public boolean handlesDatastream(Id id) throws ServiceFailureException {
+        if ( registeredDatastream.containsKey(id)) {
+            return true;
+        }
+        if ( typedHandler.size() > 0 ) {
+            return getFromCollectedDatastreams(id) != null;
+        }
+        return false;
+    }
+    /**
+     * Check whether the datastream is handled without looking it up with the SensorThings server
+     * @param id The id of the datastream
+     * @return <code>true</code> when the datastream is registered or already collected for a typed handler
+     */
+    public boolean knowsDatastream(Id id) {
+        if ( registeredDatastream.containsKey(id)) {
+            return true;
+        }
+        return typedHandler.size() > 0 && collectedDatastream.containsKey(id);
+    }
+    /**
+     * @return <code>true</code> when the processor handles datastreams of it's thing not registered upfront
+     */
+    public boolean hasTypedHandlers() {
+        return typedHandler.size() > 0;
+    }
+    /**
+     * Take a datastream of the thing looked up by the dispatcher
+     * @param stream The datastream, owned by this processor's thing
+     * @return <code>true</code> when a typed handler processes the datastream's observations
+     */
+    public boolean adopt(Datastream stream) {
+        if ( typedHandler.isEmpty()) {
+            return false;
+        }
+        stream.setThing(theThing);
+        collect(stream);
+        ObservationType obType = ObservationType.fromString(stream.getObservationType());
+        return typedHandler.containsKey(obType.getObservedType());
+    }
+    /**
+     * Specify the time to live of the cached datastream metadata
+     * @param ttl The time to live for found datastreams
+     * @param missTtl The time to live for unknown datastreams
+     * @param unit The time unit of the provided values
+     */
+    public void setMetadataTtl(long ttl, long missTtl, TimeUnit unit) {
+        datastreamCache.withTtl(ttl, missTtl, unit);
+    }
+    /**
+     * Keep the recent numeric and truth values of the handled datastreams
+     * @param history The history, <code>null</code> to disable
+     */
+    public void setHistory(ObservationHistory history) {
+        this.history = history;
+    }
+    public List<String> getHosts() {
+        return hosts;
+    }
+    /**
+     * Specify the transport carrying the observations, e.g. the {@link MemoryTransport}
+     * @param transport The transport, <code>null</code> for the Kafka cluster of the thing
+     */
+    public synchronized void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+    /**
+     * @return The transport carrying the observations, by default the Kafka cluster specified 
+     *         with the thing's kafka settings
+     */
+    public synchronized Transport getTransport() {
+        if ( transport != null ) {
+            return transport;
+        }
+        if ( kafkaTransport == null ) {
+            kafkaTransport = new KafkaTransport(hosts);
+        }
+        return kafkaTransport;
+    }
+    public List<String> getTopics() {
+        return topics;
+    }
+    public Thing getThing() {
+        return theThing;
+    }
+    /**
+     * Specify the profiles per topic role, profiles specified with the thing's kafka 
+     * settings take precedence
+     * @param profiles
+     */
+    public void setProfiles(Map<TopicRole, KafkaProfile> profiles) {
+        this.profiles = profiles;
+    }
+    /**
+     * Obtain the profile for the topic, see {@link KafkaProfile}
+     * @param topic
+     * @return The profile of the topic's role, {@link KafkaProfile#DEFAULT} when not specified
+     */
+    public KafkaProfile getProfile(String topic) {
+        TopicRole role = topicRoles.get(topic);
+        if ( role == null ) {
+            return KafkaProfile.DEFAULT;
+        }
+        KafkaProfile profile = thingProfiles.get(role);
+        if ( profile == null ) {
+            profile = profiles.get(role);
+        }
+        return profile != null ? profile : KafkaProfile.DEFAULT;
+    }
+    /**
+     * @return The codec for sending observations
+     */
+    public ObservationCodec getCodec() {
+        return codec;
+    }
+    /**
+     * Loader for the {@link #datastreamCache}, performs the call to the SensorThings server
+     * @param id
+     * @return
+     * @throws ServiceFailureException
+     */
+    private Datastream findDatastream(Id id) throws ServiceFailureException {
+        Datastream stream = theThing.datastreams().find(id);
+        if ( stream != null ) {
+            stream.setThing(theThing);
+        }
+        return stream;
+    }
+    /**
+     * Collect all datastreams of the thing with a single (paged) query
+     */
+    private void collectDatastreams() {
+        try {
+            Iterator<Datastream> iterator = theThing.datastreams().query().list().fullIterator();
+            while (iterator.hasNext()) {
+                Datastream stream = iterator.next();
+                stream.setThing(theThing);
+                collect(stream);
+            }
+        } catch (ServiceFailureException e) {
+            logger.error("Datastreams of thing {} cannot be collected: {}", theThing.getName(), e.getLocalizedMessage());
         }
-        
-        
     }
     private Datastream getFromCollectedDatastreams(Id id) throws ServiceFailureException  {
         Datastream stream = collectedDatastream.get(id);
         if ( stream == null ) {
-            stream = theThing.datastreams().find(id);
+            // misses are cached as well, unknown streams are not looked up per message
+            stream = datastreamCache.get(id);
             if (stream != null) {
-                stream.setThing(theThing);
-                collectedDatastream.put(stream.getId(), stream);
+                collect(stream);
             }
             else {
                 // stream not part of this "thing"
-                logger.info("The requested datastream {} cannot be found ... payload not processed!", id);
+                logger.debug("The requested datastream {} cannot be found ... payload not processed!", id);
             }
         }
         return stream;
         
     }
+    /**
+     * Keep the datastream of the thing, the typed handler for the stream's type is indexed
+     * unless a handler is registered explicitly for the datastream.
+     * @param stream
+     */
+    private void collect(Datastream stream) {
+        collectedDatastream.put(stream.getId(), stream);
+        if (! registeredDatastream.containsKey(stream.getId())) {
+            ObservationType obType = ObservationType.fromString(stream.getObservationType());
+            ObservationHandler<?> handler = typedHandler.get(obType.getObservedType());
+            if ( handler != null ) {
+                handlerIndex.put(stream.getId(), handler);
+            }
+        }
+    }
     /**
      * Transform the payload object into it's typed representation and call the {@link ObservationHandler#onObservation(Observation, Object)}
      * method!
@@ -272,29 +632,73 @@ public final class ObservationProcessor {
      */
     private <T> void handlePayloadTyped(ObservationHandler<T> handler, Observation observation) throws JsonParseException, JsonMappingException, IOException {
         Object payload = preProcessPayload(handler, observation.getResult());
-        
+        record(observation, payload);
         if ( payload instanceof Number) {
             Number n = (Number) payload;
             if ( handler.getObservedType().equals(Integer.class)) {
-                handler.onObservation(observation, handler.getObservedType().cast(n.intValue()));
+                deliver(handler, observation, handler.getObservedType().cast(n.intValue()));
             }
             if ( handler.getObservedType().equals(Double.class)) {
-                handler.onObservation(observation, handler.getObservedType().cast(n.doubleValue()));
+                deliver(handler, observation, handler.getObservedType().cast(n.doubleValue()));
             }
             if ( handler.getObservedType().equals(Boolean.class)) {
-                handler.onObservation(observation, handler.getObservedType().cast(n.intValue()==1));
+                deliver(handler, observation, handler.getObservedType().cast(n.intValue()==1));
             }
         }
         else if( payload instanceof Boolean) {
-            handler.onObservation(observation, handler.getObservedType().cast(observation.getResult()));
+            deliver(handler, observation, handler.getObservedType().cast(observation.getResult()));
         }
         else if (payload instanceof String) {
-            handler.onObservation(observation, handler.getObservedType().cast(observation.getResult()));
+            deliver(handler, observation, handler.getObservedType().cast(observation.getResult()));
         }
-        else if (payload instanceof Map){
-            ResultHelper helper = new ResultHelper(payload);
-            T typed = JSON.deserializeFromString(helper.toString(), handler.getObservedType()); 
-            handler.onObservation(observation, typed);
+        else if (payload instanceof Map || payload instanceof List){
+            // complex results are converted without producing JSON text
+            T typed = JSON.convert(payload, handler.getObservedType()); 
+            deliver(handler, observation, typed);
+        }
+    }
+    /**
+     * Invoke the handler, observations for {@link BatchObservationHandler}s are collected 
+     * by the dispatcher and delivered in batches, without dispatcher as batch of one observation.
+     * @param handler
+     * @param observation
+     * @param result
+     */
+    private <T> void deliver(ObservationHandler<T> handler, Observation observation, T result) {
+        ObservationDispatcher batching = dispatcher;
+        if ( handler instanceof BatchObservationHandler && batching != null ) {
+            batching.batch((BatchObservationHandler<T>) handler).add(observation, result);
+        }
+        else {
+            handler.onObservation(observation, result);
+        }
+    }
+    /**
+     * Add numeric and truth values to the history
+     * @param observation
+     * @param payload The result in the handler's type
+     */
+    private void record(Observation observation, Object payload) {
+        if ( history == null ) {
+            return;
+        }
+        double value;
+        if ( payload instanceof Number ) {
+            value = ((Number) payload).doubleValue();
+        }
+        else if ( payload instanceof Boolean ) {
+            value = ((Boolean) payload) ? 1 : 0;
+        }
+        else {
+            return;
+        }
+        try {
+            Object id = observation.getDatastream().getId().getValue();
+            if ( id instanceof Number ) {
+                history.record(((Number) id).longValue(), IsoTime.toEpochNanos(observation.getPhenomenonTime()), value);
+            }
+        } catch (ServiceFailureException e) {
+            // the datastream is resolved before the handler is invoked
         }
     }
     private <T> Object preProcessPayload(ObservationHandler<T> handler, Object result) {
@@ -326,6 +730,20 @@ public final class ObservationProcessor {
                     logger.info("adding {} to the list of watched topics ...", k.topics.get("alert"));
                     this.topics.add(k.topics.get("alert"));
                 }
+                for (TopicRole role : TopicRole.values()) {
+                    String topic = k.topics.get(role.getKey());
+                    if ( topic != null ) {
+                        topicRoles.put(topic, role);
+                    }
+                    KafkaProfile profile = k.profiles != null ? KafkaProfile.fromString(k.profiles.get(role.getKey())) : null;
+                    if ( profile != null ) {
+                        thingProfiles.put(role, profile);
+                    }
+                }
+                if ( k.codec != null ) {
+                    this.codec = ObservationCodecs.forName(k.codec);
+                    logger.info("using the {} codec for sending observations of {} ...", codec.getName(), theThing.getName());
+                }
                 for ( String h : k.hosts) {
                     if (!this.hosts.contains(h)) {
                         logger.info("adding {} to the list of Kafka Hosts ...", h);
@@ -355,7 +773,7 @@ public final class ObservationProcessor {
     public <T> Producer<T> createProducer(Datastream stream, String topic, Class<T> resultType ) throws ServiceFailureException {
         verifyTopic(topic);
         verifyDatastreamType(stream, resultType);
-        ObservationSender<T> s = new ObservationSender<T>(theThing.getName(), stream, topic, null, this.hosts);
+        ObservationSender<T> s = new ObservationSender<T>(theThing.getName(), stream, topic, null, getTransport(), codec, getProfile(topic));
         return (Producer<T>)s;
 
     }
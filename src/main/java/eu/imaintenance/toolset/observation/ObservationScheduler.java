@@ -0,0 +1,152 @@
+package eu.imaintenance.toolset.observation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Threads of a client, shared by all {@link ObservationDispatcher}s and therefore by all
+ * {@link ObservationProcessor}s:
+ * <ul>
+ * <li>the consumers polling the messages, limited by the consumer budget</li>
+ * <li>a fixed number of workers executing the handlers, the things are served round robin</li>
+ * <li>a timer for periodic tasks, e.g. checking the number of partitions</li>
+ * </ul>
+ * Consumers and workers optionally run on virtual threads when supported by the JVM (Java 21
+ * and later). A single shutdown hook stops the consumers and drains the workers.
+ * @author dglachs
+ *
+ */
+public final class ObservationScheduler {
+    private final Logger logger = LoggerFactory.getLogger(ObservationScheduler.class);
+    /**
+     * Maximum time the shutdown hook waits for the consumers and the workers
+     */
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    private final String name;
+    private final boolean virtual;
+    private final ExecutorService consumers;
+    private final ScheduledExecutorService timer;
+    private final WorkerStripes workers;
+    private final List<ObservationDispatcher> dispatchers = new CopyOnWriteArrayList<ObservationDispatcher>();
+    private boolean started;
+    private boolean hooked;
+
+    /**
+     * Create the scheduler
+     * @param name The name of the client, used as prefix of the thread names
+     * @param workerThreads The number of workers executing the handlers
+     * @param queueCapacity The number of messages each worker may queue
+     * @param virtualThreads Run the consumers and workers on virtual threads when supported
+     */
+    public ObservationScheduler(String name, int workerThreads, int queueCapacity, boolean virtualThreads) {
+        this.name = name;
+        ThreadFactory factory = virtualThreads ? virtualThreadFactory() : null;
+        if ( virtualThreads && factory == null ) {
+            logger.warn("Virtual threads are not supported by this JVM, using platform threads");
+        }
+        this.virtual = factory != null;
+        this.consumers = Executors.newCachedThreadPool(named(virtual ? factory : platformThreadFactory(false), String.format("%s-consumer-", name)));
+        this.workers = new WorkerStripes(name, workerThreads, queueCapacity, virtual ? factory : platformThreadFactory(true));
+        // the timer keeps the client alive, also when the consumers run on (daemon) virtual threads
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, String.format("%s-timer", name)));
+    }
+    /**
+     * @return <code>true</code> when consumers and workers run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+    /**
+     * Register the shutdown hook stopping the consumers and draining the workers, the hook
+     * is registered once
+     */
+    public synchronized void addShutdownHook() {
+        if ( hooked ) {
+            return;
+        }
+        hooked = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                shutdown(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, String.format("%s-shutdown", name)));
+    }
+    /**
+     * Stop the consumers of all dispatchers and the timer, the workers process the messages
+     * received so far
+     * @param timeout Maximum time to wait for the consumers and the workers
+     * @param unit
+     * @throws InterruptedException
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        timer.shutdownNow();
+        for (ObservationDispatcher dispatcher : dispatchers) {
+            dispatcher.stopConsumers();
+        }
+        consumers.shutdown();
+        consumers.awaitTermination(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if ( started ) {
+            workers.shutdown(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+    /**
+     * Start the workers, called by the dispatchers on startup
+     * @param dispatcher The dispatcher using the scheduler
+     */
+    synchronized void start(ObservationDispatcher dispatcher) {
+        dispatchers.add(dispatcher);
+        if (! started ) {
+            started = true;
+            workers.start();
+        }
+    }
+    WorkerStripes workers() {
+        return workers;
+    }
+    ExecutorService consumers() {
+        return consumers;
+    }
+    ScheduledExecutorService timer() {
+        return timer;
+    }
+    /**
+     * Obtain the factory for virtual threads (Java 21 and later) by reflection, the client
+     * is built for Java 8
+     * @return The factory or <code>null</code> when not supported
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+    private static ThreadFactory platformThreadFactory(boolean daemon) {
+        return runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+    private static ThreadFactory named(ThreadFactory factory, String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = factory.newThread(runnable);
+            thread.setName(prefix + counter.getAndIncrement());
+            return thread;
+        };
+    }
+}
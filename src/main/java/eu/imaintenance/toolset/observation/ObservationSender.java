@@ -1,29 +1,91 @@
 package eu.imaintenance.toolset.observation;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
 
 import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.threeten.extra.Interval;
 
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import eu.imaintenance.toolset.api.Producer;
-import eu.imaintenance.toolset.util.kafka.Sender;
+import eu.imaintenance.toolset.util.codec.ObservationCodec;
+import eu.imaintenance.toolset.util.codec.ObservationCodecs;
+import eu.imaintenance.toolset.util.json.ObservationTemplate;
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+import eu.imaintenance.toolset.util.kafka.KafkaTransport;
+import eu.imaintenance.toolset.util.metrics.Metrics;
+import eu.imaintenance.toolset.util.metrics.PipelineMetrics;
+import eu.imaintenance.toolset.util.transport.Transport;
+import eu.imaintenance.toolset.util.transport.TransportSender;
 
 public final class ObservationSender<T> implements Producer<T> {
+    private Logger logger = LoggerFactory.getLogger(Producer.class);
     private final Datastream theStream;
+    /**
+     * The wire format of the observations
+     */
+    private final ObservationCodec codec;
+    /**
+     * Zone of the phenomenon times, as used by {@link ZonedDateTime#now()}
+     */
+    private final ZoneId zone = ZoneId.systemDefault();
+    /**
+     * Template for the serialized observations, <code>null</code> when the observations
+     * are serialized with the object mapper
+     */
+    private final ObservationTemplate template;
+    /**
+     * Send metrics of the datastream and the topic
+     */
+    private final PipelineMetrics streamMetrics;
+    private final PipelineMetrics topicMetrics;
 
-    private Sender sender;
+    private TransportSender sender;
+    /**
+     * Number of pending asynchronous sends, see {@link #sendAsync(Object)}
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private volatile boolean blockWhenFull = true;
+    /**
+     * The state of the send policy, <code>null</code> when every value is sent
+     */
+    private volatile SendFilter filter;
 
     public ObservationSender(String name, Datastream stream, String topic, String key, List<String> hosts) throws ServiceFailureException {
+        this(name, stream, topic, key, hosts, ObservationCodecs.JSON);
+    }
+    public ObservationSender(String name, Datastream stream, String topic, String key, List<String> hosts, ObservationCodec codec) throws ServiceFailureException {
+        this(name, stream, topic, key, hosts, codec, KafkaProfile.DEFAULT);
+    }
+    public ObservationSender(String name, Datastream stream, String topic, String key, List<String> hosts, ObservationCodec codec, KafkaProfile profile) throws ServiceFailureException {
+        this(name, stream, topic, key, new KafkaTransport(hosts), codec, profile);
+    }
+    public ObservationSender(String name, Datastream stream, String topic, String key, Transport transport, ObservationCodec codec, KafkaProfile profile) throws ServiceFailureException {
         // create the id based on name and the data-stream-id
         this.theStream = stream;
+        this.codec = codec;
+        this.streamMetrics = Metrics.datastream(stream.getId().getValue());
+        this.topicMetrics = Metrics.topic(topic);
         // create the new sender
-        sender = new Sender(String.format("%s - %s (%s)", name, theStream.getName(), theStream.getSensor().getName()), topic, key, hosts);
+        sender = transport.sender(String.format("%s - %s (%s)", name, theStream.getName(), theStream.getSensor().getName()), topic, key, profile);
+        // the template reproduces the JSON representation
+        template = codec == ObservationCodecs.JSON ? ObservationTemplate.create(theStream, zone) : null;
     }
 
     @Override
@@ -43,33 +105,441 @@ public final class ObservationSender<T> implements Producer<T> {
 
     @Override
     public boolean send(T value, Callback callback) {
+        long now = System.currentTimeMillis();
+        if ( suppressed(value, now, callback) ) {
+            return true;
+        }
+        return handedOver(value, now, post(value, callback));
+    }
+
+    @Override
+    public boolean send(T value, Instant when, Callback callback) {
+        if ( suppressed(value, when.toEpochMilli(), callback) ) {
+            return true;
+        }
+        return handedOver(value, when.toEpochMilli(), post(value, when, callback));
+    }
+
+    @Override
+    public boolean send(T value, Instant when, Duration duration, Callback callback) {
+        if ( suppressed(value, when.toEpochMilli(), callback) ) {
+            return true;
+        }
+        return handedOver(value, when.toEpochMilli(), post(value, when, duration, callback));
+    }
+    /**
+     * Apply the send policy, the callback of a suppressed value is completed right away 
+     * with neither metadata nor exception
+     * @param value
+     * @param epochMillis The observation time
+     * @param callback The caller's callback, may be <code>null</code>
+     * @return <code>true</code> when the value must not be sent
+     */
+    private boolean suppressed(T value, long epochMillis, Callback callback) {
+        SendFilter f = filter;
+        if ( f == null || f.test(value, epochMillis) ) {
+            return false;
+        }
+        streamMetrics.suppressed();
+        topicMetrics.suppressed();
+        if ( callback != null ) {
+            callback.onCompletion(null, null);
+        }
+        return true;
+    }
+    /**
+     * Record the value with the send policy once handed over
+     * @param value
+     * @param epochMillis The observation time
+     * @param handedOver The result of the send
+     * @return <code>handedOver</code>
+     */
+    private boolean handedOver(T value, long epochMillis, boolean handedOver) {
+        SendFilter f = filter;
+        if ( handedOver && f != null ) {
+            f.sent(value, epochMillis);
+        }
+        return handedOver;
+    }
+
+    private boolean post(T value, Callback callback) {
+        long now = System.currentTimeMillis();
+        if ( sendTemplate(value, now / 1000, (int) (now % 1000) * 1000_000, callback)) {
+            return true;
+        }
         Observation observation = new Observation();
         observation.setDatastream(theStream.withOnlyId());
         observation.setPhenomenonTimeFrom(ZonedDateTime.now());
         observation.setResult(value);
         observation.setValidTime(Interval.of(Instant.now(), Duration.ofSeconds(30)));
-        return sender.sendObservation(observation, callback);
+        return sendObservation(observation, callback);
     }
 
  
-    @Override
-    public boolean send(T value, Instant when, Callback callback) {
+    private boolean post(T value, Instant when, Callback callback) {
+        if ( sendTemplate(value, when.getEpochSecond(), when.getNano(), callback)) {
+            return true;
+        }
         Observation observation = new Observation();
         observation.setDatastream(theStream.withOnlyId());
-        observation.setPhenomenonTimeFrom(ZonedDateTime.from(when));
+        observation.setPhenomenonTimeFrom(ZonedDateTime.ofInstant(when, zone));
         observation.setResult(value);
         observation.setValidTime(Interval.of(Instant.now(), Duration.ofSeconds(30)));
-        return sender.sendObservation(observation, callback);
+        return sendObservation(observation, callback);
     }
 
-    @Override
-    public boolean send(T value, Instant when, Duration duration, Callback callback) {
+    private boolean post(T value, Instant when, Duration duration, Callback callback) {
         Observation observation = new Observation();
         observation.setDatastream(theStream.withOnlyId());
         observation.setPhenomenonTimeFrom(Interval.of(when, duration));
         observation.setResult(value);
         observation.setValidTime(Interval.of(Instant.now(), Duration.ofSeconds(30)));
-        return sender.sendObservation(observation, callback);
+        return sendObservation(observation, callback);
+    }
+    
+    @Override
+    public CompletableFuture<RecordMetadata> sendAsync(T value) {
+        return sendAsync(value, null, null);
+    }
+
+    @Override
+    public CompletableFuture<RecordMetadata> sendAsync(T value, Instant when) {
+        return sendAsync(value, when, null);
+    }
+
+    @Override
+    public CompletableFuture<RecordMetadata> sendAsync(T value, Instant when, Duration duration) {
+        CompletableFuture<RecordMetadata> future = new CompletableFuture<RecordMetadata>();
+        long epochMillis = when != null ? when.toEpochMilli() : System.currentTimeMillis();
+        if ( suppressed(value, epochMillis, null) ) {
+            future.complete(null);
+            return future;
+        }
+        try {
+            acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        Callback callback = (metadata, exception) -> {
+            release();
+            if ( exception != null ) {
+                future.completeExceptionally(exception);
+            }
+            else {
+                future.complete(metadata);
+            }
+        };
+        boolean sent;
+        try {
+            if ( when == null ) {
+                sent = post(value, callback);
+            }
+            else if ( duration == null ) {
+                sent = post(value, when, callback);
+            }
+            else {
+                sent = post(value, when, duration, callback);
+            }
+        } catch (RuntimeException e) {
+            release();
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (! sent ) {
+            release();
+            future.completeExceptionally(new IllegalArgumentException(String.format("Observation for stream %s (%s) cannot be serialized!", theStream.getName(), theStream.getId())));
+        }
+        else {
+            handedOver(value, epochMillis, true);
+        }
+        return future;
+    }
+
+    @Override
+    public Producer<T> withMaxInFlight(int maxInFlight, boolean block) {
+        if ( maxInFlight < 1 ) {
+            throw new IllegalArgumentException("At least one in-flight send is required!");
+        }
+        this.maxInFlight = maxInFlight;
+        this.blockWhenFull = block;
+        synchronized (inFlight) {
+            // the limit may have been raised
+            inFlight.notifyAll();
+        }
+        return this;
+    }
+
+    @Override
+    public Producer<T> withSendPolicy(SendPolicy policy) {
+        this.filter = policy == null || policy.isAlways() ? null : new SendFilter(policy);
+        return this;
+    }
+    /**
+     * Reserve an in-flight send, blocks or fails when the limit is reached
+     * @throws InterruptedException
+     * @throws RejectedExecutionException When the limit is reached and the producer fails fast
+     */
+    private void acquire() throws InterruptedException {
+        while (true) {
+            int current = inFlight.get();
+            if ( current < maxInFlight ) {
+                if ( inFlight.compareAndSet(current, current + 1)) {
+                    return;
+                }
+            }
+            else if (! blockWhenFull ) {
+                throw new RejectedExecutionException(String.format("Limit of %s in-flight sends reached for stream %s (%s)", maxInFlight, theStream.getName(), theStream.getId()));
+            }
+            else {
+                synchronized (inFlight) {
+                    if ( inFlight.get() >= maxInFlight ) {
+                        // timed wait, the notification may pass before waiting
+                        inFlight.wait(10);
+                    }
+                }
+            }
+        }
+    }
+    private void release() {
+        if ( inFlight.getAndDecrement() >= maxInFlight && blockWhenFull ) {
+            synchronized (inFlight) {
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public boolean sendAll(double[] values, long[] epochMillis) {
+        verifyBuffer(ObservationType.MEASUREMENT, values.length, epochMillis);
+        SendFilter pending = pending();
+        int[] selection = select(pending, values.length, (f, i) -> f.accept(values[i], epochMillis[i]));
+        if ( template != null ) {
+            return commit(pending, sendAll(values.length, selection, epochMillis, (second, nano, valid, i) -> template.render(second, nano, values[i], valid, 0)));
+        }
+        return commit(pending, sendAll(values.length, selection, epochMillis, (observation, i) -> observation.setResult(values[i])));
+    }
+
+    @Override
+    public boolean sendAll(int[] values, long[] epochMillis) {
+        verifyBuffer(ObservationType.COUNT_OBSERVATION, values.length, epochMillis);
+        SendFilter pending = pending();
+        int[] selection = select(pending, values.length, (f, i) -> f.accept(values[i], epochMillis[i]));
+        if ( template != null ) {
+            return commit(pending, sendAll(values.length, selection, epochMillis, (second, nano, valid, i) -> template.render(second, nano, (long) values[i], valid, 0)));
+        }
+        return commit(pending, sendAll(values.length, selection, epochMillis, (observation, i) -> observation.setResult(values[i])));
+    }
+
+    @Override
+    public boolean sendAll(boolean[] values, long[] epochMillis) {
+        verifyBuffer(ObservationType.TRUTH_OBSERVATION, values.length, epochMillis);
+        SendFilter pending = pending();
+        int[] selection = select(pending, values.length, (f, i) -> f.accept(Boolean.valueOf(values[i]), epochMillis[i]));
+        if ( template != null ) {
+            return commit(pending, sendAll(values.length, selection, epochMillis, (second, nano, valid, i) -> template.render(second, nano, values[i], valid, 0)));
+        }
+        return commit(pending, sendAll(values.length, selection, epochMillis, (observation, i) -> observation.setResult(values[i])));
+    }
+
+    @Override
+    public boolean sendAll(List<T> values, long[] epochMillis) {
+        verifyBuffer(null, values.size(), epochMillis);
+        SendFilter pending = pending();
+        int[] selection = select(pending, values.size(), (f, i) -> f.accept(values.get(i), epochMillis[i]));
+        return commit(pending, sendAll(values.size(), selection, epochMillis, (observation, i) -> observation.setResult(values.get(i))));
+    }
+    /**
+     * Decides on the value at the given index with the filter
+     */
+    private interface Selector {
+        boolean accept(SendFilter filter, int index);
+    }
+    /**
+     * @return Copy of the send policy's state deciding on a buffer, <code>null</code> without policy
+     */
+    private SendFilter pending() {
+        SendFilter f = filter;
+        return f != null ? f.pending() : null;
+    }
+    /**
+     * Record the values selected from the buffer with the send policy once handed over
+     * @param pending The state the buffer was decided on
+     * @param handedOver The result of the send
+     * @return <code>handedOver</code>
+     */
+    private boolean commit(SendFilter pending, boolean handedOver) {
+        if ( handedOver && pending != null ) {
+            pending.commit();
+        }
+        return handedOver;
+    }
+    /**
+     * Apply the send policy to the buffer
+     * @param f The state to decide on, see {@link #pending()}
+     * @param count The number of values
+     * @param selector
+     * @return The indexes of the values to send, <code>null</code> when all values are sent
+     */
+    private int[] select(SendFilter f, int count, Selector selector) {
+        if ( f == null ) {
+            return null;
+        }
+        int[] selection = new int[count];
+        int selected = 0;
+        for (int i = 0; i < count; i++) {
+            if ( selector.accept(f, i) ) {
+                selection[selected++] = i;
+            }
+        }
+        if ( selected < count ) {
+            streamMetrics.suppressed(count - selected);
+            topicMetrics.suppressed(count - selected);
+        }
+        return selected < count ? Arrays.copyOf(selection, selected) : null;
+    }
+    /**
+     * Send the buffer, a single {@link Observation} is reused for all values
+     * @param count The number of values
+     * @param selection The indexes of the values to send, <code>null</code> for all values
+     * @param epochMillis The observation times
+     * @param result Function setting the result for the given index
+     * @return
+     */
+    private boolean sendAll(int count, int[] selection, long[] epochMillis, ObjIntConsumer<Observation> result) {
+        if ( selection != null && selection.length == 0 ) {
+            return true;
+        }
+        Observation observation = new Observation();
+        observation.setDatastream(theStream.withOnlyId());
+        // the valid time is the same for the entire buffer
+        observation.setValidTime(Interval.of(Instant.now(), Duration.ofSeconds(30)));
+        ObjIntConsumer<Observation> update = (o, k) -> {
+            int i = selection != null ? selection[k] : k;
+            o.setPhenomenonTimeFrom(ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis[i]), zone));
+            result.accept(o, i);
+        };
+        try {
+            if ( sender.sendRecords(codec.encode(theStream, observation, selection != null ? selection.length : count, update), track(null))) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.error(e.getLocalizedMessage());
+        }
+        sendFailed();
+        return false;
+    }
+    /**
+     * Encode the observation with the codec and send it
+     * @param observation
+     * @param callback
+     * @return <code>false</code> when the observation cannot be encoded
+     */
+    private boolean sendObservation(Observation observation, Callback callback) {
+        try {
+            if ( sender.sendRecord(codec.encode(theStream, observation), track(callback))) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.error(e.getLocalizedMessage());
+        }
+        sendFailed();
+        return false;
+    }
+    /**
+     * Wrap the callback, so that the latency and the errors are recorded with the metrics
+     * @param callback The caller's callback, may be <code>null</code>
+     * @return
+     */
+    private Callback track(Callback callback) {
+        long start = System.nanoTime();
+        return (metadata, exception) -> {
+            if ( exception != null ) {
+                sendFailed();
+            }
+            else {
+                long nanos = System.nanoTime() - start;
+                streamMetrics.sent(nanos);
+                topicMetrics.sent(nanos);
+            }
+            if ( callback != null ) {
+                callback.onCompletion(metadata, exception);
+            }
+        };
+    }
+    private void sendFailed() {
+        streamMetrics.sendFailed();
+        topicMetrics.sendFailed();
+    }
+    /**
+     * Renders the value at the given index with the template
+     */
+    private interface Renderer {
+        byte[] render(long second, int nano, long validSecond, int index);
+    }
+    /**
+     * Send the buffer with the template. All values are rendered before the records are
+     * handed over in one burst, so nothing is sent when a value cannot be rendered. The 
+     * rendered array is reused by the template and therefore copied per value.
+     * @param count The number of values
+     * @param selection The indexes of the values to send, <code>null</code> for all values
+     * @param epochMillis The observation times
+     * @param renderer The function rendering the observation
+     * @return <code>false</code> when a value cannot be rendered or the records are not accepted
+     */
+    private boolean sendAll(int count, int[] selection, long[] epochMillis, Renderer renderer) {
+        long validSecond = System.currentTimeMillis() / 1000;
+        int n = selection != null ? selection.length : count;
+        if ( n == 0 ) {
+            return true;
+        }
+        List<byte[]> records = new ArrayList<byte[]>(n);
+        synchronized (template) {
+            for (int k = 0; k < n; k++) {
+                int i = selection != null ? selection[k] : k;
+                long millis = epochMillis[i];
+                byte[] bytes = renderer.render(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1000_000, validSecond, i);
+                if ( bytes == null ) {
+                    sendFailed();
+                    return false;
+                }
+                records.add(Arrays.copyOf(bytes, bytes.length));
+            }
+        }
+        if ( sender.sendRecords(records, track(null))) {
+            return true;
+        }
+        sendFailed();
+        return false;
+    }
+    /**
+     * Send the value with the template
+     * @return <code>false</code> when no template is available or the value cannot be rendered,
+     *         the observation must be serialized with the object mapper
+     */
+    private boolean sendTemplate(T value, long second, int nano, Callback callback) {
+        if ( template == null ) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (template) {
+            byte[] bytes = template.render(second, nano, value, now / 1000, (int) (now % 1000) * 1000_000);
+            return bytes != null && sender.sendRecord(bytes, track(callback));
+        }
+    }
+    private void verifyBuffer(ObservationType expected, int count, long[] epochMillis) {
+        ObservationType streamType = ObservationType.fromString(theStream.getObservationType());
+        if ( expected != null && streamType != expected ) {
+            throw new IllegalStateException(String.format("Incompatible Types: Stream %s (%s) requires %s as it's data type!", 
+                    theStream.getName(), theStream.getId(), streamType.getObservedType().getSimpleName()));
+        }
+        if ( epochMillis == null || epochMillis.length < count ) {
+            throw new IllegalArgumentException("An observation time must be provided for each value!");
+        }
     }
     
     @Override
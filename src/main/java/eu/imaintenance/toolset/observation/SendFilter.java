@@ -0,0 +1,167 @@
+package eu.imaintenance.toolset.observation;
+
+import java.util.Objects;
+/**
+ * State of a {@link SendPolicy} for a single producer, e.g. the last value sent and
+ * it's observation time.
+ * <p>
+ * {@link #test(double, long)} decides on a value without changing the state, the producer
+ * records the value with {@link #sent(double, long)} once it is handed over. A buffer is
+ * decided on a {@link #pending()} copy, which is committed when the buffer is handed over.
+ * </p>
+ * @author dglachs
+ *
+ */
+final class SendFilter {
+    private final SendPolicy policy;
+    private final boolean numericFilter;
+    /**
+     * The filter a {@link #pending()} copy is committed to
+     */
+    private final SendFilter origin;
+    private boolean sent;
+    private long lastMillis;
+    private double lastNumber;
+    private Object lastValue;
+
+    SendFilter(SendPolicy policy) {
+        this.policy = policy;
+        this.numericFilter = policy.getDeadband() > 0 || policy.getRelativeDeadband() > 0;
+        this.origin = null;
+    }
+    private SendFilter(SendFilter origin) {
+        this.policy = origin.policy;
+        this.numericFilter = origin.numericFilter;
+        this.origin = origin;
+        this.sent = origin.sent;
+        this.lastMillis = origin.lastMillis;
+        this.lastNumber = origin.lastNumber;
+        this.lastValue = origin.lastValue;
+    }
+    /**
+     * Decide on a numeric value, the state is not changed
+     * @param value
+     * @param epochMillis The observation time
+     * @return <code>true</code> when the value is to be sent
+     */
+    synchronized boolean test(double value, long epochMillis) {
+        return !sent || due(epochMillis, changed(value));
+    }
+    /**
+     * Decide on a value, numbers are subject to the deadband, the state is not changed
+     * @param value
+     * @param epochMillis The observation time
+     * @return <code>true</code> when the value is to be sent
+     */
+    synchronized boolean test(Object value, long epochMillis) {
+        if ( value instanceof Number ) {
+            return test(((Number) value).doubleValue(), epochMillis);
+        }
+        return !sent || due(epochMillis, !policy.isSendOnChange() || !Objects.equals(value, lastValue));
+    }
+    /**
+     * Record the numeric value as the last value sent
+     * @param value
+     * @param epochMillis The observation time
+     */
+    synchronized void sent(double value, long epochMillis) {
+        sent = true;
+        lastMillis = epochMillis;
+        lastNumber = value;
+        lastValue = null;
+    }
+    /**
+     * Record the value as the last value sent
+     * @param value
+     * @param epochMillis The observation time
+     */
+    synchronized void sent(Object value, long epochMillis) {
+        if ( value instanceof Number ) {
+            sent(((Number) value).doubleValue(), epochMillis);
+        }
+        else {
+            sent = true;
+            lastMillis = epochMillis;
+            lastValue = value;
+        }
+    }
+    /**
+     * Decide on a numeric value, the value is recorded as sent when accepted
+     * @param value
+     * @param epochMillis The observation time
+     * @return <code>true</code> when the value is to be sent
+     */
+    synchronized boolean accept(double value, long epochMillis) {
+        if ( !test(value, epochMillis) ) {
+            return false;
+        }
+        sent(value, epochMillis);
+        return true;
+    }
+    /**
+     * Decide on a value, the value is recorded as sent when accepted
+     * @param value
+     * @param epochMillis The observation time
+     * @return <code>true</code> when the value is to be sent
+     */
+    synchronized boolean accept(Object value, long epochMillis) {
+        if ( !test(value, epochMillis) ) {
+            return false;
+        }
+        sent(value, epochMillis);
+        return true;
+    }
+    /**
+     * Copy of the state for deciding on a buffer, the values accepted by the copy are
+     * recorded with {@link #commit()}
+     * @return The pending copy
+     */
+    synchronized SendFilter pending() {
+        return new SendFilter(this);
+    }
+    /**
+     * Record the state of a {@link #pending()} copy with the filter it was taken from
+     */
+    void commit() {
+        SendFilter target = origin;
+        if ( target == null ) {
+            return;
+        }
+        synchronized (this) {
+            synchronized (target) {
+                target.sent = sent;
+                target.lastMillis = lastMillis;
+                target.lastNumber = lastNumber;
+                target.lastValue = lastValue;
+            }
+        }
+    }
+    private boolean due(long epochMillis, boolean changed) {
+        long elapsed = epochMillis - lastMillis;
+        if ( elapsed < policy.getMinIntervalMillis() ) {
+            return false;
+        }
+        if ( policy.getHeartbeatMillis() > 0 && elapsed >= policy.getHeartbeatMillis() ) {
+            return true;
+        }
+        return changed;
+    }
+    private boolean changed(double value) {
+        if ( numericFilter ) {
+            // leaving either of the configured deadbands is a change
+            double band = Double.POSITIVE_INFINITY;
+            if ( policy.getDeadband() > 0 ) {
+                band = policy.getDeadband();
+            }
+            if ( policy.getRelativeDeadband() > 0 ) {
+                band = Math.min(band, policy.getRelativeDeadband() * Math.abs(lastNumber));
+            }
+            // NaN is not within any deadband
+            return !(Math.abs(value - lastNumber) <= band);
+        }
+        if ( policy.isSendOnChange() ) {
+            return Double.compare(value, lastNumber) != 0;
+        }
+        return true;
+    }
+}
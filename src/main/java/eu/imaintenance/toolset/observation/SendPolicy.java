@@ -0,0 +1,130 @@
+package eu.imaintenance.toolset.observation;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.imaintenance.toolset.api.Producer;
+/**
+ * Policy of a {@link Producer} deciding which values are sent, values filtered by the policy
+ * are neither serialized nor sent.
+ * <ul>
+ * <li>a deadband for numeric values (measurements and counts), a value is sent when it 
+ * differs from the last value sent by more than the absolute deadband or the relative 
+ * deadband (fraction of the last value sent), e.g. by more than the smaller of both bands 
+ * when both are set</li>
+ * <li>send on change, a value is sent when it differs from the last value sent, e.g. for
+ * truth and category values</li>
+ * <li>a minimum interval between sends, values are not sent before the interval has passed
+ * since the last send</li>
+ * <li>a heartbeat, a value is sent regardless of the above when the heartbeat interval has 
+ * passed since the last send</li>
+ * </ul>
+ * The intervals are based on the observation times of the values. The first value is always 
+ * sent. The policy is immutable, e.g.
+ * <pre>
+ * producer.withSendPolicy(SendPolicy.always()
+ *          .withDeadband(0.5)
+ *          .withHeartbeat(60, TimeUnit.SECONDS));
+ * </pre>
+ * @author dglachs
+ *
+ */
+public final class SendPolicy {
+    private static final SendPolicy ALWAYS = new SendPolicy(0, 0, false, 0, 0);
+
+    private final double deadband;
+    private final double relativeDeadband;
+    private final boolean onChange;
+    private final long minIntervalMillis;
+    private final long heartbeatMillis;
+
+    private SendPolicy(double deadband, double relativeDeadband, boolean onChange, long minIntervalMillis, long heartbeatMillis) {
+        if ( deadband < 0 || relativeDeadband < 0 ) {
+            throw new IllegalArgumentException("The deadband must not be negative!");
+        }
+        if ( minIntervalMillis < 0 || heartbeatMillis < 0 ) {
+            throw new IllegalArgumentException("The intervals must not be negative!");
+        }
+        this.deadband = deadband;
+        this.relativeDeadband = relativeDeadband;
+        this.onChange = onChange;
+        this.minIntervalMillis = minIntervalMillis;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+    /**
+     * @return The policy sending every value
+     */
+    public static SendPolicy always() {
+        return ALWAYS;
+    }
+    /**
+     * Send numeric values only when they differ from the last value sent by more than the
+     * given amount, or by more than the relative deadband when set
+     * @param deadband The absolute deadband
+     * @return The policy with the deadband
+     */
+    public SendPolicy withDeadband(double deadband) {
+        return new SendPolicy(deadband, relativeDeadband, onChange, minIntervalMillis, heartbeatMillis);
+    }
+    /**
+     * Send numeric values only when they differ from the last value sent by more than the
+     * given fraction of the last value sent, or by more than the absolute deadband when set
+     * @param fraction The relative deadband, e.g. <code>0.01</code> for 1%
+     * @return The policy with the relative deadband
+     */
+    public SendPolicy withRelativeDeadband(double fraction) {
+        return new SendPolicy(deadband, fraction, onChange, minIntervalMillis, heartbeatMillis);
+    }
+    /**
+     * Send values only when they differ from the last value sent
+     * @param onChange
+     * @return The policy
+     */
+    public SendPolicy withSendOnChange(boolean onChange) {
+        return new SendPolicy(deadband, relativeDeadband, onChange, minIntervalMillis, heartbeatMillis);
+    }
+    /**
+     * Do not send values before the interval has passed since the last send
+     * @param interval The minimum interval between sends
+     * @param unit
+     * @return The policy with the minimum interval
+     */
+    public SendPolicy withMinInterval(long interval, TimeUnit unit) {
+        return new SendPolicy(deadband, relativeDeadband, onChange, unit.toMillis(interval), heartbeatMillis);
+    }
+    /**
+     * Send a value regardless of the deadband or change when the interval has passed since 
+     * the last send, so that consumers see the datastream alive
+     * @param interval The heartbeat interval, <code>0</code> disables the heartbeat
+     * @param unit
+     * @return The policy with the heartbeat
+     */
+    public SendPolicy withHeartbeat(long interval, TimeUnit unit) {
+        return new SendPolicy(deadband, relativeDeadband, onChange, minIntervalMillis, unit.toMillis(interval));
+    }
+    public double getDeadband() {
+        return deadband;
+    }
+    public double getRelativeDeadband() {
+        return relativeDeadband;
+    }
+    public boolean isSendOnChange() {
+        return onChange;
+    }
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+    /**
+     * @return <code>true</code> when the policy sends every value
+     */
+    public boolean isAlways() {
+        return deadband == 0 && relativeDeadband == 0 && !onChange && minIntervalMillis == 0;
+    }
+    @Override
+    public String toString() {
+        return String.format("SendPolicy[deadband=%s, relativeDeadband=%s, onChange=%s, minInterval=%sms, heartbeat=%sms]",
+                deadband, relativeDeadband, onChange, minIntervalMillis, heartbeatMillis);
+    }
+}
@@ -0,0 +1,339 @@
+package eu.imaintenance.toolset.observation;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.imaintenance.toolset.api.BatchObservationHandler;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.kafka.PartitionState;
+/**
+ * Fixed set of workers executing the handlers decoupled from the polling threads.
+ * Each datastream is assigned to one worker (stripe) by the hash of it's id, so the
+ * observations of a datastream are processed in order while different datastreams are
+ * processed in parallel. Each worker owns a bounded pool of preallocated slots, handing
+ * over a message does not create any objects. When the pool is full, the message is rejected
+ * and the polling thread holds it back, so the polling thread never waits for the workers
+ * (with Kafka 0.9 the consumer stays in the group only as long as it polls).
+ * <p>
+ * Within a worker, the messages are queued per {@link ObservationProcessor} (lane) and the
+ * lanes are served round robin, one message at a time. A thing with a backlog therefore
+ * delays the messages of other things by at most one message per busy thing, instead of
+ * the entire backlog.
+ * </p>
+ * @author dglachs
+ *
+ */
+final class WorkerStripes {
+    /**
+     * Default number of messages a worker may queue
+     */
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    /**
+     * The worker of the current thread
+     */
+    private static final ThreadLocal<Stripe> CURRENT = new ThreadLocal<Stripe>();
+
+    private final Stripe[] stripes;
+    private final Thread[] threads;
+
+    WorkerStripes(String name, int threads, int queueCapacity) {
+        this(name, threads, queueCapacity, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    /**
+     * Create the workers
+     * @param name The prefix of the worker names
+     * @param threads The number of workers
+     * @param queueCapacity The number of messages each worker may queue
+     * @param factory Creates the threads of the workers, e.g. virtual threads
+     */
+    WorkerStripes(String name, int threads, int queueCapacity, ThreadFactory factory) {
+        this.stripes = new Stripe[Math.max(1, threads)];
+        this.threads = new Thread[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(Math.max(1, queueCapacity));
+            this.threads[i] = factory.newThread(stripes[i]);
+            this.threads[i].setName(String.format("%s-worker-%s", name, i));
+        }
+    }
+    void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+    /**
+     * Hand the message over to the worker in charge of the datastream, does not wait when the
+     * worker's slots are taken
+     * @param processor The processor in charge of the datastream
+     * @param topic
+     * @param key
+     * @param payload
+     * @param header The header of the payload, the values are copied
+     * @param partition The partition to notify once the message is processed, may be <code>null</code>
+     * @param offset The offset of the message
+     * @return <code>false</code> when the worker has no free slot, the message is not taken
+     */
+    boolean dispatch(ObservationProcessor processor, String topic, String key, byte[] payload, ObservationHeader header, PartitionState partition, long offset) {
+        int index = (header.hash() & Integer.MAX_VALUE) % stripes.length;
+        return stripes[index].publish(processor, topic, key, payload, header, partition, offset);
+    }
+    /**
+     * Ask all workers to deliver the collected batches once the pending messages are processed
+     */
+    void flush() {
+        for (Stripe stripe : stripes) {
+            stripe.requestFlush();
+        }
+    }
+    /**
+     * Stop the workers once the pending messages are processed
+     * @param timeout Maximum time to wait for the workers
+     * @param unit
+     * @throws InterruptedException
+     */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (Stripe stripe : stripes) {
+            stripe.close();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+    }
+    /**
+     * Obtain the batch accumulator of the current worker
+     * @param handler
+     * @return The accumulator or <code>null</code> when not invoked by a worker
+     */
+    static <T> BatchAccumulator<T> currentBatch(BatchObservationHandler<T> handler) {
+        Stripe current = CURRENT.get();
+        if ( current != null ) {
+            return current.batch(handler);
+        }
+        return null;
+    }
+    /**
+     * Preallocated message slot, linked with the next slot of the lane or the free list
+     */
+    private static final class Slot {
+        ObservationProcessor processor;
+        String topic;
+        String key;
+        byte[] payload;
+        PartitionState partition;
+        long offset;
+        int next = -1;
+        final ObservationHeader header = new ObservationHeader();
+
+        void clear() {
+            processor = null;
+            topic = null;
+            key = null;
+            payload = null;
+            partition = null;
+        }
+    }
+    /**
+     * Queue of the messages of a processor, a linked list of slots
+     */
+    private static final class Lane {
+        int head = -1;
+        int tail = -1;
+    }
+    private static final class Stripe implements Runnable {
+        private Logger logger = LoggerFactory.getLogger(WorkerStripes.class);
+        private final Slot[] slots;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        /**
+         * The lane per processor and the lanes holding messages, in the order they are served
+         */
+        private final Map<ObservationProcessor, Lane> lanes = new IdentityHashMap<ObservationProcessor, Lane>();
+        private final ArrayDeque<Lane> ready = new ArrayDeque<Lane>();
+        /**
+         * Head of the list of free slots
+         */
+        private int free;
+        private int count;
+        private boolean closed;
+        /**
+         * Pending flush request, served after the number of messages queued when requested
+         */
+        private boolean flush;
+        private int flushAfter;
+        /**
+         * The slot processed by the worker, filled from the lanes
+         */
+        private final Slot current = new Slot();
+        /**
+         * Accumulators of the batch handlers, owned by the worker
+         */
+        private final Map<BatchObservationHandler<?>, BatchAccumulator<?>> batches = new HashMap<BatchObservationHandler<?>, BatchAccumulator<?>>();
+
+        Stripe(int capacity) {
+            slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Slot();
+                slots[i].next = i + 1 < capacity ? i + 1 : -1;
+            }
+            free = 0;
+        }
+        boolean publish(ObservationProcessor processor, String topic, String key, byte[] payload, ObservationHeader header, PartitionState partition, long offset) {
+            lock.lock();
+            try {
+                if ( closed ) {
+                    PartitionState.completed(partition, offset);
+                    return true;
+                }
+                if ( free < 0 ) {
+                    return false;
+                }
+                int index = free;
+                Slot slot = slots[index];
+                free = slot.next;
+                slot.next = -1;
+                slot.processor = processor;
+                slot.topic = topic;
+                slot.key = key;
+                slot.payload = payload;
+                slot.partition = partition;
+                slot.offset = offset;
+                if ( header != null ) {
+                    slot.header.copyFrom(header);
+                }
+                Lane lane = lanes.get(processor);
+                if ( lane == null ) {
+                    lane = new Lane();
+                    lanes.put(processor, lane);
+                }
+                if ( lane.head < 0 ) {
+                    lane.head = index;
+                    ready.addLast(lane);
+                }
+                else {
+                    slots[lane.tail].next = index;
+                }
+                lane.tail = index;
+                count++;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        void requestFlush() {
+            lock.lock();
+            try {
+                if (! flush ) {
+                    flush = true;
+                    flushAfter = count;
+                    notEmpty.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        @SuppressWarnings("unchecked")
+        <T> BatchAccumulator<T> batch(BatchObservationHandler<T> handler) {
+            BatchAccumulator<?> accumulator = batches.get(handler);
+            if ( accumulator == null ) {
+                accumulator = new BatchAccumulator<T>(handler);
+                batches.put(handler, accumulator);
+            }
+            return (BatchAccumulator<T>) accumulator;
+        }
+        @Override
+        public void run() {
+            CURRENT.set(this);
+            while ( take() ) {
+                try {
+                    if ( current.processor == null ) {
+                        for (BatchAccumulator<?> accumulator : batches.values()) {
+                            accumulator.flush();
+                        }
+                    }
+                    else {
+                        BatchAccumulator.processing(current.partition, current.offset);
+                        current.processor.processKafkaMessage(current.topic, current.key, current.payload, current.header);
+                    }
+                } catch (Exception e) {
+                    logger.error(e.getLocalizedMessage(), e);
+                } finally {
+                    // completes the record unless held by a batch
+                    BatchAccumulator.processed();
+                    current.clear();
+                }
+            }
+            CURRENT.remove();
+        }
+        /**
+         * Move the next message to {@link #current}, the lanes are served round robin. A
+         * {@link #current} without processor requests a flush of the batches.
+         * @return <code>false</code> when the worker is closed and the lanes are drained
+         */
+        private boolean take() {
+            lock.lock();
+            try {
+                while ( count == 0 && !flush ) {
+                    if ( closed ) {
+                        return false;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+                if ( flush && flushAfter == 0 ) {
+                    flush = false;
+                    current.clear();
+                    return true;
+                }
+                Lane lane = ready.pollFirst();
+                int index = lane.head;
+                Slot slot = slots[index];
+                lane.head = slot.next;
+                if ( lane.head >= 0 ) {
+                    ready.addLast(lane);
+                }
+                else {
+                    lane.tail = -1;
+                }
+                current.processor = slot.processor;
+                current.topic = slot.topic;
+                current.key = slot.key;
+                current.payload = slot.payload;
+                current.partition = slot.partition;
+                current.offset = slot.offset;
+                current.header.copyFrom(slot.header);
+                slot.clear();
+                slot.next = free;
+                free = index;
+                count--;
+                if ( flush ) {
+                    flushAfter--;
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.ObservationHandler;
+import eu.imaintenance.toolset.observation.ObservationType;
+/**
+ * Primitive handler for {@link ObservationType#TRUTH_OBSERVATION} datastreams. The truth value is 
+ * delivered as <code>boolean</code> without boxing and without creating an {@link Observation}.
+ * The handler is registered like any other {@link ObservationHandler}.
+ * 
+ * @author dglachs
+ *
+ */
+public interface BooleanTruthHandler extends ObservationHandler<Boolean> {
+    /**
+     * Method invoked for each truth observation of the assigned datastreams
+     * @param datastreamId The id of the datastream
+     * @param phenomenonEpochNanos The phenomenon time (start) in nanoseconds since the epoch
+     * @param value The observed truth value
+     */
+    void onTruth(long datastreamId, long phenomenonEpochNanos, boolean value);
+
+    @Override
+    default Class<Boolean> getObservedType() {
+        return Boolean.class;
+    }
+    /**
+     * Fallback for observations which are already deserialized, delegates to 
+     * {@link #onTruth(long, long, boolean)}
+     */
+    @Override
+    default void onObservation(Observation observation, Boolean result) {
+        onTruth(PrimitiveHandlers.datastreamId(observation), PrimitiveHandlers.phenomenonTime(observation), result);
+    }
+}
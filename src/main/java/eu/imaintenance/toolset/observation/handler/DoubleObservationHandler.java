@@ -0,0 +1,35 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.ObservationHandler;
+import eu.imaintenance.toolset.observation.ObservationType;
+/**
+ * Primitive handler for {@link ObservationType#MEASUREMENT} datastreams. The measurement is 
+ * delivered as <code>double</code> without boxing and without creating an {@link Observation}.
+ * The handler is registered like any other {@link ObservationHandler}.
+ * 
+ * @author dglachs
+ *
+ */
+public interface DoubleObservationHandler extends ObservationHandler<Double> {
+    /**
+     * Method invoked for each measurement of the assigned datastreams
+     * @param datastreamId The id of the datastream
+     * @param phenomenonEpochNanos The phenomenon time (start) in nanoseconds since the epoch
+     * @param value The measured value
+     */
+    void onMeasurement(long datastreamId, long phenomenonEpochNanos, double value);
+
+    @Override
+    default Class<Double> getObservedType() {
+        return Double.class;
+    }
+    /**
+     * Fallback for observations which are already deserialized, delegates to 
+     * {@link #onMeasurement(long, long, double)}
+     */
+    @Override
+    default void onObservation(Observation observation, Double result) {
+        onMeasurement(PrimitiveHandlers.datastreamId(observation), PrimitiveHandlers.phenomenonTime(observation), result);
+    }
+}
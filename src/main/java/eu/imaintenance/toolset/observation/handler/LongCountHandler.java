@@ -0,0 +1,35 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.ObservationHandler;
+import eu.imaintenance.toolset.observation.ObservationType;
+/**
+ * Primitive handler for {@link ObservationType#COUNT_OBSERVATION} datastreams. The count is 
+ * delivered as <code>long</code> without boxing and without creating an {@link Observation}.
+ * The handler is registered like any other {@link ObservationHandler}.
+ * 
+ * @author dglachs
+ *
+ */
+public interface LongCountHandler extends ObservationHandler<Integer> {
+    /**
+     * Method invoked for each count of the assigned datastreams
+     * @param datastreamId The id of the datastream
+     * @param phenomenonEpochNanos The phenomenon time (start) in nanoseconds since the epoch
+     * @param count The observed count
+     */
+    void onCount(long datastreamId, long phenomenonEpochNanos, long count);
+
+    @Override
+    default Class<Integer> getObservedType() {
+        return Integer.class;
+    }
+    /**
+     * Fallback for observations which are already deserialized, delegates to 
+     * {@link #onCount(long, long, long)}
+     */
+    @Override
+    default void onObservation(Observation observation, Integer result) {
+        onCount(PrimitiveHandlers.datastreamId(observation), PrimitiveHandlers.phenomenonTime(observation), result);
+    }
+}
@@ -0,0 +1,61 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.ObservationHandler;
+import eu.imaintenance.toolset.util.json.IsoTime;
+import eu.imaintenance.toolset.util.json.PrimitiveObservation;
+/**
+ * Helper class for the primitive handlers {@link DoubleObservationHandler}, {@link LongCountHandler}
+ * and {@link BooleanTruthHandler}.
+ * @author dglachs
+ *
+ */
+public final class PrimitiveHandlers {
+    private PrimitiveHandlers() {
+        // static helper
+    }
+    /**
+     * Check whether the handler accepts primitive values
+     * @param handler
+     * @return
+     */
+    public static boolean isPrimitive(ObservationHandler<?> handler) {
+        return handler instanceof DoubleObservationHandler 
+                || handler instanceof LongCountHandler 
+                || handler instanceof BooleanTruthHandler;
+    }
+    /**
+     * Deliver the primitive observation to the handler
+     * @param handler A primitive handler, see {@link #isPrimitive(ObservationHandler)}
+     * @param observation The observation read from the payload
+     * @return <code>false</code> when the handler is not a primitive handler
+     */
+    public static boolean deliver(ObservationHandler<?> handler, PrimitiveObservation observation) {
+        if ( handler instanceof DoubleObservationHandler ) {
+            ((DoubleObservationHandler) handler).onMeasurement(observation.getDatastreamId(), observation.getPhenomenonTime(), observation.getDouble());
+            return true;
+        }
+        if ( handler instanceof LongCountHandler ) {
+            ((LongCountHandler) handler).onCount(observation.getDatastreamId(), observation.getPhenomenonTime(), observation.getLong());
+            return true;
+        }
+        if ( handler instanceof BooleanTruthHandler ) {
+            ((BooleanTruthHandler) handler).onTruth(observation.getDatastreamId(), observation.getPhenomenonTime(), observation.getBoolean());
+            return true;
+        }
+        return false;
+    }
+    static long datastreamId(Observation observation) {
+        try {
+            Id id = observation.getDatastream().getId();
+            return ((Number) id.getValue()).longValue();
+        } catch (ServiceFailureException | ClassCastException e) {
+            throw new IllegalStateException("Primitive handlers require a numeric datastream id!", e);
+        }
+    }
+    static long phenomenonTime(Observation observation) {
+        return IsoTime.toEpochNanos(observation.getPhenomenonTime());
+    }
+}
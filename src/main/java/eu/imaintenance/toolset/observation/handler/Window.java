@@ -0,0 +1,98 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.imaintenance.toolset.api.AggregateHandler;
+/**
+ * Definition of the windows of a {@link WindowAggregator}, based on the phenomenon time
+ * (event time) of the observations.
+ * <ul>
+ * <li>tumbling windows of a fixed size, each observation belongs to exactly one window</li>
+ * <li>sliding windows of a fixed size starting every <code>slide</code>, the size must be a 
+ * multiple of the slide</li>
+ * </ul>
+ * The windows are aligned to the epoch. A window is closed and delivered to the 
+ * {@link AggregateHandler} once the watermark of the datastream, the latest phenomenon time 
+ * minus the allowed lateness, has passed the end of the window. Observations arriving for 
+ * closed windows are dropped.
+ * @author dglachs
+ *
+ */
+public final class Window {
+    private final long size;
+    private final long slide;
+    private final long lateness;
+
+    private Window(long size, long slide, long lateness) {
+        if ( size <= 0 || slide <= 0 ) {
+            throw new IllegalArgumentException("Size and slide of the window must be positive!");
+        }
+        if ( slide > size || size % slide != 0 ) {
+            throw new IllegalArgumentException("The size of the window must be a multiple of the slide!");
+        }
+        if ( lateness < 0 ) {
+            throw new IllegalArgumentException("The allowed lateness must not be negative!");
+        }
+        this.size = size;
+        this.slide = slide;
+        this.lateness = lateness;
+    }
+    /**
+     * Tumbling windows without allowed lateness
+     * @param size The size of the windows
+     * @param unit
+     * @return The window definition
+     */
+    public static Window tumbling(long size, TimeUnit unit) {
+        return new Window(unit.toNanos(size), unit.toNanos(size), 0);
+    }
+    /**
+     * Sliding windows without allowed lateness
+     * @param size The size of the windows
+     * @param slide The time between the start of subsequent windows
+     * @param unit
+     * @return The window definition
+     */
+    public static Window sliding(long size, long slide, TimeUnit unit) {
+        return new Window(unit.toNanos(size), unit.toNanos(slide), 0);
+    }
+    /**
+     * Allow observations arriving out of order, the windows are closed the given time after
+     * the latest phenomenon time has passed the end of the window
+     * @param lateness The allowed lateness
+     * @param unit
+     * @return The window definition with the allowed lateness
+     */
+    public Window withLateness(long lateness, TimeUnit unit) {
+        return new Window(size, slide, unit.toNanos(lateness));
+    }
+    /**
+     * @return The size of the windows in nanoseconds
+     */
+    public long getSize() {
+        return size;
+    }
+    /**
+     * @return The time between the start of subsequent windows in nanoseconds, equals the 
+     * size for tumbling windows
+     */
+    public long getSlide() {
+        return slide;
+    }
+    /**
+     * @return The allowed lateness in nanoseconds
+     */
+    public long getLateness() {
+        return lateness;
+    }
+    /**
+     * @return The number of slides (panes) per window
+     */
+    int panes() {
+        return (int) (size / slide);
+    }
+    @Override
+    public String toString() {
+        return String.format("Window[size=%sns, slide=%sns, lateness=%sns]", size, slide, lateness);
+    }
+}
@@ -0,0 +1,330 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import eu.imaintenance.toolset.api.Aggregate;
+import eu.imaintenance.toolset.api.AggregateHandler;
+import eu.imaintenance.toolset.api.ObservationHandler;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.cache.DatastreamIndex;
+/**
+ * Aggregation stage collecting the observations of its datastreams in windows and delivering
+ * one {@link Aggregate} per datastream and window to an {@link AggregateHandler}. The
+ * aggregators are primitive handlers, obtained with
+ * <ul>
+ * <li>{@link #measurements(Window, AggregateHandler)} for {@link ObservationType#MEASUREMENT}</li>
+ * <li>{@link #counts(Window, AggregateHandler)} for {@link ObservationType#COUNT_OBSERVATION}</li>
+ * <li>{@link #truths(Window, AggregateHandler)} for {@link ObservationType#TRUTH_OBSERVATION}</li>
+ * </ul>
+ * and registered like any other {@link ObservationHandler}.
+ * <p>
+ * Each datastream keeps a ring of accumulators (count, sum, min, max, last) per slide of the
+ * {@link Window}, a sliding window combines the accumulators of its slides. The ring is created
+ * with the first observation of the datastream, aggregating an observation does not create
+ * any objects. The windows close on the watermark of the datastream (see {@link Window}), so a
+ * datastream's last window is delivered with the first observation after the window's end
+ * plus the allowed lateness.
+ * </p>
+ * The observations of a datastream are processed in order by one thread at a time, so the
+ * state of a datastream is not synchronized.
+ * @author dglachs
+ *
+ */
+public abstract class WindowAggregator {
+    /**
+     * Maximum number of accumulators per datastream, limits the ratio of the window size plus
+     * the allowed lateness to the slide
+     */
+    public static final int MAX_PANES = 4096;
+
+    private final Window window;
+    private final AggregateHandler handler;
+    private final int capacity;
+    private final DatastreamIndex<Panes> datastreams = new DatastreamIndex<Panes>();
+    private final LongAdder late = new LongAdder();
+
+    WindowAggregator(Window window, AggregateHandler handler) {
+        if ( window == null || handler == null ) {
+            throw new IllegalArgumentException("Window and aggregate handler are required!");
+        }
+        long lateSlides = (window.getLateness() + window.getSlide() - 1) / window.getSlide();
+        // the slides of the oldest open window up to the latest phenomenon time
+        long required = window.panes() + lateSlides + 2;
+        if ( required > MAX_PANES ) {
+            throw new IllegalArgumentException(String.format("%s requires %s accumulators per datastream, the maximum is %s!", window, required, MAX_PANES));
+        }
+        this.window = window;
+        this.handler = handler;
+        this.capacity = (int) required;
+    }
+    /**
+     * Aggregator for {@link ObservationType#MEASUREMENT} datastreams
+     * @param window The windows
+     * @param handler The handler receiving the aggregates
+     * @return The aggregator to register
+     */
+    public static Measurements measurements(Window window, AggregateHandler handler) {
+        return new Measurements(window, handler);
+    }
+    /**
+     * Aggregator for {@link ObservationType#COUNT_OBSERVATION} datastreams
+     * @param window The windows
+     * @param handler The handler receiving the aggregates
+     * @return The aggregator to register
+     */
+    public static Counts counts(Window window, AggregateHandler handler) {
+        return new Counts(window, handler);
+    }
+    /**
+     * Aggregator for {@link ObservationType#TRUTH_OBSERVATION} datastreams, the mean of the
+     * aggregates is the share of <code>true</code>
+     * @param window The windows
+     * @param handler The handler receiving the aggregates
+     * @return The aggregator to register
+     */
+    public static Truths truths(Window window, AggregateHandler handler) {
+        return new Truths(window, handler);
+    }
+    /**
+     * @return The windows of the aggregator
+     */
+    public Window getWindow() {
+        return window;
+    }
+    /**
+     * @return The number of observations dropped since their windows were already closed
+     */
+    public long getLateObservations() {
+        return late.sum();
+    }
+    /**
+     * Add the value to the windows of the datastream, deliver the windows closed by the
+     * advanced watermark
+     * @param datastreamId
+     * @param time The phenomenon time in nanoseconds since the epoch
+     * @param value
+     */
+    final void aggregate(long datastreamId, long time, double value) {
+        Panes panes = datastreams.get(datastreamId);
+        if ( panes == null ) {
+            panes = new Panes(datastreamId, capacity);
+            datastreams.put(datastreamId, panes);
+        }
+        long slide = window.getSlide();
+        long pane = Math.floorDiv(time, slide);
+        if ( panes.next == Long.MIN_VALUE ) {
+            panes.next = pane;
+        }
+        if ( time > panes.maxTime ) {
+            panes.maxTime = time;
+            long watermark = time - window.getLateness();
+            emit(panes, Math.floorDiv(watermark, slide) - 1);
+        }
+        // all windows containing the pane are closed
+        if ( pane + window.panes() - 1 < panes.next ) {
+            late.increment();
+            return;
+        }
+        panes.add(pane, time, value);
+    }
+    /**
+     * Deliver the windows up to the given one
+     * @param panes
+     * @param closed The last pane of the latest closed window
+     */
+    private void emit(Panes panes, long closed) {
+        int size = window.panes();
+        while ( panes.next <= closed ) {
+            if ( panes.next - size + 1 > panes.maxPane ) {
+                // no data up to the closed windows, skip the empty windows
+                panes.next = closed + 1;
+                return;
+            }
+            if ( panes.combine(panes.next - size + 1, panes.next) ) {
+                panes.aggregate.start = (panes.next - size + 1) * window.getSlide();
+                panes.aggregate.end = (panes.next + 1) * window.getSlide();
+                handler.onAggregate(panes.aggregate);
+            }
+            panes.next++;
+        }
+    }
+    /**
+     * Ring of the accumulators of a datastream, one per slide (pane)
+     */
+    private static final class Panes {
+        final long[] pane;
+        final long[] count;
+        final double[] sum;
+        final double[] min;
+        final double[] max;
+        final double[] last;
+        final long[] lastTime;
+        final WindowAggregate aggregate = new WindowAggregate();
+        /**
+         * The last pane of the next window to deliver
+         */
+        long next = Long.MIN_VALUE;
+        /**
+         * The latest pane holding data and the latest phenomenon time
+         */
+        long maxPane = Long.MIN_VALUE;
+        long maxTime = Long.MIN_VALUE;
+
+        Panes(long datastreamId, int capacity) {
+            pane = new long[capacity];
+            Arrays.fill(pane, Long.MIN_VALUE);
+            count = new long[capacity];
+            sum = new double[capacity];
+            min = new double[capacity];
+            max = new double[capacity];
+            last = new double[capacity];
+            lastTime = new long[capacity];
+            aggregate.datastreamId = datastreamId;
+        }
+        void add(long p, long time, double value) {
+            int i = (int) Math.floorMod(p, (long) pane.length);
+            if ( pane[i] != p ) {
+                pane[i] = p;
+                count[i] = 0;
+                sum[i] = 0;
+                min[i] = Double.POSITIVE_INFINITY;
+                max[i] = Double.NEGATIVE_INFINITY;
+                lastTime[i] = Long.MIN_VALUE;
+            }
+            count[i]++;
+            sum[i] += value;
+            min[i] = Math.min(min[i], value);
+            max[i] = Math.max(max[i], value);
+            if ( time >= lastTime[i] ) {
+                last[i] = value;
+                lastTime[i] = time;
+            }
+            if ( p > maxPane ) {
+                maxPane = p;
+            }
+        }
+        /**
+         * Combine the panes into {@link #aggregate}
+         * @return <code>false</code> when the panes hold no data
+         */
+        boolean combine(long from, long to) {
+            WindowAggregate a = aggregate;
+            a.count = 0;
+            a.sum = 0;
+            a.min = Double.POSITIVE_INFINITY;
+            a.max = Double.NEGATIVE_INFINITY;
+            a.lastTime = Long.MIN_VALUE;
+            for (long p = from; p <= to; p++) {
+                int i = (int) Math.floorMod(p, (long) pane.length);
+                if ( pane[i] == p && count[i] > 0 ) {
+                    a.count += count[i];
+                    a.sum += sum[i];
+                    a.min = Math.min(a.min, min[i]);
+                    a.max = Math.max(a.max, max[i]);
+                    if ( lastTime[i] >= a.lastTime ) {
+                        a.last = last[i];
+                        a.lastTime = lastTime[i];
+                    }
+                }
+            }
+            return a.count > 0;
+        }
+    }
+    /**
+     * The aggregate delivered to the handler, reused per datastream
+     */
+    private static final class WindowAggregate implements Aggregate {
+        long datastreamId;
+        long start;
+        long end;
+        long count;
+        double sum;
+        double min;
+        double max;
+        double last;
+        long lastTime;
+
+        @Override
+        public long getDatastreamId() {
+            return datastreamId;
+        }
+        @Override
+        public long getWindowStart() {
+            return start;
+        }
+        @Override
+        public long getWindowEnd() {
+            return end;
+        }
+        @Override
+        public long getCount() {
+            return count;
+        }
+        @Override
+        public double getMin() {
+            return min;
+        }
+        @Override
+        public double getMax() {
+            return max;
+        }
+        @Override
+        public double getSum() {
+            return sum;
+        }
+        @Override
+        public double getMean() {
+            return sum / count;
+        }
+        @Override
+        public double getLast() {
+            return last;
+        }
+        @Override
+        public long getLastTime() {
+            return lastTime;
+        }
+        @Override
+        public String toString() {
+            return String.format("Aggregate[datastream=%s, window=%s-%s, count=%s, min=%s, max=%s, mean=%s, last=%s]",
+                    datastreamId, start, end, count, min, max, getMean(), last);
+        }
+    }
+    /**
+     * Aggregator for {@link ObservationType#MEASUREMENT} datastreams
+     */
+    public static final class Measurements extends WindowAggregator implements DoubleObservationHandler {
+        Measurements(Window window, AggregateHandler handler) {
+            super(window, handler);
+        }
+        @Override
+        public void onMeasurement(long datastreamId, long phenomenonEpochNanos, double value) {
+            aggregate(datastreamId, phenomenonEpochNanos, value);
+        }
+    }
+    /**
+     * Aggregator for {@link ObservationType#COUNT_OBSERVATION} datastreams
+     */
+    public static final class Counts extends WindowAggregator implements LongCountHandler {
+        Counts(Window window, AggregateHandler handler) {
+            super(window, handler);
+        }
+        @Override
+        public void onCount(long datastreamId, long phenomenonEpochNanos, long count) {
+            aggregate(datastreamId, phenomenonEpochNanos, count);
+        }
+    }
+    /**
+     * Aggregator for {@link ObservationType#TRUTH_OBSERVATION} datastreams
+     */
+    public static final class Truths extends WindowAggregator implements BooleanTruthHandler {
+        Truths(Window window, AggregateHandler handler) {
+            super(window, handler);
+        }
+        @Override
+        public void onTruth(long datastreamId, long phenomenonEpochNanos, boolean value) {
+            aggregate(datastreamId, phenomenonEpochNanos, value ? 1 : 0);
+        }
+    }
+}
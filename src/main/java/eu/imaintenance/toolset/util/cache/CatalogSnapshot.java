@@ -0,0 +1,222 @@
+package eu.imaintenance.toolset.util.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.IdString;
+import de.fraunhofer.iosb.ilt.sta.model.Sensor;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+/**
+ * Local snapshot of a {@link ThingCatalog}, so that a client starts from disk within
+ * milliseconds and operates while the SensorThings server is not available.
+ * <pre>
+ * int      magic "IMTC"
+ * byte     version
+ * long     timestamp of the catalog (epoch millis)
+ * int      number of things, per thing:
+ *   id       thing id
+ *   string   name, description
+ *   string   properties as JSON (e.g. the kafka settings)
+ *   int      number of datastreams, per datastream:
+ *     id       datastream id
+ *     string   name, description, observation type
+ *     id       sensor id
+ *     string   sensor name
+ * </pre>
+ * An id is a type byte (0 none, 1 numeric, 2 text) followed by a long or a string, a string
+ * is the length of the UTF-8 bytes (<code>-1</code> for <code>null</code>) followed by the bytes.
+ * The snapshot is written to a temporary file which replaces the previous snapshot.
+ * @author dglachs
+ *
+ */
+public final class CatalogSnapshot {
+    static final int MAGIC = 0x494D5443;
+    static final byte VERSION = 1;
+
+    private static final byte NO_ID = 0;
+    private static final byte NUMERIC_ID = 1;
+    private static final byte TEXT_ID = 2;
+
+    private CatalogSnapshot() {
+        // static helper
+    }
+    /**
+     * Write the snapshot of the catalog
+     * @param catalog The catalog
+     * @param file The snapshot file
+     * @throws IOException
+     */
+    public static void write(ThingCatalog catalog, Path file) throws IOException {
+        ObjectMapper mapper = ObjectMapperFactory.get();
+        Path parent = file.toAbsolutePath().getParent();
+        if ( parent != null ) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(catalog.getTimestamp());
+            List<Thing> things = new ArrayList<Thing>(catalog.getThings());
+            out.writeInt(things.size());
+            for (Thing thing : things) {
+                writeId(out, thing.getId());
+                writeString(out, thing.getName());
+                writeString(out, thing.getDescription());
+                writeString(out, thing.getProperties() != null ? mapper.writeValueAsString(thing.getProperties()) : null);
+                List<Datastream> streams = catalog.getDatastreams(thing.getId());
+                out.writeInt(streams.size());
+                for (Datastream stream : streams) {
+                    writeId(out, stream.getId());
+                    writeString(out, stream.getName());
+                    writeString(out, stream.getDescription());
+                    writeString(out, stream.getObservationType());
+                    Sensor sensor = sensor(stream);
+                    writeId(out, sensor != null ? sensor.getId() : null);
+                    writeString(out, sensor != null ? sensor.getName() : null);
+                }
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    /**
+     * Read the snapshot, the entities are connected to the service so that further
+     * metadata is obtained from the SensorThings server when required
+     * @param file The snapshot file
+     * @param service The service connected to the SensorThings server
+     * @return The catalog
+     * @throws IOException When the file cannot be read or is not a snapshot
+     */
+    public static ThingCatalog read(Path file, SensorThingsService service) throws IOException {
+        long start = System.nanoTime();
+        ObjectMapper mapper = ObjectMapperFactory.get();
+        TypeReference<Map<String, Object>> propertiesType = new TypeReference<Map<String, Object>>() {};
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if ( in.readInt() != MAGIC ) {
+                throw new IOException(String.format("%s is not a metadata snapshot!", file));
+            }
+            byte version = in.readByte();
+            if ( version != VERSION ) {
+                throw new IOException(String.format("Unsupported snapshot version %s in %s!", version, file));
+            }
+            ThingCatalog catalog = new ThingCatalog(in.readLong());
+            int thingCount = in.readInt();
+            for (int i = 0; i < thingCount; i++) {
+                Thing thing = new Thing();
+                thing.setService(service);
+                thing.setId(readId(in));
+                thing.setName(readString(in));
+                thing.setDescription(readString(in));
+                String properties = readString(in);
+                if ( properties != null ) {
+                    thing.setProperties(mapper.readValue(properties, propertiesType));
+                }
+                int streamCount = in.readInt();
+                List<Datastream> streams = new ArrayList<Datastream>(streamCount);
+                for (int j = 0; j < streamCount; j++) {
+                    Datastream stream = new Datastream();
+                    stream.setService(service);
+                    stream.setId(readId(in));
+                    stream.setName(readString(in));
+                    stream.setDescription(readString(in));
+                    stream.setObservationType(readString(in));
+                    Id sensorId = readId(in);
+                    String sensorName = readString(in);
+                    if ( sensorId != null ) {
+                        Sensor sensor = new Sensor();
+                        sensor.setService(service);
+                        sensor.setId(sensorId);
+                        sensor.setName(sensorName);
+                        stream.setSensor(sensor);
+                    }
+                    stream.setThing(thing);
+                    streams.add(stream);
+                }
+                catalog.add(thing, streams);
+            }
+            catalog.setLoadMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return catalog;
+        }
+    }
+    /**
+     * The expanded sensor of the datastream, never triggers a request for a snapshot
+     * taken from a {@link ThingCatalog} loaded from the server
+     */
+    private static Sensor sensor(Datastream stream) {
+        try {
+            return stream.getSensor();
+        } catch (ServiceFailureException e) {
+            return null;
+        }
+    }
+    private static void writeId(DataOutputStream out, Id id) throws IOException {
+        Object value = id != null ? id.getValue() : null;
+        if ( value instanceof Number ) {
+            out.writeByte(NUMERIC_ID);
+            out.writeLong(((Number) value).longValue());
+        }
+        else if ( value != null ) {
+            out.writeByte(TEXT_ID);
+            writeString(out, value.toString());
+        }
+        else {
+            out.writeByte(NO_ID);
+        }
+    }
+    private static Id readId(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case NUMERIC_ID:
+            return new IdLong(in.readLong());
+        case TEXT_ID:
+            return new IdString(readString(in));
+        case NO_ID:
+            return null;
+        default:
+            throw new IOException(String.format("Invalid id type %s!", type));
+        }
+    }
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if ( value == null ) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
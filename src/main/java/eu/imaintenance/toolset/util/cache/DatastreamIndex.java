@@ -0,0 +1,142 @@
+package eu.imaintenance.toolset.util.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+/**
+ * Index mapping datastream id's to values. Numeric id's are kept in an open addressing
+ * table which allows lookups with a primitive <code>long</code>, so that the lookup
+ * neither boxes the id nor creates an {@link Id} object. Lookups are lock-free,
+ * modifications are synchronized.
+ * @author dglachs
+ *
+ * @param <V> The type of the indexed values
+ */
+public final class DatastreamIndex<V> {
+    private static final class Table<V> {
+        final long[] keys;
+        final AtomicReferenceArray<V> values;
+        final int mask;
+        int size;
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new AtomicReferenceArray<V>(capacity);
+            mask = capacity - 1;
+        }
+    }
+    private volatile Table<V> table = new Table<V>(16);
+    /**
+     * Values for non numeric id's
+     */
+    private final Map<Object, V> other = new ConcurrentHashMap<Object, V>();
+
+    /**
+     * Lookup by the numeric id of the datastream
+     * @param id
+     * @return The value or <code>null</code> when not indexed
+     */
+    public V get(long id) {
+        Table<V> t = table;
+        int i = hash(id) & t.mask;
+        V value;
+        // the value is published after the key, a non null value guarantees a valid key
+        while ( (value = t.values.get(i)) != null ) {
+            if ( t.keys[i] == id ) {
+                return value;
+            }
+            i = (i + 1) & t.mask;
+        }
+        return null;
+    }
+    /**
+     * Lookup by the {@link Id} of the datastream
+     * @param id
+     * @return The value or <code>null</code> when not indexed
+     */
+    public V get(Id id) {
+        Object value = id.getValue();
+        if ( value instanceof Number ) {
+            return get(((Number) value).longValue());
+        }
+        return other.get(value);
+    }
+    /**
+     * Lookup by a non numeric id of the datastream
+     * @param id
+     * @return The value or <code>null</code> when not indexed
+     */
+    public V get(String id) {
+        return other.get(id);
+    }
+    /**
+     * Add or replace the value for the datastream
+     * @param id The id of the datastream
+     * @param value The value, must not be <code>null</code>
+     */
+    public synchronized void put(Id id, V value) {
+        Object key = id.getValue();
+        if ( key instanceof Number ) {
+            put(((Number) key).longValue(), value);
+        }
+        else {
+            other.put(key, value);
+        }
+    }
+    /**
+     * Add or replace the value for the datastream
+     * @param id The numeric id of the datastream
+     * @param value The value, must not be <code>null</code>
+     */
+    public synchronized void put(long id, V value) {
+        if ( value == null ) {
+            throw new IllegalArgumentException("Null values are not supported!");
+        }
+        Table<V> t = table;
+        if ( (t.size + 1) * 2 > t.keys.length ) {
+            t = resize(t);
+        }
+        if ( insert(t, id, value) ) {
+            t.size++;
+        }
+        table = t;
+    }
+    /**
+     * @return The number of indexed datastreams
+     */
+    public int size() {
+        return table.size + other.size();
+    }
+
+    private Table<V> resize(Table<V> current) {
+        Table<V> resized = new Table<V>(current.keys.length * 2);
+        for (int i = 0; i < current.keys.length; i++) {
+            V value = current.values.get(i);
+            if ( value != null ) {
+                insert(resized, current.keys[i], value);
+                resized.size++;
+            }
+        }
+        return resized;
+    }
+
+    private static <V> boolean insert(Table<V> t, long id, V value) {
+        int i = hash(id) & t.mask;
+        while ( t.values.get(i) != null ) {
+            if ( t.keys[i] == id ) {
+                t.values.set(i, value);
+                return false;
+            }
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = id;
+        t.values.set(i, value);
+        return true;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
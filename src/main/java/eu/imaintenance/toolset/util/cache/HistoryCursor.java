@@ -0,0 +1,128 @@
+package eu.imaintenance.toolset.util.cache;
+/**
+ * Cursor over the observations of a datastream within a time range, obtained with
+ * {@link ObservationHistory#history(long, long, long)}. The cursor reads the times and values
+ * straight from the datastream's ring buffer:
+ * <pre>
+ * HistoryCursor cursor = history.history(datastreamId, from, to);
+ * while ( cursor.next() ) {
+ *     sum += cursor.getValue();
+ * }
+ * </pre>
+ * The range covers the observations recorded when the query was issued. Observations
+ * overwritten by newer ones while the cursor is in use are skipped. A cursor is meant to be
+ * used by a single thread and may be reused for subsequent queries.
+ * @author dglachs
+ *
+ */
+public final class HistoryCursor {
+    private long datastreamId;
+    private ObservationHistory.Ring ring;
+    private long next;
+    private long end;
+    private long time;
+    private double value;
+    /**
+     * Written after reading an observation, so that the reads are not moved past the check 
+     * of the ring's sequence number, see {@link #valid(long)}
+     */
+    private volatile long fence;
+
+    /**
+     * Position the cursor before the first observation of the range
+     * @param datastreamId
+     * @param ring The ring of the datastream, <code>null</code> when there is no history
+     * @param from The start of the range in nanoseconds since the epoch (inclusive)
+     * @param to The end of the range in nanoseconds since the epoch (exclusive)
+     */
+    void reset(long datastreamId, ObservationHistory.Ring ring, long from, long to) {
+        this.datastreamId = datastreamId;
+        this.ring = ring;
+        this.time = 0;
+        this.value = Double.NaN;
+        if ( ring == null || from >= to ) {
+            this.next = 0;
+            this.end = 0;
+            return;
+        }
+        long written = ring.written;
+        long oldest = ring.oldest();
+        this.next = search(oldest, written, from);
+        this.end = search(oldest, written, to);
+    }
+    /**
+     * Move to the next observation
+     * @return <code>false</code> when the range is exhausted
+     */
+    public boolean next() {
+        while ( next < end ) {
+            long sequence = next++;
+            long t = ring.time(sequence);
+            double v = ring.value(sequence);
+            if (! valid(sequence)) {
+                // overwritten while reading, continue with the oldest observation available
+                next = Math.max(next, ring.oldest());
+                continue;
+            }
+            time = t;
+            value = v;
+            return true;
+        }
+        return false;
+    }
+    /**
+     * Check the observation read with the sequence number, see {@link ObservationHistory.Ring#valid(long)}
+     * @param sequence
+     * @return <code>true</code> when the observation was not overwritten while reading
+     */
+    private boolean valid(long sequence) {
+        fence = sequence;
+        return ring.valid(sequence);
+    }
+    /**
+     * Binary search for the first observation at or after the given time
+     * @param low The oldest sequence number
+     * @param high The sequence number after the latest observation
+     * @param time
+     * @return The sequence number
+     */
+    private long search(long low, long high, long time) {
+        while ( low < high ) {
+            long mid = (low + high) >>> 1;
+            long t = ring.time(mid);
+            // overwritten observations are older than the remaining ones
+            if (! valid(mid) || t < time ) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    /**
+     * @return The phenomenon time of the current observation in nanoseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+    /**
+     * @return The value of the current observation
+     */
+    public double getValue() {
+        return value;
+    }
+    /**
+     * @return The id of the queried datastream
+     */
+    public long getDatastreamId() {
+        return datastreamId;
+    }
+    /**
+     * @return The number of observations left in the range, observations overwritten in 
+     * the meantime are included
+     */
+    public long remaining() {
+        return end - next;
+    }
+}
@@ -0,0 +1,208 @@
+package eu.imaintenance.toolset.util.cache;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for metadata obtained from the SensorThings server. The cache
+ * <ul>
+ * <li>keeps found values (hits) for the configured time to live
+ * <li>keeps unknown keys (misses) for a separate, usually shorter, time to live
+ * <li>coalesces concurrent lookups for the same key into a single call of the {@link Loader}
+ * <li>allows asynchronous lookups, so that callers need not block on the remote call
+ * </ul>
+ * @author dglachs
+ *
+ * @param <K> The type of the key, e.g. the id of a datastream
+ * @param <V> The type of the cached metadata
+ */
+public class MetadataCache<K, V> {
+    /**
+     * Default time to live for found entries (10 minutes)
+     */
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+    /**
+     * Default time to live for unknown entries (1 minute)
+     */
+    public static final long DEFAULT_MISS_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    private static ExecutorService sharedLoader;
+    /**
+     * Function loading the metadata, usually performs a (blocking) call to the
+     * SensorThings server.
+     *
+     * @param <K>
+     * @param <V>
+     */
+    public interface Loader<K, V> {
+        /**
+         * Load the value for the key
+         * @param key
+         * @return The value or <code>null</code> when the key is unknown
+         * @throws Exception
+         */
+        V load(K key) throws Exception;
+    }
+    private static final class Entry<V> {
+        final Optional<V> value;
+        final long expires;
+        Entry(V value, long expires) {
+            this.value = Optional.ofNullable(value);
+            this.expires = expires;
+        }
+    }
+    private Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    private final Loader<K, V> loader;
+
+    private final Executor executor;
+
+    private volatile long ttl = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL);
+
+    private volatile long missTtl = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MISS_TTL);
+    /**
+     * Create the cache, asynchronous lookups are performed with a shared pool of daemon threads
+     * @param loader
+     */
+    public MetadataCache(Loader<K, V> loader) {
+        this(loader, sharedLoader());
+    }
+    /**
+     * Create the cache, asynchronous lookups are performed with the provided {@link Executor}
+     * @param loader
+     * @param executor
+     */
+    public MetadataCache(Loader<K, V> loader, Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
+    /**
+     * Specify the time to live of the cache entries
+     * @param ttl The time to live for found values
+     * @param missTtl The time to live for unknown keys
+     * @param unit The time unit of the provided values
+     * @return
+     */
+    public MetadataCache<K, V> withTtl(long ttl, long missTtl, TimeUnit unit) {
+        this.ttl = unit.toNanos(ttl);
+        this.missTtl = unit.toNanos(missTtl);
+        return this;
+    }
+    /**
+     * Non-blocking lookup.
+     * @param key
+     * @return <code>null</code> when the key is not (or no longer) cached, an empty {@link Optional}
+     * for cached misses, the value otherwise.
+     */
+    public Optional<V> getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if ( entry == null ) {
+            return null;
+        }
+        if ( entry.expires - System.nanoTime() < 0 ) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+    /**
+     * Blocking lookup, the value is loaded with the calling thread unless another
+     * thread already loads the same key.
+     * @param key
+     * @return The value or <code>null</code> when the key is unknown
+     */
+    public V get(K key) {
+        Optional<V> cached = getIfPresent(key);
+        if ( cached != null ) {
+            return cached.orElse(null);
+        }
+        CompletableFuture<V> created = new CompletableFuture<V>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, created);
+        if ( running == null ) {
+            load(key, created);
+            running = created;
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+    /**
+     * Asynchronous lookup, the value is loaded with the cache's {@link Executor}.
+     * @param key
+     * @return A future completing with the value or with <code>null</code> when the key is unknown
+     */
+    public CompletableFuture<V> getAsync(K key) {
+        Optional<V> cached = getIfPresent(key);
+        if ( cached != null ) {
+            return CompletableFuture.completedFuture(cached.orElse(null));
+        }
+        CompletableFuture<V> created = new CompletableFuture<V>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, created);
+        if ( running == null ) {
+            executor.execute(() -> load(key, created));
+            running = created;
+        }
+        return running;
+    }
+    /**
+     * Store a value with the cache
+     * @param key
+     * @param value The value, <code>null</code> marks the key as unknown
+     */
+    public void put(K key, V value) {
+        entries.put(key, new Entry<V>(value, expiry(value)));
+    }
+    /**
+     * Remove the key from the cache
+     * @param key
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    private void load(K key, CompletableFuture<V> future) {
+        V value = null;
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            // treat failures as unknown, the key is looked up again after the miss ttl
+            logger.info("Metadata for {} cannot be loaded: {}", key, e.getLocalizedMessage());
+        }
+        put(key, value);
+        loading.remove(key, future);
+        future.complete(value);
+    }
+
+    private long expiry(V value) {
+        return System.nanoTime() + (value != null ? ttl : missTtl);
+    }
+
+    private static synchronized Executor sharedLoader() {
+        if ( sharedLoader == null ) {
+            sharedLoader = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "metadata-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedLoader;
+    }
+}
@@ -0,0 +1,163 @@
+package eu.imaintenance.toolset.util.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+/**
+ * Store of the recent observations per datastream, e.g. for handlers evaluating a trend. 
+ * Each datastream owns a ring buffer of fixed capacity holding the phenomenon times and the
+ * numeric values (truth values as <code>1</code> or <code>0</code>), once full the oldest
+ * observations are overwritten. The rings are byte buffers, allocated on or off the heap, 
+ * so that the history neither creates objects per observation nor boxes the values.
+ * <p>
+ * A datastream is written by one thread at a time (the thread processing the datastream's
+ * messages), the queries are answered by a {@link HistoryCursor} reading straight from the
+ * ring without copying and without locking. The observations are expected in the order of 
+ * their phenomenon times, as the range of a query is located with a binary search.
+ * </p>
+ * @author dglachs
+ *
+ */
+public final class ObservationHistory {
+    /**
+     * Bytes per observation, the phenomenon time and the value
+     */
+    static final int ENTRY_BYTES = 16;
+
+    private final int capacity;
+    private final boolean offHeap;
+    private final DatastreamIndex<Ring> rings = new DatastreamIndex<Ring>();
+
+    /**
+     * Create the store
+     * @param capacity The number of observations kept per datastream
+     * @param offHeap <code>true</code> to allocate the rings outside of the heap
+     */
+    public ObservationHistory(int capacity, boolean offHeap) {
+        if ( capacity < 1 || capacity > Integer.MAX_VALUE / ENTRY_BYTES ) {
+            throw new IllegalArgumentException(String.format("Invalid history capacity %s!", capacity));
+        }
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+    }
+    /**
+     * Add an observation to the history of the datastream
+     * @param datastreamId The id of the datastream
+     * @param epochNanos The phenomenon time in nanoseconds since the epoch
+     * @param value The value
+     */
+    public void record(long datastreamId, long epochNanos, double value) {
+        Ring ring = rings.get(datastreamId);
+        if ( ring == null ) {
+            ring = new Ring(capacity, offHeap);
+            rings.put(datastreamId, ring);
+        }
+        ring.add(epochNanos, value);
+    }
+    /**
+     * Query the observations of a datastream
+     * @param datastreamId The id of the datastream
+     * @param from The start of the range in nanoseconds since the epoch (inclusive)
+     * @param to The end of the range in nanoseconds since the epoch (exclusive)
+     * @return The cursor positioned before the first observation of the range
+     */
+    public HistoryCursor history(long datastreamId, long from, long to) {
+        return history(datastreamId, from, to, new HistoryCursor());
+    }
+    /**
+     * Query the observations of a datastream, reusing the cursor of a previous query
+     * @param datastreamId The id of the datastream
+     * @param from The start of the range in nanoseconds since the epoch (inclusive)
+     * @param to The end of the range in nanoseconds since the epoch (exclusive)
+     * @param cursor The cursor to reuse
+     * @return The cursor positioned before the first observation of the range
+     */
+    public HistoryCursor history(long datastreamId, long from, long to, HistoryCursor cursor) {
+        cursor.reset(datastreamId, rings.get(datastreamId), from, to);
+        return cursor;
+    }
+    /**
+     * @param datastreamId
+     * @return The number of observations kept for the datastream
+     */
+    public int size(long datastreamId) {
+        Ring ring = rings.get(datastreamId);
+        return ring != null ? (int) Math.min(ring.written, capacity) : 0;
+    }
+    /**
+     * @return The number of observations kept per datastream
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    /**
+     * @return <code>true</code> when the rings are allocated outside of the heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+    /**
+     * @return The number of datastreams with a history
+     */
+    public int getDatastreamCount() {
+        return rings.size();
+    }
+    /**
+     * Ring buffer of a datastream, written by a single thread. An observation is published by
+     * incrementing {@link #written}, the sequence number of an observation is the value of 
+     * {@link #written} before it was added. Like a sequence lock, the writer announces the 
+     * observation with {@link #claimed} before storing it into the ring. The readers do not 
+     * lock, an observation read is checked with {@link #valid(long)} afterwards.
+     */
+    static final class Ring {
+        private final ByteBuffer buffer;
+        private final int capacity;
+        volatile long written;
+        /**
+         * The sequence number after the observation being added, set before the observation
+         * is stored, equal to {@link #written} when no observation is being added
+         */
+        volatile long claimed;
+
+        Ring(int capacity, boolean offHeap) {
+            this.capacity = capacity;
+            this.buffer = (offHeap ? ByteBuffer.allocateDirect(capacity * ENTRY_BYTES) : ByteBuffer.allocate(capacity * ENTRY_BYTES))
+                    .order(ByteOrder.nativeOrder());
+        }
+        void add(long time, double value) {
+            long sequence = written;
+            claimed = sequence + 1;
+            // the volatile read keeps the stores of the slot behind the claim
+            int offset = offset(written);
+            buffer.putLong(offset, time);
+            buffer.putDouble(offset + 8, value);
+            written = sequence + 1;
+        }
+        long time(long sequence) {
+            return buffer.getLong(offset(sequence));
+        }
+        double value(long sequence) {
+            return buffer.getDouble(offset(sequence) + 8);
+        }
+        /**
+         * @return The sequence number of the oldest observation not yet overwritten
+         */
+        long oldest() {
+            return Math.max(0, claimed - capacity);
+        }
+        /**
+         * Check an observation after reading it. Before the writer overwrites an observation
+         * it claims the sequence number <code>capacity</code> after it, so an observation 
+         * read while being overwritten is detected with {@link #claimed}. The oldest 
+         * observation is not read at all, as it is the next one to be overwritten. The reader
+         * must not move the reads of the observation past this check (see {@link HistoryCursor}).
+         * @param sequence The sequence number of the observation read
+         * @return <code>true</code> when the observation was not overwritten while reading
+         */
+        boolean valid(long sequence) {
+            return sequence > claimed - capacity;
+        }
+        private int offset(long sequence) {
+            return (int) (sequence % capacity) * ENTRY_BYTES;
+        }
+    }
+}
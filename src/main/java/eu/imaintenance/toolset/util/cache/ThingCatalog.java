@@ -0,0 +1,244 @@
+package eu.imaintenance.toolset.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+/**
+ * Snapshot of the things and their datastreams, loaded in bulk from the SensorThings server.
+ * The things are requested with <code>$expand=Datastreams</code> in pages of a fixed size,
+ * the first page reports the total count, the remaining pages are requested in parallel.
+ * Loading is therefore bounded by a few round trips instead of one (or more) requests per
+ * thing and datastream. The lookups by id and name are answered from memory.
+ * @author dglachs
+ *
+ */
+public final class ThingCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(ThingCatalog.class);
+    /**
+     * Default number of things per page
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    /**
+     * Default number of pages requested in parallel
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+    /**
+     * The expansion of the things, the sensor names are required for the producers
+     */
+    private static final String EXPAND = "Datastreams($expand=Sensor($select=id,name))";
+
+    private final Map<Id, Thing> things = new LinkedHashMap<Id, Thing>();
+    private final Map<String, List<Thing>> thingsByName = new HashMap<String, List<Thing>>();
+    private final Map<Id, Datastream> datastreams = new HashMap<Id, Datastream>();
+    private final Map<String, List<Datastream>> datastreamsByName = new HashMap<String, List<Datastream>>();
+    private final Map<Id, List<Datastream>> datastreamsOfThing = new HashMap<Id, List<Datastream>>();
+    /**
+     * Number of pages requested and the time spent loading
+     */
+    private int pages;
+    private long loadMillis;
+    /**
+     * The time the metadata has been obtained from the SensorThings server
+     */
+    private final long timestamp;
+
+    ThingCatalog(long timestamp) {
+        this.timestamp = timestamp;
+    }
+    /**
+     * Load the things along with their datastreams
+     * @param service The service connected to the SensorThings server
+     * @param pageSize The number of things per request, the server may limit the size further
+     * @param parallelism The number of pages requested in parallel
+     * @return The catalog
+     * @throws ServiceFailureException When a page cannot be loaded
+     */
+    public static ThingCatalog load(SensorThingsService service, int pageSize, int parallelism) throws ServiceFailureException {
+        if ( pageSize < 1 || parallelism < 1 ) {
+            throw new IllegalArgumentException("Page size and parallelism must be positive!");
+        }
+        long start = System.nanoTime();
+        ThingCatalog catalog = new ThingCatalog(System.currentTimeMillis());
+        AtomicInteger requests = new AtomicInteger(1);
+        // the first page reports the total count and the page size granted by the server
+        EntityList<Thing> first = service.things().query()
+                .expand(EXPAND)
+                .orderBy("id asc")
+                .top(pageSize)
+                .count()
+                .list();
+        catalog.addPage(first);
+        int granted = first.getNextLink() != null ? Math.max(1, Math.min(pageSize, first.size())) : pageSize;
+        long count = first.getCount();
+        if ( count > granted ) {
+            List<Callable<Void>> remaining = new ArrayList<Callable<Void>>();
+            for (long skip = granted; skip < count; skip += granted) {
+                final int offset = (int) skip;
+                remaining.add(() -> {
+                    requests.incrementAndGet();
+                    catalog.addPage(service.things().query()
+                            .expand(EXPAND)
+                            .orderBy("id asc")
+                            .top(granted)
+                            .skip(offset)
+                            .list());
+                    return null;
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, remaining.size()), runnable -> {
+                Thread thread = new Thread(runnable, "metadata-bootstrap");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                for (Future<Void> page : executor.invokeAll(remaining)) {
+                    page.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceFailureException("Loading the metadata has been interrupted!", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if ( cause instanceof ServiceFailureException ) {
+                    throw (ServiceFailureException) cause;
+                }
+                throw new ServiceFailureException("Loading the metadata failed!", cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        catalog.pages = requests.get();
+        catalog.loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Loaded {} things with {} datastreams in {} requests ({} ms)",
+                catalog.things.size(), catalog.datastreams.size(), catalog.pages, catalog.loadMillis);
+        return catalog;
+    }
+    /**
+     * Add the things of a page, the expanded datastreams exceeding the server's expansion limit
+     * are followed with additional requests
+     * @param page
+     * @throws ServiceFailureException
+     */
+    private void addPage(EntityList<Thing> page) throws ServiceFailureException {
+        for (Thing thing : page) {
+            List<Datastream> streams = new ArrayList<Datastream>();
+            EntityList<Datastream> expanded = thing.getDatastreams();
+            if ( expanded != null ) {
+                Iterator<Datastream> iterator = expanded.fullIterator();
+                while (iterator.hasNext()) {
+                    Datastream stream = iterator.next();
+                    stream.setThing(thing);
+                    streams.add(stream);
+                }
+            }
+            add(thing, streams);
+        }
+    }
+    synchronized void add(Thing thing, List<Datastream> streams) {
+        things.put(thing.getId(), thing);
+        thingsByName.computeIfAbsent(thing.getName(), n -> new ArrayList<Thing>()).add(thing);
+        datastreamsOfThing.put(thing.getId(), streams);
+        for (Datastream stream : streams) {
+            datastreams.put(stream.getId(), stream);
+            datastreamsByName.computeIfAbsent(stream.getName(), n -> new ArrayList<Datastream>()).add(stream);
+        }
+    }
+    /**
+     * @param thingId
+     * @return The thing, <code>null</code> when unknown
+     */
+    public synchronized Thing getThing(Long thingId) {
+        return things.get(new IdLong(thingId));
+    }
+    /**
+     * @param thingId
+     * @return The thing, <code>null</code> when unknown
+     */
+    public synchronized Thing getThing(Id thingId) {
+        return things.get(thingId);
+    }
+    /**
+     * @param name
+     * @return The things with the name, empty when unknown
+     */
+    public synchronized List<Thing> getThings(String name) {
+        return thingsByName.getOrDefault(name, Collections.<Thing>emptyList());
+    }
+    /**
+     * @return All things of the catalog
+     */
+    public synchronized Collection<Thing> getThings() {
+        return new ArrayList<Thing>(things.values());
+    }
+    /**
+     * @param datastreamId
+     * @return The datastream, the thing is set, <code>null</code> when unknown
+     */
+    public synchronized Datastream getDatastream(Long datastreamId) {
+        return datastreams.get(new IdLong(datastreamId));
+    }
+    /**
+     * @param name
+     * @return The datastreams with the name, empty when unknown
+     */
+    public synchronized List<Datastream> getDatastreams(String name) {
+        return datastreamsByName.getOrDefault(name, Collections.<Datastream>emptyList());
+    }
+    /**
+     * @param thingId The id of the thing
+     * @return The datastreams of the thing, <code>null</code> when the thing is unknown
+     */
+    public synchronized List<Datastream> getDatastreams(Id thingId) {
+        return datastreamsOfThing.get(thingId);
+    }
+    /**
+     * @return The number of datastreams
+     */
+    public synchronized int getDatastreamCount() {
+        return datastreams.size();
+    }
+    /**
+     * @return The number of pages requested, <code>0</code> when read from a {@link CatalogSnapshot}
+     */
+    public int getPages() {
+        return pages;
+    }
+    /**
+     * @return The time spent loading in milliseconds
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+    void setLoadMillis(long loadMillis) {
+        this.loadMillis = loadMillis;
+    }
+    /**
+     * @return The time the metadata has been obtained from the SensorThings server (epoch millis)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
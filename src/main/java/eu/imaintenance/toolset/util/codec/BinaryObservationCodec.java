@@ -0,0 +1,379 @@
+package eu.imaintenance.toolset.util.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import org.threeten.extra.Interval;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.json.IsoTime;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.json.PrimitiveObservation;
+/**
+ * Compact binary representation of the observations. A measurement with phenomenon and
+ * valid time takes about 25 bytes compared to about 300 bytes of JSON.
+ * <pre>
+ * byte     magic (0xB5, never the first byte of a UTF-8 document)
+ * byte     version
+ * byte     flags: bits 0-2 observation type, see {@link #typeCode(ObservationType)}
+ *                 bit 3 phenomenon time is an interval
+ *                 bit 4 valid time present
+ *                 bit 5 truth value
+ *                 bit 6 sub-millisecond times
+ * varlong  datastream id
+ * time     phenomenon time (start), relative to the epoch
+ * [time]   duration of the phenomenon time, bit 3
+ * [time]   start of the valid time, relative to the phenomenon time, bit 4
+ * [time]   duration of the valid time, bit 4
+ * value    MEASUREMENT: 8 bytes IEEE 754, COUNT_OBSERVATION: zig-zag varlong,
+ *          TRUTH_OBSERVATION: none (bit 5), CATEGORY_OBSERVATION, OBSERVATION: varint
+ *          length and UTF-8 text (JSON for OBSERVATION)
+ * </pre>
+ * Times are zig-zag encoded variable length milliseconds, followed by a variable length
+ * nano-of-millisecond when bit 6 is set. Only numeric datastream id's are supported.
+ * @author dglachs
+ *
+ */
+public final class BinaryObservationCodec implements ObservationCodec {
+    public static final String NAME = "binary";
+
+    static final byte MAGIC = (byte) 0xB5;
+    static final byte VERSION = 1;
+
+    private static final int TYPE_MASK = 0x07;
+    private static final int INTERVAL = 0x08;
+    private static final int VALID_TIME = 0x10;
+    private static final int TRUTH = 0x20;
+    private static final int NANOS = 0x40;
+
+    private static final int MEASUREMENT = 1;
+    private static final int COUNT = 2;
+    private static final int TRUTH_VALUE = 3;
+    private static final int CATEGORY = 4;
+    private static final int GENERIC = 5;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEncoded(byte[] payload) {
+        return payload.length > 2 && payload[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Datastream stream, Observation observation) throws IOException {
+        Object id = stream.getId() != null ? stream.getId().getValue() : null;
+        if (! (id instanceof Number) ) {
+            throw new IOException(String.format("Datastream %s: the binary codec requires numeric datastream id's!", stream.getName()));
+        }
+        ObservationType type = ObservationType.fromString(stream.getObservationType());
+        TimeObject time = observation.getPhenomenonTime();
+        if ( time == null ) {
+            throw new IOException("The binary codec requires a phenomenon time!");
+        }
+        long start;
+        long end;
+        if ( time.isInterval() ) {
+            start = IsoTime.toEpochNanos(time.getAsInterval().getStart());
+            end = IsoTime.toEpochNanos(time.getAsInterval().getEnd());
+        }
+        else {
+            start = IsoTime.toEpochNanos(time.getAsDateTime());
+            end = start;
+        }
+        Interval valid = observation.getValidTime();
+        long validStart = valid != null ? IsoTime.toEpochNanos(valid.getStart()) : 0;
+        long validEnd = valid != null ? IsoTime.toEpochNanos(valid.getEnd()) : 0;
+
+        int flags = typeCode(type);
+        if ( time.isInterval() ) {
+            flags |= INTERVAL;
+        }
+        if ( valid != null ) {
+            flags |= VALID_TIME;
+        }
+        if ( start % NANOS_PER_MILLI != 0 || end % NANOS_PER_MILLI != 0 || validStart % NANOS_PER_MILLI != 0 || validEnd % NANOS_PER_MILLI != 0) {
+            flags |= NANOS;
+        }
+        Object result = observation.getResult();
+        if ( (flags & TYPE_MASK) == TRUTH_VALUE && Boolean.parseBoolean(String.valueOf(result))) {
+            flags |= TRUTH;
+        }
+        boolean nanos = (flags & NANOS) != 0;
+        Writer out = new Writer();
+        out.put(MAGIC);
+        out.put(VERSION);
+        out.put((byte) flags);
+        out.varLong(((Number) id).longValue());
+        out.time(start, nanos);
+        if ( (flags & INTERVAL) != 0 ) {
+            out.time(end - start, nanos);
+        }
+        if ( valid != null ) {
+            out.time(validStart - start, nanos);
+            out.time(validEnd - validStart, nanos);
+        }
+        switch (flags & TYPE_MASK) {
+        case MEASUREMENT:
+            out.fixedLong(Double.doubleToLongBits(Double.parseDouble(String.valueOf(result))));
+            break;
+        case COUNT:
+            out.zigZag(Long.parseLong(String.valueOf(result)));
+            break;
+        case TRUTH_VALUE:
+            break;
+        case CATEGORY:
+            out.text(String.valueOf(result));
+            break;
+        default:
+            out.text(ObjectMapperFactory.get().writeValueAsString(result));
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Observation decode(byte[] payload) throws IOException {
+        Reader in = new Reader(payload);
+        int flags = in.flags();
+        boolean nanos = (flags & NANOS) != 0;
+        Datastream stream = new Datastream();
+        stream.setId(new IdLong(in.varLong()));
+
+        Observation observation = new Observation();
+        observation.setDatastream(stream);
+        long start = in.time(nanos);
+        if ( (flags & INTERVAL) != 0 ) {
+            observation.setPhenomenonTimeFrom(Interval.of(instant(start), instant(start + in.time(nanos))));
+        }
+        else {
+            observation.setPhenomenonTimeFrom(ZonedDateTime.ofInstant(instant(start), ZoneOffset.UTC));
+        }
+        if ( (flags & VALID_TIME) != 0 ) {
+            long validStart = start + in.time(nanos);
+            observation.setValidTime(Interval.of(instant(validStart), instant(validStart + in.time(nanos))));
+        }
+        switch (flags & TYPE_MASK) {
+        case MEASUREMENT:
+            observation.setResult(Double.longBitsToDouble(in.fixedLong()));
+            break;
+        case COUNT:
+            // same result type as parsed from JSON
+            long count = in.zigZag();
+            if ( count == (int) count ) {
+                observation.setResult(Integer.valueOf((int) count));
+            }
+            else {
+                observation.setResult(Long.valueOf(count));
+            }
+            break;
+        case TRUTH_VALUE:
+            observation.setResult((flags & TRUTH) != 0);
+            break;
+        case CATEGORY:
+            observation.setResult(in.text());
+            break;
+        default:
+            observation.setResult(ObjectMapperFactory.get().readValue(in.text(), Object.class));
+        }
+        return observation;
+    }
+
+    @Override
+    public boolean readHeader(byte[] payload, ObservationHeader header) throws IOException {
+        Reader in = new Reader(payload);
+        in.flags();
+        header.setId(in.varLong());
+        return true;
+    }
+
+    @Override
+    public boolean readPrimitive(byte[] payload, PrimitiveObservation observation) throws IOException {
+        Reader in = new Reader(payload);
+        int flags = in.flags();
+        boolean nanos = (flags & NANOS) != 0;
+        long id = in.varLong();
+        long start = in.time(nanos);
+        int type = flags & TYPE_MASK;
+        if ( type != MEASUREMENT && type != COUNT && type != TRUTH_VALUE ) {
+            return false;
+        }
+        if ( (flags & INTERVAL) != 0 ) {
+            in.time(nanos);
+        }
+        if ( (flags & VALID_TIME) != 0 ) {
+            in.time(nanos);
+            in.time(nanos);
+        }
+        observation.set(id, start);
+        switch (type) {
+        case MEASUREMENT:
+            observation.setDouble(Double.longBitsToDouble(in.fixedLong()));
+            break;
+        case COUNT:
+            observation.setLong(in.zigZag());
+            break;
+        default:
+            observation.setBoolean((flags & TRUTH) != 0);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString(byte[] payload) {
+        StringBuilder hex = new StringBuilder(payload.length * 2);
+        for (byte b : payload) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    /**
+     * Map the observation type to it's binary code
+     * @param type
+     * @return
+     */
+    static int typeCode(ObservationType type) {
+        switch (type) {
+        case MEASUREMENT:
+            return MEASUREMENT;
+        case COUNT_OBSERVATION:
+            return COUNT;
+        case TRUTH_OBSERVATION:
+            return TRUTH_VALUE;
+        case CATEGORY_OBSERVATION:
+            return CATEGORY;
+        default:
+            return GENERIC;
+        }
+    }
+    private static Instant instant(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+    /**
+     * Growable output buffer
+     */
+    private static final class Writer {
+        private byte[] buf = new byte[32];
+        private int pos;
+
+        void put(byte b) {
+            if ( pos == buf.length ) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[pos++] = b;
+        }
+        void varLong(long value) {
+            while ( (value & ~0x7FL) != 0 ) {
+                put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((byte) value);
+        }
+        void zigZag(long value) {
+            varLong((value << 1) ^ (value >> 63));
+        }
+        void fixedLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                put((byte) (value >>> shift));
+            }
+        }
+        void time(long nanos, boolean subMillis) {
+            zigZag(Math.floorDiv(nanos, NANOS_PER_MILLI));
+            if ( subMillis ) {
+                varLong(Math.floorMod(nanos, NANOS_PER_MILLI));
+            }
+        }
+        void text(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            varLong(bytes.length);
+            for (byte b : bytes) {
+                put(b);
+            }
+        }
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+    /**
+     * Cursor on the encoded observation
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+        /**
+         * Verify magic and version
+         * @return The flags
+         * @throws IOException
+         */
+        int flags() throws IOException {
+            if ( buf.length < 3 || buf[0] != MAGIC ) {
+                throw new IOException("Payload is not a binary observation!");
+            }
+            if ( buf[1] != VERSION ) {
+                throw new IOException(String.format("Unsupported version %s of the binary observation!", buf[1]));
+            }
+            pos = 3;
+            return buf[2] & 0xFF;
+        }
+        private byte get() throws IOException {
+            if ( pos >= buf.length ) {
+                throw new IOException("Binary observation is truncated!");
+            }
+            return buf[pos++];
+        }
+        long varLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = get();
+                value |= (long) (b & 0x7F) << shift;
+                if ( (b & 0x80) == 0 ) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length number!");
+        }
+        long zigZag() throws IOException {
+            long value = varLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+        long fixedLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (get() & 0xFF);
+            }
+            return value;
+        }
+        long time(boolean subMillis) throws IOException {
+            long nanos = zigZag() * NANOS_PER_MILLI;
+            if ( subMillis ) {
+                nanos += varLong();
+            }
+            return nanos;
+        }
+        String text() throws IOException {
+            int length = (int) varLong();
+            if ( length < 0 || pos + length > buf.length ) {
+                throw new IOException("Binary observation is truncated!");
+            }
+            String text = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return text;
+        }
+    }
+}
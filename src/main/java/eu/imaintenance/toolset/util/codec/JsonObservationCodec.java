@@ -0,0 +1,82 @@
+package eu.imaintenance.toolset.util.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.json.PrimitiveObservation;
+/**
+ * The SensorThings JSON representation of the observations (UTF-8), the default codec.
+ * Any payload not claimed by another codec is treated as JSON.
+ * @author dglachs
+ *
+ */
+public final class JsonObservationCodec implements ObservationCodec {
+    public static final String NAME = "json";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEncoded(byte[] payload) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Datastream stream, Observation observation) throws IOException {
+        return ObjectMapperFactory.get().writeValueAsBytes(observation);
+    }
+    /**
+     * Serialize the observations in one pass with a single {@link JsonGenerator}
+     */
+    @Override
+    public List<byte[]> encode(Datastream stream, Observation observation, int count, ObjIntConsumer<Observation> update) throws IOException {
+        ObjectMapper mapper = ObjectMapperFactory.get();
+        List<byte[]> encoded = new ArrayList<byte[]>(count);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(buffer)) {
+            // records are cut from the buffer, no separator between the observations
+            generator.setRootValueSeparator(null);
+            for (int i = 0; i < count; i++) {
+                update.accept(observation, i);
+                mapper.writeValue(generator, observation);
+                generator.flush();
+                encoded.add(buffer.toByteArray());
+                buffer.reset();
+            }
+        }
+        return encoded;
+    }
+
+    @Override
+    public Observation decode(byte[] payload) throws IOException {
+        return ObjectMapperFactory.get().readValue(payload, Observation.class);
+    }
+
+    @Override
+    public boolean readHeader(byte[] payload, ObservationHeader header) throws IOException {
+        return header.read(payload);
+    }
+
+    @Override
+    public boolean readPrimitive(byte[] payload, PrimitiveObservation observation) throws IOException {
+        return observation.read(payload);
+    }
+
+    @Override
+    public String toString(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
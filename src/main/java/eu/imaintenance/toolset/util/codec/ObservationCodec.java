@@ -0,0 +1,93 @@
+package eu.imaintenance.toolset.util.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.json.PrimitiveObservation;
+/**
+ * Wire format of the observations exchanged with the messaging infrastructure.
+ * <p>
+ * The codec used for sending is selected per thing with the <code>codec</code> entry of the
+ * thing's <code>kafka</code> property, received messages are decoded with the codec
+ * detected by {@link #isEncoded(byte[])}, see {@link ObservationCodecs#detect(byte[])}.
+ * Additional codecs are registered with {@link ObservationCodecs#register(ObservationCodec)}
+ * or provided with the {@link java.util.ServiceLoader} mechanism.
+ * </p>
+ * @author dglachs
+ *
+ */
+public interface ObservationCodec {
+    /**
+     * @return The name of the codec, as used in the thing's <code>kafka</code> property
+     */
+    String getName();
+    /**
+     * Check whether the payload is encoded with this codec, the check must be
+     * cheap (e.g. a magic byte) as it is performed per message.
+     * @param payload The received payload
+     * @return
+     */
+    boolean isEncoded(byte[] payload);
+    /**
+     * Encode the observation
+     * @param stream The datastream of the observation, provides the id and the observation type
+     * @param observation The observation
+     * @return The encoded observation
+     * @throws IOException When the observation cannot be encoded
+     */
+    byte[] encode(Datastream stream, Observation observation) throws IOException;
+    /**
+     * Encode a buffer of observations, a single observation is reused for all values
+     * @param stream The datastream of the observations
+     * @param observation The observation object, reused for all values
+     * @param count The number of observations to encode
+     * @param update Function preparing the observation for the given index
+     * @return The encoded observations
+     * @throws IOException When an observation cannot be encoded
+     */
+    default List<byte[]> encode(Datastream stream, Observation observation, int count, ObjIntConsumer<Observation> update) throws IOException {
+        List<byte[]> encoded = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            update.accept(observation, i);
+            encoded.add(encode(stream, observation));
+        }
+        return encoded;
+    }
+    /**
+     * Decode the observation
+     * @param payload The encoded observation
+     * @return The observation, the datastream carries the id only
+     * @throws IOException When the payload cannot be decoded
+     */
+    Observation decode(byte[] payload) throws IOException;
+    /**
+     * Read the datastream id of the payload without decoding the observation
+     * @param payload The encoded observation
+     * @param header The header receiving the datastream id
+     * @return <code>true</code> when the payload references a datastream
+     * @throws IOException When the payload cannot be decoded
+     */
+    boolean readHeader(byte[] payload, ObservationHeader header) throws IOException;
+    /**
+     * Read the datastream id, phenomenon time and a primitive result without creating
+     * an {@link Observation}
+     * @param payload The encoded observation
+     * @param observation The reader receiving the values
+     * @return <code>true</code> when the payload provides a numeric datastream id and a primitive result
+     * @throws IOException When the payload cannot be decoded
+     */
+    boolean readPrimitive(byte[] payload, PrimitiveObservation observation) throws IOException;
+    /**
+     * Describe the payload for logging purposes
+     * @param payload
+     * @return
+     */
+    default String toString(byte[] payload) {
+        return String.format("%s bytes (%s)", payload.length, getName());
+    }
+}
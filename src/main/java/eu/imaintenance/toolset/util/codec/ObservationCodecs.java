@@ -0,0 +1,92 @@
+package eu.imaintenance.toolset.util.codec;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Registry of the available {@link ObservationCodec}s. The JSON and the binary codec are
+ * always available, further codecs are found with the {@link ServiceLoader} or registered
+ * with {@link #register(ObservationCodec)}.
+ * @author dglachs
+ *
+ */
+public final class ObservationCodecs {
+    private static final Logger logger = LoggerFactory.getLogger(ObservationCodecs.class);
+    /**
+     * The default codec
+     */
+    public static final ObservationCodec JSON = new JsonObservationCodec();
+    public static final ObservationCodec BINARY = new BinaryObservationCodec();
+    /**
+     * Codecs checked by {@link #detect(byte[])}, JSON is the fallback and not part of the list
+     */
+    private static final List<ObservationCodec> codecs = new CopyOnWriteArrayList<ObservationCodec>();
+
+    static {
+        codecs.add(BINARY);
+        for (ObservationCodec codec : ServiceLoader.load(ObservationCodec.class)) {
+            register(codec);
+        }
+    }
+
+    private ObservationCodecs() {
+        // static registry
+    }
+    /**
+     * Register an additional codec, a codec with the same name is replaced
+     * @param codec
+     */
+    public static void register(ObservationCodec codec) {
+        if ( JsonObservationCodec.NAME.equals(codec.getName())) {
+            throw new IllegalArgumentException("The JSON codec cannot be replaced!");
+        }
+        for (ObservationCodec existing : codecs) {
+            if ( existing.getName().equals(codec.getName())) {
+                codecs.remove(existing);
+            }
+        }
+        codecs.add(codec);
+        logger.debug("Registered observation codec {}", codec.getName());
+    }
+    /**
+     * Obtain the codec by it's name
+     * @param name The name of the codec, JSON is used for <code>null</code>
+     * @return The codec, JSON when the codec is not known
+     */
+    public static ObservationCodec forName(String name) {
+        if ( name == null || JsonObservationCodec.NAME.equalsIgnoreCase(name)) {
+            return JSON;
+        }
+        for (ObservationCodec codec : codecs) {
+            if ( codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        logger.warn("Observation codec {} is not available, using {}", name, JSON.getName());
+        return JSON;
+    }
+    /**
+     * Detect the codec of a received payload
+     * @param payload
+     * @return The codec claiming the payload, JSON otherwise
+     */
+    public static ObservationCodec detect(byte[] payload) {
+        for (ObservationCodec codec : codecs) {
+            if ( codec.isEncoded(payload)) {
+                return codec;
+            }
+        }
+        return JSON;
+    }
+    /**
+     * Describe the payload for logging purposes
+     * @param payload
+     * @return
+     */
+    public static String toString(byte[] payload) {
+        return detect(payload).toString(payload);
+    }
+}
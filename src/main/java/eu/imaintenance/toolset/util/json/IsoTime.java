@@ -0,0 +1,153 @@
+package eu.imaintenance.toolset.util.json;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
+/**
+ * Helper class converting ISO-8601 time stamps as used by SensorThings to nanoseconds
+ * since the epoch. The common forms <code>yyyy-MM-ddTHH:mm:ss[.fraction](Z|&plusmn;hh:mm)</code>
+ * are parsed straight from the character buffer without creating objects, intervals
+ * (<code>start/end</code>) are reduced to their start.
+ * @author dglachs
+ *
+ */
+public final class IsoTime {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private IsoTime() {
+        // static helper
+    }
+    /**
+     * Parse the time stamp
+     * @param buf The characters
+     * @param offset Start of the time stamp within the buffer
+     * @param length Length of the time stamp
+     * @return The nanoseconds since the epoch
+     * @throws DateTimeParseException When the text is not a valid time stamp
+     */
+    public static long parseEpochNanos(char[] buf, int offset, int length) {
+        int end = offset + length;
+        // use the start of an interval
+        for (int i = offset; i < end; i++) {
+            if ( buf[i] == '/') {
+                end = i;
+                break;
+            }
+        }
+        long nanos = parseFast(buf, offset, end);
+        if ( nanos != Long.MIN_VALUE ) {
+            return nanos;
+        }
+        // rare formats: use java.time
+        Instant instant = OffsetDateTime.parse(new String(buf, offset, end - offset)).toInstant();
+        return toEpochNanos(instant);
+    }
+    /**
+     * Parse the time stamp
+     * @param text
+     * @return The nanoseconds since the epoch
+     */
+    public static long parseEpochNanos(String text) {
+        return parseEpochNanos(text.toCharArray(), 0, text.length());
+    }
+    /**
+     * Convert the phenomenon time of an observation, intervals are reduced to their start
+     * @param time
+     * @return The nanoseconds since the epoch
+     */
+    public static long toEpochNanos(TimeObject time) {
+        if ( time == null ) {
+            return 0;
+        }
+        if ( time.isInterval()) {
+            return toEpochNanos(time.getAsInterval().getStart());
+        }
+        return toEpochNanos(time.getAsDateTime());
+    }
+    public static long toEpochNanos(ZonedDateTime time) {
+        return toEpochNanos(time.toInstant());
+    }
+    public static long toEpochNanos(Instant instant) {
+        return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+    }
+
+    private static long parseFast(char[] b, int o, int end) {
+        if ( end - o < 20 || b[o+4] != '-' || b[o+7] != '-' || b[o+10] != 'T' || b[o+13] != ':' || b[o+16] != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(b, o, 4);
+        int month = digits(b, o+5, 2);
+        int day = digits(b, o+8, 2);
+        int hour = digits(b, o+11, 2);
+        int minute = digits(b, o+14, 2);
+        int second = digits(b, o+17, 2);
+        if ( year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        int i = o + 19;
+        long fraction = 0;
+        if ( b[i] == '.') {
+            i++;
+            int scale = 0;
+            while ( i < end && b[i] >= '0' && b[i] <= '9') {
+                if ( scale < 9 ) {
+                    fraction = fraction * 10 + (b[i] - '0');
+                    scale++;
+                }
+                i++;
+            }
+            if ( scale == 0 ) {
+                return Long.MIN_VALUE;
+            }
+            for (; scale < 9; scale++) {
+                fraction *= 10;
+            }
+        }
+        if ( i >= end ) {
+            return Long.MIN_VALUE;
+        }
+        int offsetSeconds;
+        if ( b[i] == 'Z' && i + 1 == end ) {
+            offsetSeconds = 0;
+        }
+        else if ( (b[i] == '+' || b[i] == '-') && i + 6 == end && b[i+3] == ':') {
+            int h = digits(b, i+1, 2);
+            int m = digits(b, i+4, 2);
+            if ( h < 0 || m < 0 ) {
+                return Long.MIN_VALUE;
+            }
+            offsetSeconds = (h * 3600 + m * 60) * (b[i] == '-' ? -1 : 1);
+        }
+        else {
+            return Long.MIN_VALUE;
+        }
+        long epochSecond = epochDay(year, month, day) * 86400L + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return epochSecond * NANOS_PER_SECOND + fraction;
+    }
+
+    private static int digits(char[] b, int o, int count) {
+        int value = 0;
+        for (int i = o; i < o + count; i++) {
+            char c = b[i];
+            if ( c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    /**
+     * Days since the epoch for the proleptic gregorian calendar
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
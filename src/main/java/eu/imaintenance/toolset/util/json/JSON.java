@@ -2,15 +2,24 @@ package eu.imaintenance.toolset.util.json;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
 
 public class JSON {
-    
+    /**
+     * Readers of the SensorThings object mapper per target class, the readers are immutable
+     * and keep the resolved deserializer
+     */
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
     /**
      * Static helper method to tranform the  
      * @param mapper
@@ -36,14 +45,11 @@ public class JSON {
      * @throws IOException
      */
     public static <T> T deserializeFromString(String txt, Class<T> clazz) throws JsonParseException, JsonMappingException, IOException {
-        ObjectMapper mapper = ObjectMapperFactory.get();
-        T myObjects = mapper.readValue(txt, clazz);
-        return myObjects;
-        
+        return reader(clazz).readValue(txt);
     }
     /**
-     * Static helper method to tranform the  
-     * @param mapper
+     * Static helper method to tranform the value, e.g. a JSON string or an already deserialized
+     * structure of maps and lists, see {@link #convert(Object, Class)}
      * @param txt
      * @param clazz
      * @return
@@ -52,13 +58,45 @@ public class JSON {
      * @throws IOException
      */
     public static <T> T deserializeFromString(Object txt, Class<T> clazz) throws JsonParseException, JsonMappingException, IOException {
-        if ( txt instanceof Map) {
-            ResultHelper result = new ResultHelper(txt);
-            return deserializeFromString(result.toString(), clazz);
+        if ( txt instanceof String ) {
+            return deserializeFromString((String) txt, clazz);
         }
-        T myObjects = ObjectMapperFactory.get().readValue(txt.toString(), clazz);
-        return myObjects;
-        
+        return convert(txt, clazz);
+    }
+    /**
+     * Convert an already deserialized value (e.g. the maps and lists of a complex result) into
+     * the target class. The value is streamed into a token buffer and read with the cached
+     * reader of the class, no JSON text is produced.
+     * @param value The value, e.g. a map
+     * @param clazz The target class
+     * @return The converted value, <code>null</code> for <code>null</code>
+     * @throws IOException When the value does not match the target class
+     */
+    public static <T> T convert(Object value, Class<T> clazz) throws IOException {
+        if ( value == null ) {
+            return null;
+        }
+        if ( clazz.isInstance(value)) {
+            return clazz.cast(value);
+        }
+        ObjectMapper mapper = ObjectMapperFactory.get();
+        TokenBuffer buffer = new TokenBuffer(mapper, false);
+        mapper.writeValue(buffer, value);
+        try (JsonParser parser = buffer.asParser()) {
+            return reader(clazz).readValue(parser);
+        }
+    }
+    /**
+     * Obtain the cached reader for the class
+     * @param clazz
+     * @return
+     */
+    public static ObjectReader reader(Class<?> clazz) {
+        ObjectReader reader = readers.get(clazz);
+        if ( reader == null ) {
+            reader = readers.computeIfAbsent(clazz, c -> ObjectMapperFactory.get().readerFor(c));
+        }
+        return reader;
     }
 
 }
@@ -0,0 +1,186 @@
+package eu.imaintenance.toolset.util.json;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.IdString;
+/**
+ * Helper class extracting the header information of a serialized observation without
+ * deserializing the entire observation. Only the tokens up to the datastream's
+ * <code>@iot.id</code> are read, the remaining payload is skipped.
+ * <p>
+ * Instances are mutable and meant to be reused by a single thread, numeric id's are kept
+ * as primitive <code>long</code>, see {@link #forThread()}. Jackson parsers cannot be reset 
+ * to a new input, so each read creates a (small) parser. The parser's buffers and the field 
+ * names are recycled by the shared factory, see {@link #PARSERS}.
+ * </p>
+ * @author dglachs
+ *
+ */
+public final class ObservationHeader {
+    public static final String DATASTREAM = "Datastream";
+    public static final String IOT_ID = "@iot.id";
+
+    /**
+     * The factory of the SensorThings object mapper, resolved once. The parsers created per
+     * payload share the factory's field name table and recycled buffers.
+     */
+    static final JsonFactory PARSERS = ObjectMapperFactory.get().getFactory();
+
+    private static final ThreadLocal<ObservationHeader> HEADER = ThreadLocal.withInitial(ObservationHeader::new);
+
+    private boolean numeric;
+    private long numericId;
+    private String stringId;
+
+    /**
+     * Obtain the header instance of the current thread
+     * @return
+     */
+    public static ObservationHeader forThread() {
+        return HEADER.get();
+    }
+    /**
+     * Read the id of the observation's datastream
+     * @param payload The serialized observation
+     * @return The id of the datastream or <code>null</code> when the payload does not reference a datastream
+     * @throws IOException When the payload is not a valid JSON object
+     */
+    public static Id readDatastreamId(String payload) throws IOException {
+        ObservationHeader header = forThread();
+        if ( header.read(payload)) {
+            return header.getId();
+        }
+        return null;
+    }
+    /**
+     * Read the header of the payload
+     * @param payload The serialized observation
+     * @return <code>true</code> when the payload references a datastream
+     * @throws IOException When the payload is not a valid JSON object
+     */
+    public boolean read(String payload) throws IOException {
+        return read(PARSERS.createParser(payload));
+    }
+    /**
+     * Read the header of the payload, see {@link #read(String)}
+     * @param payload The serialized observation (UTF-8)
+     * @return <code>true</code> when the payload references a datastream
+     * @throws IOException When the payload is not a valid JSON object
+     */
+    public boolean read(byte[] payload) throws IOException {
+        return read(PARSERS.createParser(payload));
+    }
+    /**
+     * Set a numeric datastream id, e.g. when read by a binary codec
+     * @param id
+     */
+    public void setId(long id) {
+        numeric = true;
+        numericId = id;
+        stringId = null;
+    }
+    /**
+     * Set a non numeric datastream id
+     * @param id
+     */
+    public void setId(String id) {
+        numeric = false;
+        stringId = id;
+    }
+    private boolean read(JsonParser source) throws IOException {
+        numeric = false;
+        stringId = null;
+        try (JsonParser parser = source) {
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                return false;
+            }
+            while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ( DATASTREAM.equals(field) && value == JsonToken.START_OBJECT) {
+                    return readId(parser);
+                }
+                // skip objects and arrays of other fields
+                parser.skipChildren();
+            }
+            return false;
+        }
+    }
+    /**
+     * @return <code>true</code> when the datastream id is numeric, see {@link #getNumericId()}
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+    /**
+     * @return The numeric datastream id, only valid when {@link #isNumeric()}
+     */
+    public long getNumericId() {
+        return numericId;
+    }
+    /**
+     * @return The non numeric datastream id, only valid when not {@link #isNumeric()}
+     */
+    public String getStringId() {
+        return stringId;
+    }
+    /**
+     * Copy the values of another header
+     * @param other
+     */
+    public void copyFrom(ObservationHeader other) {
+        this.numeric = other.numeric;
+        this.numericId = other.numericId;
+        this.stringId = other.stringId;
+    }
+    /**
+     * @return A hash of the datastream id, e.g. for distributing the datastreams among workers
+     */
+    public int hash() {
+        if ( numeric ) {
+            long h = numericId * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+        return stringId != null ? stringId.hashCode() : 0;
+    }
+    /**
+     * Create the {@link Id} object for the datastream id
+     * @return
+     */
+    public Id getId() {
+        return numeric ? new IdLong(numericId) : new IdString(stringId);
+    }
+    /**
+     * Read the <code>@iot.id</code> of the current object
+     * @param parser The parser, positioned at the start of the object
+     * @return
+     * @throws IOException
+     */
+    private boolean readId(JsonParser parser) throws IOException {
+        while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ( IOT_ID.equals(field)) {
+                if ( value == JsonToken.VALUE_NUMBER_INT ) {
+                    numeric = true;
+                    numericId = parser.getLongValue();
+                    return true;
+                }
+                if ( value == JsonToken.VALUE_STRING ) {
+                    stringId = parser.getText();
+                    return true;
+                }
+                return false;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+}
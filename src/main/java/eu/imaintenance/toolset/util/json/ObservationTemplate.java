@@ -0,0 +1,515 @@
+package eu.imaintenance.toolset.util.json;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.threeten.extra.Interval;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.observation.ObservationType;
+/**
+ * Byte template for serialized observations of a single datastream. The invariant parts
+ * of the JSON document (e.g. the datastream reference) are precomputed, the phenomenon
+ * time, the result and the valid time are written straight into a reusable buffer.
+ * <p>
+ * The template is derived from the output of the SensorThings {@link ObjectMapperFactory}:
+ * prototype observations are serialized with the mapper and the template is only used when
+ * it reproduces the mapper's output byte by byte for all prototypes, see
+ * {@link #create(Datastream, ZoneId)}.
+ * </p>
+ * <p>
+ * Instances are not thread safe. The array returned by the render methods is reused by
+ * subsequent calls, it must be handed over (e.g. to the Kafka producer, which copies the
+ * value into it's record accumulator) before the template is used again.
+ * </p>
+ * @author dglachs
+ *
+ */
+public final class ObservationTemplate {
+    private static final Logger logger = LoggerFactory.getLogger(ObservationTemplate.class);
+    /**
+     * Duration of the valid time, starting with the time of sending
+     */
+    public static final Duration VALIDITY = Duration.ofSeconds(30);
+    /**
+     * Maximum length of a rendered observation
+     */
+    private static final int MAX_LENGTH = 2048;
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Position of the time zone offset in the rendered time stamp
+     */
+    private enum OffsetStyle {
+        /** time converted to UTC, rendered with <code>Z</code> */
+        UTC,
+        /** local time with the zone's offset, <code>Z</code> for zero offset */
+        OFFSET,
+        /** local time with offset and region id, as {@link ZonedDateTime#toString()} */
+        ZONED
+    }
+    /**
+     * Rendering of the seconds and the fraction of the second
+     */
+    private enum FractionStyle {
+        /** seconds always, fraction with the minimal number of digits (ISO formatter) */
+        MINIMAL,
+        /** seconds always, fraction in groups of three digits (ISO instant) */
+        GROUPED,
+        /** seconds omitted when zero, fraction in groups of three digits (toString) */
+        GROUPED_OPTIONAL_SECONDS
+    }
+    private static final class TimeStyle {
+        final OffsetStyle offset;
+        final FractionStyle fraction;
+        TimeStyle(OffsetStyle offset, FractionStyle fraction) {
+            this.offset = offset;
+            this.fraction = fraction;
+        }
+    }
+    private enum Field {
+        PHENOMENON_TIME,
+        RESULT,
+        VALID_TIME
+    }
+    private final ObservationType type;
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private final byte[] zoneSuffix;
+    /**
+     * Constant parts of the document, one more than there are fields
+     */
+    private final byte[][] segments;
+    private final Field[] fields;
+    private final TimeStyle phenomenonStyle;
+    private final TimeStyle validStyle;
+    /**
+     * Buffer the observations are rendered into
+     */
+    private final byte[] buffer = new byte[MAX_LENGTH];
+    /**
+     * Arrays of exact length, reused per length
+     */
+    private final byte[][] exact = new byte[MAX_LENGTH + 1][];
+    /**
+     * Cached zone offset and the range of seconds it is valid for
+     */
+    private int cachedOffset;
+    private long offsetFrom = Long.MAX_VALUE;
+    private long offsetUntil = Long.MIN_VALUE;
+
+    private ObservationTemplate(ObservationType type, ZoneId zone, byte[][] segments, Field[] fields, TimeStyle phenomenonStyle, TimeStyle validStyle) {
+        this.type = type;
+        this.zone = zone;
+        this.rules = zone.getRules();
+        this.zoneSuffix = zone instanceof ZoneOffset ? new byte[0] : ("[" + zone.getId() + "]").getBytes(StandardCharsets.US_ASCII);
+        this.segments = segments;
+        this.fields = fields;
+        this.phenomenonStyle = phenomenonStyle;
+        this.validStyle = validStyle;
+    }
+    /**
+     * Create the template for the datastream. Templates are available for datastreams with
+     * {@link ObservationType#MEASUREMENT}, {@link ObservationType#COUNT_OBSERVATION} and
+     * {@link ObservationType#TRUTH_OBSERVATION}.
+     * @param stream The datastream
+     * @param zone The time zone of the phenomenon times
+     * @return The template or <code>null</code> when the template cannot reproduce the mapper's output
+     */
+    public static ObservationTemplate create(Datastream stream, ZoneId zone) {
+        ObservationType type = ObservationType.fromString(stream.getObservationType());
+        if ( type != ObservationType.MEASUREMENT && type != ObservationType.COUNT_OBSERVATION && type != ObservationType.TRUTH_OBSERVATION) {
+            return null;
+        }
+        try {
+            return derive(stream, type, zone);
+        } catch (JsonProcessingException | RuntimeException e) {
+            logger.debug("No template for datastream {}: {}", stream.getId(), e.getLocalizedMessage());
+            return null;
+        }
+    }
+    /**
+     * Render the observation
+     * @param phenomenonSecond The phenomenon time, seconds since the epoch
+     * @param phenomenonNano The nanoseconds of the phenomenon time
+     * @param value The result, must match the datastream's type
+     * @param validSecond The start of the valid time, seconds since the epoch
+     * @param validNano The nanoseconds of the valid time
+     * @return The rendered observation or <code>null</code> when the value cannot be rendered
+     */
+    public byte[] render(long phenomenonSecond, int phenomenonNano, Object value, long validSecond, int validNano) {
+        switch (type) {
+        case MEASUREMENT:
+            if ( value instanceof Double ) {
+                return render(phenomenonSecond, phenomenonNano, ((Double) value).doubleValue(), validSecond, validNano);
+            }
+            return null;
+        case COUNT_OBSERVATION:
+            if ( value instanceof Integer ) {
+                return render(phenomenonSecond, phenomenonNano, ((Integer) value).longValue(), validSecond, validNano);
+            }
+            return null;
+        case TRUTH_OBSERVATION:
+            if ( value instanceof Boolean ) {
+                return render(phenomenonSecond, phenomenonNano, ((Boolean) value).booleanValue(), validSecond, validNano);
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+    /**
+     * Render a measurement, see {@link #render(long, int, Object, long, int)}
+     */
+    public byte[] render(long phenomenonSecond, int phenomenonNano, double value, long validSecond, int validNano) {
+        if ( type != ObservationType.MEASUREMENT || Double.isNaN(value) || Double.isInfinite(value)) {
+            return null;
+        }
+        // same representation as the JSON generator
+        String text = Double.toString(value);
+        int pos = 0;
+        for (int i = 0; i < fields.length; i++) {
+            pos = put(segments[i], pos);
+            switch (fields[i]) {
+            case PHENOMENON_TIME:
+                pos = writeTime(pos, phenomenonSecond, phenomenonNano, phenomenonStyle);
+                break;
+            case VALID_TIME:
+                pos = writeInterval(pos, validSecond, validNano);
+                break;
+            default:
+                for (int c = 0; c < text.length(); c++) {
+                    buffer[pos++] = (byte) text.charAt(c);
+                }
+            }
+        }
+        return finish(put(segments[fields.length], pos));
+    }
+    /**
+     * Render a count, see {@link #render(long, int, Object, long, int)}
+     */
+    public byte[] render(long phenomenonSecond, int phenomenonNano, long value, long validSecond, int validNano) {
+        if ( type != ObservationType.COUNT_OBSERVATION ) {
+            return null;
+        }
+        int pos = 0;
+        for (int i = 0; i < fields.length; i++) {
+            pos = put(segments[i], pos);
+            switch (fields[i]) {
+            case PHENOMENON_TIME:
+                pos = writeTime(pos, phenomenonSecond, phenomenonNano, phenomenonStyle);
+                break;
+            case VALID_TIME:
+                pos = writeInterval(pos, validSecond, validNano);
+                break;
+            default:
+                pos = writeLong(pos, value);
+            }
+        }
+        return finish(put(segments[fields.length], pos));
+    }
+    /**
+     * Render a truth value, see {@link #render(long, int, Object, long, int)}
+     */
+    public byte[] render(long phenomenonSecond, int phenomenonNano, boolean value, long validSecond, int validNano) {
+        if ( type != ObservationType.TRUTH_OBSERVATION ) {
+            return null;
+        }
+        int pos = 0;
+        for (int i = 0; i < fields.length; i++) {
+            pos = put(segments[i], pos);
+            switch (fields[i]) {
+            case PHENOMENON_TIME:
+                pos = writeTime(pos, phenomenonSecond, phenomenonNano, phenomenonStyle);
+                break;
+            case VALID_TIME:
+                pos = writeInterval(pos, validSecond, validNano);
+                break;
+            default:
+                pos = put(value ? TRUE : FALSE, pos);
+            }
+        }
+        return finish(put(segments[fields.length], pos));
+    }
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    private byte[] finish(int length) {
+        byte[] result = exact[length];
+        if ( result == null ) {
+            result = new byte[length];
+            exact[length] = result;
+        }
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+    private int put(byte[] bytes, int pos) {
+        System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+        return pos + bytes.length;
+    }
+    private int writeInterval(int pos, long second, int nano) {
+        pos = writeTime(pos, second, nano, validStyle);
+        buffer[pos++] = '/';
+        return writeTime(pos, second + VALIDITY.getSeconds(), nano, validStyle);
+    }
+    private int writeLong(int pos, long value) {
+        if ( value == Long.MIN_VALUE ) {
+            return put(Long.toString(value).getBytes(StandardCharsets.US_ASCII), pos);
+        }
+        if ( value < 0 ) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+    private int writeTime(int pos, long epochSecond, int nano, TimeStyle style) {
+        int offset = style.offset == OffsetStyle.UTC ? 0 : offset(epochSecond);
+        long local = epochSecond + offset;
+        long epochDay = Math.floorDiv(local, 86400);
+        int secondOfDay = (int) Math.floorMod(local, 86400);
+        // civil date from days since the epoch
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        pos = digits(pos, (int) year, 4);
+        buffer[pos++] = '-';
+        pos = digits(pos, month, 2);
+        buffer[pos++] = '-';
+        pos = digits(pos, day, 2);
+        buffer[pos++] = 'T';
+        pos = digits(pos, secondOfDay / 3600, 2);
+        buffer[pos++] = ':';
+        pos = digits(pos, (secondOfDay / 60) % 60, 2);
+        int second = secondOfDay % 60;
+        if ( style.fraction != FractionStyle.GROUPED_OPTIONAL_SECONDS || second > 0 || nano > 0) {
+            buffer[pos++] = ':';
+            pos = digits(pos, second, 2);
+        }
+        if ( nano > 0 ) {
+            buffer[pos++] = '.';
+            if ( style.fraction == FractionStyle.MINIMAL ) {
+                int count = 9;
+                int n = nano;
+                while ( n % 10 == 0 ) {
+                    n /= 10;
+                    count--;
+                }
+                pos = digits(pos, n, count);
+            }
+            else if ( nano % 1000_000 == 0 ) {
+                pos = digits(pos, nano / 1000_000, 3);
+            }
+            else if ( nano % 1000 == 0 ) {
+                pos = digits(pos, nano / 1000, 6);
+            }
+            else {
+                pos = digits(pos, nano, 9);
+            }
+        }
+        if ( style.offset == OffsetStyle.UTC || offset == 0 ) {
+            buffer[pos++] = 'Z';
+        }
+        else {
+            int abs = Math.abs(offset);
+            buffer[pos++] = (byte) (offset < 0 ? '-' : '+');
+            pos = digits(pos, abs / 3600, 2);
+            buffer[pos++] = ':';
+            pos = digits(pos, (abs / 60) % 60, 2);
+            if ( abs % 60 != 0 ) {
+                buffer[pos++] = ':';
+                pos = digits(pos, abs % 60, 2);
+            }
+        }
+        if ( style.offset == OffsetStyle.ZONED ) {
+            pos = put(zoneSuffix, pos);
+        }
+        return pos;
+    }
+    private int digits(int pos, int value, int count) {
+        for (int i = pos + count - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + count;
+    }
+    /**
+     * Obtain the zone offset, the offset is cached until the next transition of the zone
+     * @param epochSecond
+     * @return The offset in seconds
+     */
+    private int offset(long epochSecond) {
+        if ( epochSecond >= offsetFrom && epochSecond < offsetUntil ) {
+            return cachedOffset;
+        }
+        Instant instant = Instant.ofEpochSecond(epochSecond);
+        cachedOffset = rules.getOffset(instant).getTotalSeconds();
+        ZoneOffsetTransition previous = rules.previousTransition(instant);
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        offsetFrom = previous != null ? previous.toEpochSecond() : Long.MIN_VALUE;
+        offsetUntil = next != null ? next.toEpochSecond() : Long.MAX_VALUE;
+        return cachedOffset;
+    }
+    /**
+     * Derive the template: the prototype observations are serialized with the mapper, the
+     * positions of the variable fields are determined with the first prototype, the
+     * remaining prototypes verify the candidate styles.
+     */
+    private static ObservationTemplate derive(Datastream stream, ObservationType type, ZoneId zone) throws JsonProcessingException {
+        Prototype[] prototypes = Prototype.forType(type);
+        Prototype first = prototypes[0];
+        String json = serialize(stream, first, zone);
+        List<TimeStyle> styles = new ArrayList<TimeStyle>();
+        for (OffsetStyle o : OffsetStyle.values()) {
+            for (FractionStyle f : FractionStyle.values()) {
+                styles.add(new TimeStyle(o, f));
+            }
+        }
+        String result = first.resultText();
+        for (TimeStyle phenomenonStyle : styles) {
+            for (TimeStyle validStyle : styles) {
+                ObservationTemplate template = layout(json, result, stream, type, zone, first, phenomenonStyle, validStyle);
+                if ( template != null && template.verify(stream, prototypes)) {
+                    return template;
+                }
+            }
+        }
+        logger.debug("No template for datastream {}, the serialized observation is not supported: {}", stream.getId(), json);
+        return null;
+    }
+    /**
+     * Split the serialized prototype at the rendered fields
+     * @return The template or <code>null</code> when a field is not found exactly once
+     */
+    private static ObservationTemplate layout(String json, String result, Datastream stream, ObservationType type, ZoneId zone, Prototype prototype, TimeStyle phenomenonStyle, TimeStyle validStyle) {
+        // render the time fields with a scratch template
+        ObservationTemplate scratch = new ObservationTemplate(type, zone, new byte[][] {new byte[0]}, new Field[0], phenomenonStyle, validStyle);
+        String phenomenon = new String(scratch.buffer, 0, scratch.writeTime(0, prototype.phenomenon.getEpochSecond(), prototype.phenomenon.getNano(), phenomenonStyle), StandardCharsets.US_ASCII);
+        String valid = new String(scratch.buffer, 0, scratch.writeInterval(0, prototype.valid.getEpochSecond(), prototype.valid.getNano()), StandardCharsets.US_ASCII);
+        int[] positions = new int[] { unique(json, phenomenon), unique(json, result), unique(json, valid) };
+        int[] lengths = new int[] { phenomenon.length(), result.length(), valid.length() };
+        Field[] order = new Field[] { Field.PHENOMENON_TIME, Field.RESULT, Field.VALID_TIME };
+        for (int p : positions) {
+            if ( p < 0 ) {
+                return null;
+            }
+        }
+        // sort the fields by their position
+        Integer[] index = new Integer[] { 0, 1, 2 };
+        Arrays.sort(index, (a, b) -> Integer.compare(positions[a], positions[b]));
+        byte[][] segments = new byte[4][];
+        Field[] fields = new Field[3];
+        int start = 0;
+        for (int i = 0; i < 3; i++) {
+            int f = index[i];
+            if ( positions[f] < start ) {
+                // overlapping fields
+                return null;
+            }
+            segments[i] = json.substring(start, positions[f]).getBytes(StandardCharsets.UTF_8);
+            fields[i] = order[f];
+            start = positions[f] + lengths[f];
+        }
+        segments[3] = json.substring(start).getBytes(StandardCharsets.UTF_8);
+        return new ObservationTemplate(type, zone, segments, fields, phenomenonStyle, validStyle);
+    }
+    private boolean verify(Datastream stream, Prototype[] prototypes) throws JsonProcessingException {
+        for (Prototype prototype : prototypes) {
+            byte[] expected = ObjectMapperFactory.get().writeValueAsBytes(observation(stream, prototype, zone));
+            byte[] rendered = render(prototype.phenomenon.getEpochSecond(), prototype.phenomenon.getNano(), prototype.result,
+                    prototype.valid.getEpochSecond(), prototype.valid.getNano());
+            if ( rendered == null || !Arrays.equals(expected, rendered)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    private static int unique(String json, String text) {
+        int first = json.indexOf(text);
+        if ( first < 0 || first != json.lastIndexOf(text)) {
+            return -1;
+        }
+        return first;
+    }
+    private static String serialize(Datastream stream, Prototype prototype, ZoneId zone) throws JsonProcessingException {
+        return new String(ObjectMapperFactory.get().writeValueAsBytes(observation(stream, prototype, zone)), StandardCharsets.UTF_8);
+    }
+    /**
+     * Create the observation as done by the sender
+     */
+    private static Observation observation(Datastream stream, Prototype prototype, ZoneId zone) {
+        Observation observation = new Observation();
+        observation.setDatastream(stream.withOnlyId());
+        observation.setPhenomenonTimeFrom(ZonedDateTime.ofInstant(prototype.phenomenon, zone));
+        observation.setResult(prototype.result);
+        observation.setValidTime(Interval.of(prototype.valid, VALIDITY));
+        return observation;
+    }
+    /**
+     * Prototype values, chosen to distinguish the supported time styles
+     */
+    private static final class Prototype {
+        final Instant phenomenon;
+        final Object result;
+        final Instant valid;
+
+        Prototype(String phenomenon, Object result, String valid) {
+            this.phenomenon = LocalDateTime.parse(phenomenon).toInstant(ZoneOffset.UTC);
+            this.result = result;
+            this.valid = LocalDateTime.parse(valid).toInstant(ZoneOffset.UTC);
+        }
+        String resultText() {
+            return String.valueOf(result);
+        }
+        static Prototype[] forType(ObservationType type) {
+            Object[] results;
+            switch (type) {
+            case MEASUREMENT:
+                results = new Object[] { 12345.678d, -0.5d, 1.0E10d };
+                break;
+            case COUNT_OBSERVATION:
+                results = new Object[] { 1234567, -42, 0 };
+                break;
+            default:
+                results = new Object[] { true, false, true };
+            }
+            return new Prototype[] {
+                new Prototype("2001-02-03T04:05:06.789", results[0], "2002-03-04T05:06:07.891"),
+                new Prototype("2019-12-31T23:59:59.500", results[1], "2020-02-29T12:00:00.000500"),
+                new Prototype("1999-07-01T00:00:00", results[2], "2010-01-01T00:00:00"),
+            };
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package eu.imaintenance.toolset.util.json;
+
+import java.io.IOException;
+import java.time.format.DateTimeParseException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reader extracting the datastream id, the phenomenon time and a primitive result from a
+ * serialized observation. The values are read straight from the token stream and kept
+ * in primitive fields, no {@link de.fraunhofer.iosb.ilt.sta.model.Observation} is created.
+ * <p>
+ * Instances are mutable and meant to be reused by a single thread, see {@link #forThread()}.
+ * Like with {@link ObservationHeader}, each read creates a parser from the shared factory.
+ * </p>
+ * @author dglachs
+ *
+ */
+public final class PrimitiveObservation {
+    private static final String PHENOMENON_TIME = "phenomenonTime";
+    private static final String RESULT = "result";
+
+    private static final ThreadLocal<PrimitiveObservation> READER = ThreadLocal.withInitial(PrimitiveObservation::new);
+    /**
+     * The kind of result found in the payload
+     */
+    public enum ResultKind {
+        NONE,
+        INTEGER,
+        DECIMAL,
+        BOOLEAN
+    }
+    private long datastreamId;
+    private long phenomenonTime;
+    private ResultKind kind;
+    private long longValue;
+    private double doubleValue;
+    private boolean booleanValue;
+    /**
+     * Obtain the reader instance of the current thread
+     * @return
+     */
+    public static PrimitiveObservation forThread() {
+        return READER.get();
+    }
+    /**
+     * Read the payload
+     * @param payload The serialized observation
+     * @return <code>true</code> when the payload provides a numeric datastream id and a primitive result
+     * @throws IOException When the payload is not a valid JSON object or the phenomenon time is invalid
+     */
+    public boolean read(String payload) throws IOException {
+        return read(ObservationHeader.PARSERS.createParser(payload));
+    }
+    /**
+     * Read the payload, see {@link #read(String)}
+     * @param payload The serialized observation (UTF-8)
+     * @return <code>true</code> when the payload provides a numeric datastream id and a primitive result
+     * @throws IOException When the payload is not a valid JSON object or the phenomenon time is invalid
+     */
+    public boolean read(byte[] payload) throws IOException {
+        return read(ObservationHeader.PARSERS.createParser(payload));
+    }
+    /**
+     * Set the values, e.g. when read by a binary codec. The result is reset and must
+     * be provided with {@link #setDouble(double)}, {@link #setLong(long)} or {@link #setBoolean(boolean)}.
+     * @param datastreamId The numeric datastream id
+     * @param phenomenonTime The phenomenon time in nanoseconds since the epoch
+     */
+    public void set(long datastreamId, long phenomenonTime) {
+        this.datastreamId = datastreamId;
+        this.phenomenonTime = phenomenonTime;
+        this.kind = ResultKind.NONE;
+    }
+    public void setDouble(double value) {
+        kind = ResultKind.DECIMAL;
+        doubleValue = value;
+    }
+    public void setLong(long value) {
+        kind = ResultKind.INTEGER;
+        longValue = value;
+    }
+    public void setBoolean(boolean value) {
+        kind = ResultKind.BOOLEAN;
+        booleanValue = value;
+    }
+    private boolean read(JsonParser source) throws IOException {
+        datastreamId = Long.MIN_VALUE;
+        phenomenonTime = 0;
+        kind = ResultKind.NONE;
+        try (JsonParser parser = source) {
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                return false;
+            }
+            while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ( PHENOMENON_TIME.equals(field) && value == JsonToken.VALUE_STRING ) {
+                    try {
+                        phenomenonTime = IsoTime.parseEpochNanos(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                    } catch (DateTimeParseException e) {
+                        throw new IOException(String.format("Invalid phenomenon time: %s", e.getParsedString()), e);
+                    }
+                }
+                else if ( RESULT.equals(field)) {
+                    readResult(parser, value);
+                }
+                else if ( ObservationHeader.DATASTREAM.equals(field) && value == JsonToken.START_OBJECT ) {
+                    readId(parser);
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return datastreamId != Long.MIN_VALUE && kind != ResultKind.NONE;
+    }
+    public long getDatastreamId() {
+        return datastreamId;
+    }
+    /**
+     * @return The phenomenon time (start of the interval) in nanoseconds since the epoch
+     */
+    public long getPhenomenonTime() {
+        return phenomenonTime;
+    }
+    public ResultKind getKind() {
+        return kind;
+    }
+    /**
+     * @return The result as <code>double</code>, booleans are reported as <code>1</code> or <code>0</code>
+     */
+    public double getDouble() {
+        switch (kind) {
+        case INTEGER:
+            return longValue;
+        case BOOLEAN:
+            return booleanValue ? 1 : 0;
+        default:
+            return doubleValue;
+        }
+    }
+    /**
+     * @return The result as <code>long</code>, decimals are truncated
+     */
+    public long getLong() {
+        switch (kind) {
+        case DECIMAL:
+            return (long) doubleValue;
+        case BOOLEAN:
+            return booleanValue ? 1 : 0;
+        default:
+            return longValue;
+        }
+    }
+    /**
+     * @return The result as <code>boolean</code>, numbers are <code>true</code> when equal to 1
+     */
+    public boolean getBoolean() {
+        switch (kind) {
+        case INTEGER:
+            return longValue == 1;
+        case DECIMAL:
+            return doubleValue == 1;
+        default:
+            return booleanValue;
+        }
+    }
+
+    private void readResult(JsonParser parser, JsonToken value) throws IOException {
+        switch (value) {
+        case VALUE_NUMBER_INT:
+            kind = ResultKind.INTEGER;
+            longValue = parser.getLongValue();
+            break;
+        case VALUE_NUMBER_FLOAT:
+            kind = ResultKind.DECIMAL;
+            doubleValue = parser.getDoubleValue();
+            break;
+        case VALUE_TRUE:
+        case VALUE_FALSE:
+            kind = ResultKind.BOOLEAN;
+            booleanValue = value == JsonToken.VALUE_TRUE;
+            break;
+        case VALUE_STRING:
+            // textual results, e.g. "12.5" or "true" - rare, parsed with the JDK
+            String text = parser.getText().trim();
+            if ( "true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) {
+                kind = ResultKind.BOOLEAN;
+                booleanValue = Boolean.parseBoolean(text);
+            }
+            else {
+                try {
+                    doubleValue = Double.parseDouble(text);
+                    kind = ResultKind.DECIMAL;
+                } catch (NumberFormatException e) {
+                    kind = ResultKind.NONE;
+                }
+            }
+            break;
+        default:
+            kind = ResultKind.NONE;
+            parser.skipChildren();
+        }
+    }
+    private void readId(JsonParser parser) throws IOException {
+        while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ( ObservationHeader.IOT_ID.equals(field) && value == JsonToken.VALUE_NUMBER_INT ) {
+                datastreamId = parser.getLongValue();
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package eu.imaintenance.toolset.util.json;
 
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+/**
+ * Map of a complex result.
+ * @deprecated Use {@link JSON#convert(Object, Class)} to obtain the typed result, the
+ *             conversion does not produce JSON text.
+ * @author dglachs
+ *
+ */
+@Deprecated
 public class ResultHelper extends LinkedHashMap<Object, Object> {
     
     /**
@@ -29,51 +38,15 @@ public class ResultHelper extends LinkedHashMap<Object, Object> {
             }
         }
     }
+    /**
+     * @return The JSON representation of the map
+     */
+    @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("{");
-        Iterator<Object> keyIterator = keySet().iterator();
-        while ( keyIterator.hasNext() ) {
-            Object key = keyIterator.next();
-            builder.append(String.format("\"%s\"", key));
-            builder.append(":");
-            Object val = get(key);
-            if ( val instanceof String ) {
-                builder.append(String.format("\"%s\"", val));
-            }
-            else if ( val instanceof List ) {
-                @SuppressWarnings("unchecked")
-                Iterator<Object> listIterator = ((List)val).iterator();
-                builder.append("[");
-                while (listIterator.hasNext()) {
-                    Object lVal = listIterator.next();
-                    if ( lVal instanceof String) {
-                        builder.append(String.format("\"%s\"", lVal));
-                    }
-                    else if ( lVal instanceof Map) {
-                        builder.append(new ResultHelper(val).toString());
-                    }
-                    else {
-                        builder.append(lVal);
-                    }
-                    if (listIterator.hasNext()) {
-                        builder.append(",");
-                    }
-                    
-                }
-                builder.append("]");
-            }
-            else if (val instanceof Map) {
-                builder.append(new ResultHelper(val).toString());
-            }
-            else {
-                builder.append(val.toString());
-            }
-            if ( keyIterator.hasNext()) {
-                builder.append(",");
-            }
+        try {
+            return ObjectMapperFactory.get().writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e.getLocalizedMessage(), e);
         }
-        builder.append("}");
-        return builder.toString();
     }
 }
@@ -1,72 +1,311 @@
 package eu.imaintenance.toolset.util.kafka;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.common.errors.WakeupException;
-import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
-import eu.imaintenance.toolset.observation.ObservationProcessor;
-
+import eu.imaintenance.toolset.observation.ObservationDispatcher;
+import eu.imaintenance.toolset.util.codec.ObservationCodecs;
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.Transport;
+import eu.imaintenance.toolset.util.transport.TransportConsumer;
+/**
+ * Member of the consumer group feeding the {@link ObservationDispatcher}, polls the records
+ * with the {@link TransportConsumer} of the {@link Transport}, Kafka by default.
+ * <p>
+ * The polling thread never waits for the workers. Records the dispatcher cannot take are 
+ * held back along with the subsequent records of their partition, the partition is paused
+ * and the records are handed over again after the next poll.
+ * </p>
+ * @author dglachs
+ *
+ */
 public class Consumer implements Runnable {
+    /**
+     * Maximum time in milliseconds a poll waits for records, the dispatcher is notified 
+     * at the end of each poll even when no records are available.
+     */
+    private static final long POLL_TIMEOUT = 100;
+    /**
+     * Default number of unprocessed records per partition, which causes the partition to be paused
+     */
+    public static final int DEFAULT_HIGH_WATER_MARK = 5000;
+    /**
+     * Default number of unprocessed records per partition, which causes a paused partition to be resumed
+     */
+    public static final int DEFAULT_LOW_WATER_MARK = 1000;
     private Logger logger = LoggerFactory.getLogger(Consumer.class);
-    private final KafkaConsumer<String, String> consumer;
-    private final String host;
+    private final Transport transport;
+    private final String groupId;
     private final List<String> topics;
-    private final ObservationProcessor processor;
+    private final KafkaProfile profile;
+    private final ObservationDispatcher processor;
+    /**
+     * The subscription, created by the polling thread
+     */
+    private volatile TransportConsumer consumer;
+    private volatile boolean shutdown;
+    /**
+     * Bookkeeping of the assigned partitions
+     */
+    private final Map<TopicPartition, PartitionState> partitions = new HashMap<TopicPartition, PartitionState>();
+    /**
+     * The state of the last record's partition, saves the lookup for consecutive records
+     */
+    private PartitionState current;
+    /**
+     * The records rejected by the dispatcher per partition, in order
+     */
+    private final Map<TopicPartition, ArrayDeque<HeldRecord>> held = new HashMap<TopicPartition, ArrayDeque<HeldRecord>>();
+    private int highWaterMark = DEFAULT_HIGH_WATER_MARK;
+    private int lowWaterMark = DEFAULT_LOW_WATER_MARK;
+    /**
+     * Commit policy, see {@link #withCommitPolicy(CommitPolicy)}
+     */
+    private CommitPolicy commitPolicy = CommitPolicy.AUTO;
+    /**
+     * Records polled since the last commit and the time of the last commit
+     */
+    private int uncommitted;
+    private long lastCommit = System.currentTimeMillis();
     
 
-    public Consumer(int id, String groupId, List<String> hosts, List<String> topics, ObservationProcessor processor) {
+    public Consumer(int id, String groupId, List<String> hosts, List<String> topics, ObservationDispatcher processor) {
+        this(id, groupId, hosts, topics, processor, KafkaProfile.DEFAULT);
+    }
+    /**
+     * Create the Kafka consumer
+     * @param id The number of the consumer
+     * @param groupId The consumer group
+     * @param hosts The bootstrap hosts
+     * @param topics The topics to subscribe
+     * @param processor The dispatcher processing the records
+     * @param profile The profile providing the consumer settings (fetch sizes, records per poll)
+     */
+    public Consumer(int id, String groupId, List<String> hosts, List<String> topics, ObservationDispatcher processor, KafkaProfile profile) {
+        this(id, new KafkaTransport(hosts), groupId, topics, processor, profile);
+    }
+    /**
+     * Create the consumer
+     * @param id The number of the consumer
+     * @param transport The transport providing the records
+     * @param groupId The consumer group
+     * @param topics The topics to subscribe
+     * @param processor The dispatcher processing the records
+     * @param profile The profile providing the consumer settings (fetch sizes, records per poll)
+     */
+    public Consumer(int id, Transport transport, String groupId, List<String> topics, ObservationDispatcher processor, KafkaProfile profile) {
+        this.transport = transport;
+        this.groupId = groupId;
         this.topics = topics;
-        this.host = String.join(",", hosts);
         this.processor = processor;
-        Properties props = new Properties();
-        props.put("bootstrap.servers", this.host);
-        props.put("group.id", groupId);
-        props.put("key.deserializer", StringDeserializer.class.getName());
-        props.put("value.deserializer", StringDeserializer.class.getName());
-        this.consumer = new KafkaConsumer<>(props);
+        this.profile = profile;
+    }
+
+    /**
+     * Specify the backpressure limits. A partition is paused as soon as the number of records 
+     * handed over but not yet processed exceeds the high water mark, the partition is resumed
+     * when the number drops to the low water mark.
+     * @param highWaterMark
+     * @param lowWaterMark
+     * @return
+     */
+    public Consumer withBackpressure(int highWaterMark, int lowWaterMark) {
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = Math.min(lowWaterMark, highWaterMark);
+        return this;
+    }
+
+    /**
+     * Specify the commit policy, with {@link CommitPolicy#atLeastOnce(java.time.Duration, int)} the
+     * offsets are committed once the records are completed by the handlers
+     * @param commitPolicy
+     * @return
+     */
+    public Consumer withCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+        return this;
     }
 
     @Override
     public void run() {
+        consumer = transport.subscribe(groupId, topics, profile, commitPolicy, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> revoked) {
+                // hand over the processed records to the next owner
+                commit(revoked, true);
+                for (TopicPartition partition : revoked) {
+                    // the records held back are consumed again by the next owner
+                    held.remove(partition);
+                    partitions.remove(partition);
+                }
+                current = null;
+            }
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> assigned) {
+                // state is created with the first record
+            }
+        });
         try {
-            consumer.subscribe(topics);
-
-            while (true) {
-                ConsumerRecords<String, String> records = consumer.poll(Long.MAX_VALUE);
-                for (ConsumerRecord<String, String> record : records) {
-                    Map<String, Object> data = new HashMap<>();
-                    data.put("partition", record.partition());
-                    data.put("offset", record.offset());
-                    data.put("value", record.value());
-                    logger.trace(data.toString());
-                    
-                    try {
-                        processor.processKafkaMessage(record.topic(), record.key(), record.value());
-                    } catch (ServiceFailureException e) {
-                        logger.error(e.getLocalizedMessage(), e);
-                    } catch (Exception e) {
-                        logger.error(e.getLocalizedMessage(), e);
-                    }
+            // shutdown may have been requested before the subscription existed
+            while (! shutdown && consumer.poll(POLL_TIMEOUT, this::onRecord)) {
+                processor.endOfPoll();
+                handOverHeld();
+                applyBackpressure();
+                if ( commitPolicy.isManual() && 
+                        ( uncommitted >= commitPolicy.getMaxRecords() || System.currentTimeMillis() - lastCommit >= commitPolicy.getIntervalMillis())) {
+                    commit(partitions.keySet(), false);
                 }
             }
-        } catch (WakeupException e) {
-            // ignore for shutdown
+            commit(partitions.keySet(), true);
         } finally {
             consumer.close();
         }
     }
+    /**
+     * Commit the position of the partitions up to which all records are completed
+     * @param assigned The partitions to commit
+     * @param sync <code>true</code> to wait for the acknowledgement
+     */
+    private void commit(Collection<TopicPartition> assigned, boolean sync) {
+        if (! commitPolicy.isManual()) {
+            return;
+        }
+        Map<TopicPartition, Long> offsets = new HashMap<TopicPartition, Long>();
+        for (TopicPartition partition : assigned) {
+            PartitionState state = partitions.get(partition);
+            if ( state != null ) {
+                long position = state.committable();
+                if ( position > state.getCommitted()) {
+                    offsets.put(partition, position);
+                    state.setCommitted(position);
+                }
+            }
+        }
+        if (! offsets.isEmpty()) {
+            logger.debug("Committing {}", offsets);
+            consumer.commit(offsets, sync);
+        }
+        uncommitted = 0;
+        lastCommit = System.currentTimeMillis();
+    }
+    /**
+     * Hand the polled record over to the dispatcher
+     */
+    private void onRecord(TopicPartition partition, long offset, String key, byte[] value) {
+        PartitionState state = current;
+        if ( state == null || ! state.getPartition().equals(partition)) {
+            state = partitions.computeIfAbsent(partition, p -> new PartitionState(p, commitPolicy.isManual()));
+            current = state;
+        }
+        if ( logger.isTraceEnabled()) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("partition", partition.partition());
+            data.put("offset", offset);
+            data.put("value", ObservationCodecs.toString(value));
+            logger.trace(data.toString());
+        }
+        state.getMetrics().polled();
+        state.started(offset);
+        uncommitted++;
+        ArrayDeque<HeldRecord> waiting = held.get(partition);
+        if ( waiting != null ) {
+            // keep the order of the partition
+            waiting.addLast(new HeldRecord(offset, key, value));
+        }
+        else if (! handOver(state, offset, key, value)) {
+            waiting = new ArrayDeque<HeldRecord>();
+            waiting.addLast(new HeldRecord(offset, key, value));
+            held.put(partition, waiting);
+        }
+    }
+    /**
+     * Hand the record over to the dispatcher, a record failing before it is taken is completed
+     * @return <code>false</code> when the dispatcher cannot take the record
+     */
+    private boolean handOver(PartitionState state, long offset, String key, byte[] value) {
+        try {
+            return processor.processKafkaMessage(state.getPartition().topic(), key, value, state, offset);
+        } catch (ServiceFailureException | RuntimeException e) {
+            logger.error("Record {} of {} cannot be processed: {}", offset, state.getPartition(), e.getLocalizedMessage(), e);
+            state.getMetrics().parseFailed();
+            PartitionState.completed(state, offset);
+        }
+        return true;
+    }
+    /**
+     * Hand the held records over in order, up to the first record the dispatcher cannot take
+     */
+    private void handOverHeld() {
+        Iterator<Map.Entry<TopicPartition, ArrayDeque<HeldRecord>>> iterator = held.entrySet().iterator();
+        while ( iterator.hasNext()) {
+            Map.Entry<TopicPartition, ArrayDeque<HeldRecord>> entry = iterator.next();
+            PartitionState state = partitions.get(entry.getKey());
+            ArrayDeque<HeldRecord> waiting = entry.getValue();
+            HeldRecord record;
+            while ( state != null && (record = waiting.peekFirst()) != null ) {
+                if (! handOver(state, record.offset, record.key, record.value)) {
+                    break;
+                }
+                waiting.pollFirst();
+            }
+            if ( state == null || waiting.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Pause the partitions with too many unprocessed records or with records held back, 
+     * resume paused partitions once the records are processed. Paused partitions are still 
+     * polled, so the consumer stays in the group while the workers catch up.
+     */
+    private void applyBackpressure() {
+        for (PartitionState state : partitions.values()) {
+            int inFlight = state.getInFlight();
+            boolean holding = held.containsKey(state.getPartition());
+            if (! state.isPaused() && ( holding || inFlight >= highWaterMark )) {
+                logger.debug("Pausing {}, {} records in flight", state.getPartition(), inFlight);
+                consumer.pause(state.getPartition());
+                state.setPaused(true);
+            }
+            else if ( state.isPaused() && ! holding && inFlight <= lowWaterMark ) {
+                logger.debug("Resuming {}, {} records in flight", state.getPartition(), inFlight);
+                consumer.resume(state.getPartition());
+                state.setPaused(false);
+            }
+        }
+    }
+
+    /**
+     * Record rejected by the dispatcher, handed over again after the next poll
+     */
+    private static final class HeldRecord {
+        final long offset;
+        final String key;
+        final byte[] value;
+
+        HeldRecord(long offset, String key, byte[] value) {
+            this.offset = offset;
+            this.key = key;
+            this.value = value;
+        }
+    }
 
     public void shutdown() {
-        consumer.wakeup();
+        shutdown = true;
+        TransportConsumer subscription = consumer;
+        if ( subscription != null ) {
+            subscription.wakeup();
+        }
     }
 }
\ No newline at end of file
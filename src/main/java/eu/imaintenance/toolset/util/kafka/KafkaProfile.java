@@ -0,0 +1,88 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import java.util.Properties;
+/**
+ * Named sets of producer and consumer settings. Profiles are selected per {@link TopicRole}
+ * with <code>ToolsetClient.withProfile</code>, things may override the profile with the
+ * <code>profiles</code> entry of their <code>kafka</code> property, e.g.
+ * <pre>
+ * "kafka": {
+ *     "hosts": [ "broker:9092" ],
+ *     "topics": { "sensor": "telemetry", "alert": "alerts" },
+ *     "profiles": { "sensor": "THROUGHPUT", "alert": "LOW_LATENCY" }
+ * }
+ * </pre>
+ * Note: <code>max.poll.records</code> is honoured by Kafka clients 0.10 and newer, older
+ * clients ignore the setting.
+ * @author dglachs
+ *
+ */
+public enum KafkaProfile {
+    /**
+     * The settings used so far: acknowledged by all replicas, no retries, small batches
+     */
+    DEFAULT(
+        new String[] { "acks", "all", "retries", "0", "batch.size", "16384", "linger.ms", "1", "buffer.memory", "33554432" },
+        new String[] {}),
+    /**
+     * High rate telemetry: large compressed batches, leader acknowledgement, large fetches
+     */
+    THROUGHPUT(
+        new String[] { "acks", "1", "retries", "3", "batch.size", "262144", "linger.ms", "20", "compression.type", "lz4", "buffer.memory", "67108864" },
+        new String[] { "fetch.min.bytes", "65536", "fetch.max.wait.ms", "100", "max.partition.fetch.bytes", "4194304", "max.poll.records", "2000" }),
+    /**
+     * Latency sensitive messages (e.g. alerts): no lingering, no compression, small fetches
+     */
+    LOW_LATENCY(
+        new String[] { "acks", "1", "retries", "0", "batch.size", "16384", "linger.ms", "0", "compression.type", "none", "buffer.memory", "33554432" },
+        new String[] { "fetch.min.bytes", "1", "fetch.max.wait.ms", "10", "max.poll.records", "100" }),
+    /**
+     * No message loss: acknowledged by all replicas, retries without reordering
+     */
+    DURABLE(
+        new String[] { "acks", "all", "retries", "10", "max.in.flight.requests.per.connection", "1", "batch.size", "65536", "linger.ms", "5", "compression.type", "snappy", "buffer.memory", "33554432" },
+        new String[] { "fetch.min.bytes", "1", "max.poll.records", "500" });
+
+    private final String[] producer;
+    private final String[] consumer;
+
+    KafkaProfile(String[] producer, String[] consumer) {
+        this.producer = producer;
+        this.consumer = consumer;
+    }
+    /**
+     * Apply the producer settings
+     * @param properties The producer properties
+     * @return The properties
+     */
+    public Properties applyProducer(Properties properties) {
+        return apply(properties, producer);
+    }
+    /**
+     * Apply the consumer settings
+     * @param properties The consumer properties
+     * @return The properties
+     */
+    public Properties applyConsumer(Properties properties) {
+        return apply(properties, consumer);
+    }
+    /**
+     * Obtain the profile by it's name (case insensitive)
+     * @param name
+     * @return The profile or <code>null</code> when the name is not known
+     */
+    public static KafkaProfile fromString(String name) {
+        for (KafkaProfile profile : values()) {
+            if ( profile.name().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+    private static Properties apply(Properties properties, String[] settings) {
+        for (int i = 0; i < settings.length; i += 2) {
+            properties.put(settings[i], settings[i + 1]);
+        }
+        return properties;
+    }
+}
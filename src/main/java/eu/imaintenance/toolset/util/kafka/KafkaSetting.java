@@ -9,4 +9,14 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 public class KafkaSetting {
     public List<String> hosts;
     public Map<String, String> topics;
+    /**
+     * The codec used for sending observations, see {@link eu.imaintenance.toolset.util.codec.ObservationCodecs}.
+     * Defaults to JSON, received observations are decoded with the detected codec.
+     */
+    public String codec;
+    /**
+     * The {@link KafkaProfile} per topic role (e.g. <code>sensor</code>, <code>alert</code>), 
+     * overrides the profiles specified with the client
+     */
+    public Map<String, String> profiles;
 }
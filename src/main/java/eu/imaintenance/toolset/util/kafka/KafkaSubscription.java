@@ -0,0 +1,107 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.RecordHandler;
+import eu.imaintenance.toolset.util.transport.TransportConsumer;
+/**
+ * Kafka implementation of the {@link TransportConsumer}, wraps a {@link KafkaConsumer}
+ * @author dglachs
+ *
+ */
+final class KafkaSubscription implements TransportConsumer {
+    private final Logger logger = LoggerFactory.getLogger(KafkaSubscription.class);
+    private final KafkaConsumer<String, byte[]> consumer;
+
+    KafkaSubscription(String groupId, List<String> hosts, List<String> topics, KafkaProfile profile, CommitPolicy policy, ConsumerRebalanceListener listener) {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", String.join(",", hosts));
+        props.put("group.id", groupId);
+        profile.applyConsumer(props);
+        if ( policy.isManual()) {
+            // the processed records are committed by the consumer
+            props.put("enable.auto.commit", "false");
+        }
+        props.put("key.deserializer", StringDeserializer.class.getName());
+        // the payload is decoded by the codec detected per record, see ObservationCodecs
+        props.put("value.deserializer", ByteArrayDeserializer.class.getName());
+        this.consumer = new KafkaConsumer<>(props);
+        this.consumer.subscribe(topics, listener);
+    }
+
+    @Override
+    public boolean poll(long timeout, RecordHandler handler) {
+        ConsumerRecords<String, byte[]> records;
+        try {
+            records = consumer.poll(timeout);
+        } catch (WakeupException e) {
+            // shutdown
+            return false;
+        }
+        for (TopicPartition partition : records.partitions()) {
+            for (ConsumerRecord<String, byte[]> record : records.records(partition)) {
+                handler.onRecord(partition, record.offset(), record.key(), record.value());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void pause(TopicPartition partition) {
+        consumer.pause(partition);
+    }
+
+    @Override
+    public void resume(TopicPartition partition) {
+        consumer.resume(partition);
+    }
+
+    @Override
+    public void commit(Map<TopicPartition, Long> offsets, boolean sync) {
+        Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<TopicPartition, OffsetAndMetadata>();
+        for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+            commit.put(entry.getKey(), new OffsetAndMetadata(entry.getValue()));
+        }
+        if ( sync ) {
+            try {
+                consumer.commitSync(commit);
+            } catch (KafkaException e) {
+                // the records are redelivered to the next owner of the partitions
+                logger.warn("Commit of {} failed: {}", commit, e.getLocalizedMessage());
+            }
+            return;
+        }
+        consumer.commitAsync(commit, (committed, exception) -> {
+            if ( exception != null ) {
+                logger.warn("Commit of {} failed: {}", committed, exception.getLocalizedMessage());
+            }
+        });
+    }
+
+    @Override
+    public void wakeup() {
+        consumer.wakeup();
+    }
+
+    @Override
+    public void close() {
+        consumer.close();
+    }
+}
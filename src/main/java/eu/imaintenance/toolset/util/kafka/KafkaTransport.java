@@ -0,0 +1,85 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.Transport;
+import eu.imaintenance.toolset.util.transport.TransportConsumer;
+import eu.imaintenance.toolset.util.transport.TransportSender;
+/**
+ * {@link Transport} connected to a Kafka cluster
+ * @author dglachs
+ *
+ */
+public final class KafkaTransport implements Transport {
+    private final List<String> hosts;
+    /**
+     * Consumer obtaining the topic metadata, created on first use
+     */
+    private KafkaConsumer<byte[], byte[]> metadata;
+
+    /**
+     * Create the transport
+     * @param hosts The bootstrap hosts of the cluster
+     */
+    public KafkaTransport(List<String> hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * @return The name identifying the cluster by it's (sorted) hosts
+     */
+    @Override
+    public String getName() {
+        List<String> sorted = new ArrayList<String>(hosts);
+        Collections.sort(sorted);
+        return String.format("kafka:%s", String.join(",", sorted));
+    }
+
+    /**
+     * A broker belongs to a single cluster, transports sharing a bootstrap host reach the same
+     * cluster even when listing the brokers differently (Kafka 0.9 provides no cluster id)
+     */
+    @Override
+    public boolean isSameCluster(Transport other) {
+        if ( other instanceof KafkaTransport ) {
+            return ! Collections.disjoint(hosts, ((KafkaTransport) other).hosts);
+        }
+        return false;
+    }
+
+    @Override
+    public TransportConsumer subscribe(String groupId, List<String> topics, KafkaProfile profile, CommitPolicy policy, ConsumerRebalanceListener listener) {
+        return new KafkaSubscription(groupId, hosts, topics, profile, policy, listener);
+    }
+
+    @Override
+    public synchronized int partitions(String topic) {
+        if ( metadata == null ) {
+            Properties props = new Properties();
+            props.put("bootstrap.servers", String.join(",", hosts));
+            props.put("key.deserializer", ByteArrayDeserializer.class.getName());
+            props.put("value.deserializer", ByteArrayDeserializer.class.getName());
+            metadata = new KafkaConsumer<byte[], byte[]>(props);
+        }
+        List<PartitionInfo> partitions = metadata.partitionsFor(topic);
+        return partitions != null ? partitions.size() : 0;
+    }
+
+    @Override
+    public TransportSender sender(String name, String topic, String key, KafkaProfile profile) {
+        return new Sender(name, topic, key, hosts, profile);
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+}
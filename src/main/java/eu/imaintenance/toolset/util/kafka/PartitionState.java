@@ -0,0 +1,243 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.kafka.common.TopicPartition;
+
+import eu.imaintenance.toolset.util.metrics.Metrics;
+import eu.imaintenance.toolset.util.metrics.PipelineMetrics;
+/**
+ * Bookkeeping for a partition assigned to a {@link Consumer}. The consumer counts the 
+ * records handed over for processing, the processing side reports each record as 
+ * completed, regardless whether the record has been handled, skipped or failed.
+ * <p>
+ * For at-least-once processing the state tracks the position up to which all records are 
+ * completed, see {@link #committable()}. The offsets completed by the processing threads are
+ * marked in a ring indexed by offset, the consumer's thread keeps the started offsets in order 
+ * and advances over the completed ones. Offsets which cannot be tracked since the offsets in 
+ * flight span more than the ring (e.g. a stalled record) are counted in ranges instead, the 
+ * position advances over a range once all of it's records are completed. Tracking resumes 
+ * as soon as the tracked offsets are drained.
+ * </p>
+ * @author dglachs
+ *
+ */
+public final class PartitionState {
+    private final TopicPartition partition;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * The metrics of the partition's topic
+     */
+    private final PipelineMetrics metrics;
+    /**
+     * Paused by the consumer, only accessed by the consumer's thread
+     */
+    private boolean paused;
+    /**
+     * Number of offsets tracked for the committable position
+     */
+    private static final int WINDOW = 1 << 14;
+    private static final int MASK = WINDOW - 1;
+    /**
+     * The completed offsets indexed by offset, <code>null</code> when not tracked
+     */
+    private final AtomicLongArray done;
+    /**
+     * The started offsets in order, from head to tail, only accessed by the consumer's thread
+     */
+    private final long[] started;
+    private long head;
+    private long tail;
+    /**
+     * The ranges of offsets not tracked, in order. Only the last range is open for further 
+     * offsets, replaced by the consumer's thread and read by the processing threads
+     */
+    private volatile Untracked[] untracked = new Untracked[0];
+    /**
+     * The offset of the next record to consume, all records before are completed
+     */
+    private long position = -1;
+    /**
+     * The last committed position
+     */
+    private long committed = -1;
+
+    public PartitionState(TopicPartition partition) {
+        this(partition, false);
+    }
+    /**
+     * Create the state
+     * @param partition The partition
+     * @param tracking <code>true</code> to track the completed offsets, see {@link #committable()}
+     */
+    public PartitionState(TopicPartition partition, boolean tracking) {
+        this.partition = partition;
+        this.metrics = Metrics.topic(partition.topic());
+        if ( tracking ) {
+            done = new AtomicLongArray(WINDOW);
+            for (int i = 0; i < WINDOW; i++) {
+                done.set(i, -1);
+            }
+            started = new long[WINDOW];
+        }
+        else {
+            done = null;
+            started = null;
+        }
+    }
+    public TopicPartition getPartition() {
+        return partition;
+    }
+    /**
+     * @return The metrics of the partition's topic
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+    /**
+     * Record handed over for processing
+     * @param offset The offset of the record
+     */
+    public void started(long offset) {
+        inFlight.incrementAndGet();
+        if ( started == null ) {
+            return;
+        }
+        Untracked[] ranges = untracked;
+        Untracked open = ranges.length > 0 && ranges[ranges.length - 1].open ? ranges[ranges.length - 1] : null;
+        if ( open != null ) {
+            if ( head < tail ) {
+                // tracking resumes once the tracked offsets are drained
+                open.add(offset);
+                return;
+            }
+            open.open = false;
+        }
+        if ( tail - head == WINDOW || ( tail > head && offset - started[(int) (head & MASK)] >= WINDOW )) {
+            Untracked[] extended = new Untracked[ranges.length + 1];
+            System.arraycopy(ranges, 0, extended, 0, ranges.length);
+            extended[ranges.length] = new Untracked(offset);
+            untracked = extended;
+            return;
+        }
+        started[(int) (tail++ & MASK)] = offset;
+    }
+    /**
+     * Record processed
+     * @param offset The offset of the record
+     */
+    public void completed(long offset) {
+        if ( done != null ) {
+            Untracked range = untracked(offset);
+            if ( range != null ) {
+                range.pending.decrementAndGet();
+            }
+            else {
+                done.lazySet((int) (offset & MASK), offset);
+            }
+        }
+        inFlight.decrementAndGet();
+    }
+    /**
+     * Advance over the completed records, must be called by the consumer's thread
+     * @return The offset of the next record to consume, all records before are completed,
+     *         <code>-1</code> when no record is completed so far or the offsets are not tracked
+     */
+    public long committable() {
+        if ( started == null ) {
+            return -1;
+        }
+        while (true) {
+            Untracked[] ranges = untracked;
+            Untracked range = ranges.length > 0 ? ranges[0] : null;
+            if ( head < tail && ( range == null || started[(int) (head & MASK)] < range.from )) {
+                long offset = started[(int) (head & MASK)];
+                if ( done.get((int) (offset & MASK)) != offset ) {
+                    break;
+                }
+                head++;
+                position = offset + 1;
+            }
+            else if ( range != null && range.pending.get() == 0 ) {
+                position = range.to + 1;
+                if ( range.open ) {
+                    // further offsets may be added
+                    break;
+                }
+                Untracked[] remaining = new Untracked[ranges.length - 1];
+                System.arraycopy(ranges, 1, remaining, 0, remaining.length);
+                untracked = remaining;
+            }
+            else {
+                break;
+            }
+        }
+        return position;
+    }
+    /**
+     * Find the untracked range of the offset
+     * @param offset
+     * @return The range or <code>null</code> when the offset is tracked
+     */
+    private Untracked untracked(long offset) {
+        for (Untracked range : untracked) {
+            if ( offset >= range.from && offset <= range.to ) {
+                return range;
+            }
+        }
+        return null;
+    }
+    /**
+     * @return The last committed position, <code>-1</code> when not yet committed
+     */
+    public long getCommitted() {
+        return committed;
+    }
+    public void setCommitted(long committed) {
+        this.committed = committed;
+    }
+    /**
+     * @return The number of records handed over but not yet processed
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    boolean isPaused() {
+        return paused;
+    }
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+    /**
+     * Consecutive offsets not tracked, counting the records in flight
+     */
+    private static final class Untracked {
+        final long from;
+        volatile long to;
+        /**
+         * Offsets are added by the consumer's thread as long as the range is open
+         */
+        boolean open = true;
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        Untracked(long offset) {
+            this.from = offset;
+            this.to = offset;
+        }
+        void add(long offset) {
+            pending.incrementAndGet();
+            to = offset;
+        }
+    }
+    /**
+     * Report the record as completed, the partition is optional
+     * @param partition The partition or <code>null</code> when the record is not tracked
+     * @param offset The offset of the record
+     */
+    public static void completed(PartitionState partition, long offset) {
+        if ( partition != null ) {
+            partition.completed(offset);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Pool of {@link KafkaProducer}s shared among all {@link Sender}s. Senders with the same 
+ * bootstrap hosts and settings use the same producer, so that their records are batched
+ * in the same record accumulator and share the producer's buffer memory, I/O thread and 
+ * broker connections. The producers are reference counted and closed when the last 
+ * {@link Lease} is released.
+ * @author dglachs
+ *
+ */
+public final class ProducerPool {
+    private static final Logger logger = LoggerFactory.getLogger(ProducerPool.class);
+
+    private static final Map<String, Entry> producers = new HashMap<String, Entry>();
+
+    private static int created = 0;
+
+    private static final class Entry {
+        final KafkaProducer<?, ?> producer;
+        int references;
+        Entry(KafkaProducer<?, ?> producer) {
+            this.producer = producer;
+        }
+    }
+    /**
+     * Handle to a shared producer, must be released when no longer used
+     *
+     * @param <K>
+     * @param <V>
+     */
+    public static final class Lease<K, V> {
+        private final String key;
+        private final KafkaProducer<K, V> producer;
+        private boolean released;
+
+        private Lease(String key, KafkaProducer<K, V> producer) {
+            this.key = key;
+            this.producer = producer;
+        }
+        public KafkaProducer<K, V> producer() {
+            return producer;
+        }
+        /**
+         * Release the shared producer, the producer is closed when no longer used by any sender
+         */
+        public void release() {
+            synchronized (ProducerPool.class) {
+                if (! released ) {
+                    released = true;
+                    ProducerPool.release(key);
+                }
+            }
+        }
+        public boolean isReleased() {
+            return released;
+        }
+    }
+
+    private ProducerPool() {
+        // static pool
+    }
+    /**
+     * Obtain the producer for the given settings, the <code>client.id</code> is ignored 
+     * as the producer is shared among senders.
+     * @param settings The producer settings
+     * @return The lease for the shared producer
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <K, V> Lease<K, V> acquire(Properties settings) {
+        String key = key(settings);
+        Entry entry = producers.get(key);
+        if ( entry == null ) {
+            Properties properties = new Properties();
+            properties.putAll(settings);
+            properties.put("client.id", String.format("imaintenance-producer-%s", ++created));
+            entry = new Entry(new KafkaProducer<K, V>(properties));
+            producers.put(key, entry);
+            logger.debug("Created shared producer {} for {}", properties.get("client.id"), properties.get("bootstrap.servers"));
+        }
+        entry.references++;
+        return new Lease<K, V>(key, (KafkaProducer<K, V>) entry.producer);
+    }
+
+    private static synchronized void release(String key) {
+        Entry entry = producers.get(key);
+        if ( entry != null && --entry.references == 0 ) {
+            producers.remove(key);
+            entry.producer.close();
+        }
+    }
+    /**
+     * Create the key identifying the producer settings, the <code>client.id</code> is omitted
+     * @param settings
+     * @return
+     */
+    private static String key(Properties settings) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (String name : settings.stringPropertyNames()) {
+            if (! "client.id".equals(name)) {
+                sorted.put(name, settings.getProperty(name));
+            }
+        }
+        for (Object name : settings.keySet()) {
+            // non string values (e.g. numbers) are not covered by stringPropertyNames
+            if (! "client.id".equals(name) && ! sorted.containsKey(name.toString())) {
+                sorted.put(name.toString(), String.valueOf(settings.get(name)));
+            }
+        }
+        return sorted.toString();
+    }
+}
@@ -1,30 +1,56 @@
 package eu.imaintenance.toolset.util.kafka;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.ObjIntConsumer;
 
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import eu.imaintenance.toolset.api.Producer;
-
-public final class Sender {
+import eu.imaintenance.toolset.util.codec.ObservationCodecs;
+import eu.imaintenance.toolset.util.transport.TransportSender;
+/**
+ * Kafka implementation of the {@link TransportSender}, the records are sent with a 
+ * producer shared among the senders, see {@link ProducerPool}.
+ * @author dglachs
+ *
+ */
+public final class Sender implements TransportSender {
     Logger logger = LoggerFactory.getLogger(Producer.class);
     private final String topic;
     private final String key;
     private final Properties properties;
-    private KafkaProducer<String, String> producer;
+    /**
+     * The shared producer, see {@link ProducerPool}
+     */
+    private ProducerPool.Lease<String, byte[]> lease;
     private boolean closed = true;
     public Sender(String name, String topic, String key, List<String> hosts) {
+        this(name, topic, key, hosts, KafkaProfile.DEFAULT);
+    }
+    /**
+     * Create the sender
+     * @param name The name of the sender
+     * @param topic The topic to send to
+     * @param key The key of the messages, may be <code>null</code>
+     * @param hosts The bootstrap hosts
+     * @param profile The profile providing the producer settings (acks, batching, compression)
+     */
+    public Sender(String name, String topic, String key, List<String> hosts, KafkaProfile profile) {
         // create the id based on name and the data-stream-id
         // 
         this.topic = topic;
@@ -36,27 +62,16 @@ public final class Sender {
         properties.put("producer.type", "async");
         properties.put("bootstrap.servers", String.join(",", hosts));
         
-        properties.put("acks", "all");
-
-        // If the request fails, the producer can automatically retry,
-        properties.put("retries", 0);
-
-        // Specify buffer size in config
-        properties.put("batch.size", 16384);
-
-        // Reduce the no of requests less than 0
-        properties.put("linger.ms", 1);
-
-        // The buffer.memory controls the total amount of memory available to the
-        // producer for buffering.
-        properties.put("buffer.memory", 33554432);
+        // acknowledgement, retries, batching and compression
+        profile.applyProducer(properties);
 
         properties.put("key.serializer", StringSerializer.class.getName());
-        properties.put("value.serializer", StringSerializer.class.getName());
+        // observations are serialized by the sender (UTF-8), see ObservationTemplate
+        properties.put("value.serializer", ByteArraySerializer.class.getName());
         properties.put("key.deserializer", StringDeserializer.class.getName());
-        properties.put("value.deserializer", StringDeserializer.class.getName());
+        properties.put("value.deserializer", ByteArrayDeserializer.class.getName());
         
-        producer = new KafkaProducer<>(properties);
+        lease = ProducerPool.acquire(properties);
         closed = false;
     }
     
@@ -64,36 +79,90 @@ public final class Sender {
 
     
     public boolean sendObservation(Observation observation, Callback callback) {
-        if ( producer == null || closed ) {
-            producer = new KafkaProducer<String, String>(properties);
-            closed = false;
-        }
         try {
-            String json = ObjectMapperFactory.get().writeValueAsString(observation);
-            ProducerRecord<String, String> record = new ProducerRecord<String, String>(topic, key, json);
-            if ( callback != null ) {
-                producer.send(record, callback);
-            }
-            else {
-                producer.send(record);
-            }
-            return true;
+            return sendRecord(ObjectMapperFactory.get().writeValueAsBytes(observation), callback);
         } catch (JsonProcessingException e) {
             logger.error(e.getLocalizedMessage());
         }
         return false;
         
     }
+    /**
+     * Send an already serialized observation. The producer copies the value into it's record 
+     * accumulator before returning, so the array may be reused by the caller afterwards, 
+     * see {@link eu.imaintenance.toolset.util.json.ObservationTemplate}.
+     * @param value The serialized observation (UTF-8)
+     * @param callback The callback, may be <code>null</code>
+     * @return
+     */
+    @Override
+    public synchronized boolean sendRecord(byte[] value, Callback callback) {
+        send(producer(), value, callback);
+        return true;
+    }
+    /**
+     * Send already serialized observations, the records are handed over to the producer in one burst
+     * @param values The serialized observations
+     * @param callback The callback invoked per record, may be <code>null</code>
+     * @return
+     */
+    @Override
+    public synchronized boolean sendRecords(List<byte[]> values, Callback callback) {
+        KafkaProducer<String, byte[]> producer = producer();
+        for (byte[] value : values) {
+            send(producer, value, callback);
+        }
+        return true;
+    }
+    /**
+     * Send a buffer of observations. The observations are serialized in one pass with a single
+     * {@link JsonGenerator} and then handed over to the producer in one burst.
+     * @param observation The observation object, reused for all values
+     * @param count The number of observations to send
+     * @param update Function preparing the observation for the given index
+     * @param callback The callback invoked per record, may be <code>null</code>
+     * @return <code>false</code> when the observations cannot be serialized, nothing is sent in this case
+     */
+    public boolean sendObservations(Observation observation, int count, ObjIntConsumer<Observation> update, Callback callback) {
+        try {
+            // the JSON representation does not need the datastream
+            return sendRecords(ObservationCodecs.JSON.encode(null, observation, count, update), callback);
+        } catch (IOException e) {
+            logger.error(e.getLocalizedMessage());
+            return false;
+        }
+    }
+    private KafkaProducer<String, byte[]> producer() {
+        if ( lease == null || closed ) {
+            lease = ProducerPool.acquire(properties);
+            closed = false;
+        }
+        return lease.producer();
+    }
+    private void send(KafkaProducer<String, byte[]> producer, byte[] value, Callback callback) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<String, byte[]>(topic, key, value);
+        if ( callback != null ) {
+            producer.send(record, callback);
+        }
+        else {
+            producer.send(record);
+        }
+    }
+    /**
+     * Close the sender, the shared producer is closed when no longer used by other senders
+     */
+    @Override
     public void close() {
         try {
-            producer.close();
+            lease.release();
             closed = true;
         } finally {
-            producer = null;
+            lease = null;
         }
     }
 
 
+    @Override
     public boolean isClosed() {
         return closed;
     }
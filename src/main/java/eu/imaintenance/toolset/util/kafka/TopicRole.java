@@ -0,0 +1,37 @@
+package eu.imaintenance.toolset.util.kafka;
+/**
+ * Role of a topic as outlined by the <code>topics</code> entry of the thing's
+ * <code>kafka</code> property.
+ * @author dglachs
+ *
+ */
+public enum TopicRole {
+    /**
+     * Topic carrying the sensor data (telemetry)
+     */
+    SENSOR("sensor"),
+    /**
+     * Topic carrying the alerts
+     */
+    ALERT("alert");
+
+    private final String key;
+
+    TopicRole(String key) {
+        this.key = key;
+    }
+    /**
+     * @return The key of the role in the thing's <code>kafka</code> property
+     */
+    public String getKey() {
+        return key;
+    }
+    public static TopicRole fromString(String key) {
+        for (TopicRole role : values()) {
+            if ( role.key.equalsIgnoreCase(key)) {
+                return role;
+            }
+        }
+        return null;
+    }
+}
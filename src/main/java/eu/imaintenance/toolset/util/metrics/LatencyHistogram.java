@@ -0,0 +1,83 @@
+package eu.imaintenance.toolset.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Lock-free latency histogram with power of two buckets (nanoseconds). Recording a value
+ * takes two atomic increments, percentiles are reported as the upper bound of the bucket,
+ * i.e. with a relative error of less than factor two.
+ * @author dglachs
+ *
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if ( nanos < 0 ) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+        count.increment();
+        sum.add(nanos);
+        long current;
+        while ( nanos > (current = max.get()) ) {
+            if ( max.compareAndSet(current, nanos)) {
+                break;
+            }
+        }
+    }
+    public long getCount() {
+        return count.sum();
+    }
+    /**
+     * @return The mean latency in microseconds
+     */
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n / 1000d;
+    }
+    /**
+     * @return The maximum latency in microseconds
+     */
+    public double getMaxMicros() {
+        return max.get() / 1000d;
+    }
+    /**
+     * Obtain the (approximated) percentile
+     * @param quantile The quantile, e.g. <code>0.99</code>
+     * @return The latency in microseconds
+     */
+    public double getPercentileMicros(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if ( seen >= rank ) {
+                // upper bound of the bucket, limited by the maximum
+                long bound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(bound, max.get()) / (double) TimeUnit.MICROSECONDS.toNanos(1);
+            }
+        }
+        return getMaxMicros();
+    }
+}
@@ -0,0 +1,94 @@
+package eu.imaintenance.toolset.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Registry of the {@link PipelineMetrics}. The metrics are created on first use and
+ * exported as JMX MBeans named
+ * <code>eu.imaintenance.toolset:type=PipelineMetrics,scope=&lt;scope&gt;,name=&lt;name&gt;</code>.
+ * @author dglachs
+ *
+ */
+public final class Metrics {
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    public static final String DOMAIN = "eu.imaintenance.toolset";
+    /**
+     * The scope of the metrics
+     */
+    public enum Scope {
+        TOPIC,
+        THING,
+        DATASTREAM
+    }
+    private static final Map<String, PipelineMetrics> metrics = new ConcurrentHashMap<String, PipelineMetrics>();
+
+    private Metrics() {
+        // static registry
+    }
+    /**
+     * Obtain the metrics of the topic
+     * @param topic
+     * @return
+     */
+    public static PipelineMetrics topic(String topic) {
+        return get(Scope.TOPIC, topic);
+    }
+    /**
+     * Obtain the metrics of the thing
+     * @param thingId The id of the thing
+     * @return
+     */
+    public static PipelineMetrics thing(Object thingId) {
+        return get(Scope.THING, String.valueOf(thingId));
+    }
+    /**
+     * Obtain the metrics of the datastream
+     * @param datastreamId The id of the datastream
+     * @return
+     */
+    public static PipelineMetrics datastream(Object datastreamId) {
+        return get(Scope.DATASTREAM, String.valueOf(datastreamId));
+    }
+    /**
+     * Obtain the current values of all metrics
+     * @return The snapshots by <code>scope/name</code>
+     */
+    public static Map<String, MetricsSnapshot> snapshot() {
+        Map<String, MetricsSnapshot> snapshot = new TreeMap<String, MetricsSnapshot>();
+        for (Map.Entry<String, PipelineMetrics> entry : metrics.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    private static PipelineMetrics get(Scope scope, String name) {
+        String key = String.format("%s/%s", scope.name().toLowerCase(), name);
+        PipelineMetrics m = metrics.get(key);
+        if ( m == null ) {
+            m = metrics.computeIfAbsent(key, k -> register(new PipelineMetrics(scope, name)));
+        }
+        return m;
+    }
+    private static PipelineMetrics register(PipelineMetrics m) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(String.format("%s:type=PipelineMetrics,scope=%s,name=%s", DOMAIN, m.getScope(), ObjectName.quote(m.getName())));
+            if (! server.isRegistered(objectName)) {
+                server.registerMBean(m, objectName);
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Metrics {} {} not exported: {}", m.getScope(), m.getName(), e.getLocalizedMessage());
+        }
+        return m;
+    }
+}
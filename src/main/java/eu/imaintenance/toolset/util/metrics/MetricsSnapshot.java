@@ -0,0 +1,98 @@
+package eu.imaintenance.toolset.util.metrics;
+/**
+ * Immutable copy of the {@link PipelineMetrics} of a scope, latencies in microseconds.
+ * @author dglachs
+ *
+ */
+public final class MetricsSnapshot {
+    private final String scope;
+    private final String name;
+    private final long recordsPolled;
+    private final long recordsParsed;
+    private final long recordsDropped;
+    private final long parseFailures;
+    private final long handlerInvocations;
+    private final double handlerLatencyMean;
+    private final double handlerLatencyP99;
+    private final double handlerLatencyMax;
+    private final long sendCount;
+    private final long sendErrors;
+    private final long sendsSuppressed;
+    private final double sendLatencyMean;
+    private final double sendLatencyP99;
+    private final double sendLatencyMax;
+
+    MetricsSnapshot(PipelineMetrics metrics) {
+        this.scope = metrics.getScope();
+        this.name = metrics.getName();
+        this.recordsPolled = metrics.getRecordsPolled();
+        this.recordsParsed = metrics.getRecordsParsed();
+        this.recordsDropped = metrics.getRecordsDropped();
+        this.parseFailures = metrics.getParseFailures();
+        this.handlerInvocations = metrics.getHandlerInvocations();
+        this.handlerLatencyMean = metrics.getHandlerLatencyMean();
+        this.handlerLatencyP99 = metrics.getHandlerLatencyP99();
+        this.handlerLatencyMax = metrics.getHandlerLatencyMax();
+        this.sendCount = metrics.getSendCount();
+        this.sendErrors = metrics.getSendErrors();
+        this.sendsSuppressed = metrics.getSendsSuppressed();
+        this.sendLatencyMean = metrics.getSendLatencyMean();
+        this.sendLatencyP99 = metrics.getSendLatencyP99();
+        this.sendLatencyMax = metrics.getSendLatencyMax();
+    }
+    public String getScope() {
+        return scope;
+    }
+    public String getName() {
+        return name;
+    }
+    public long getRecordsPolled() {
+        return recordsPolled;
+    }
+    public long getRecordsParsed() {
+        return recordsParsed;
+    }
+    public long getRecordsDropped() {
+        return recordsDropped;
+    }
+    public long getParseFailures() {
+        return parseFailures;
+    }
+    public long getHandlerInvocations() {
+        return handlerInvocations;
+    }
+    public double getHandlerLatencyMean() {
+        return handlerLatencyMean;
+    }
+    public double getHandlerLatencyP99() {
+        return handlerLatencyP99;
+    }
+    public double getHandlerLatencyMax() {
+        return handlerLatencyMax;
+    }
+    public long getSendCount() {
+        return sendCount;
+    }
+    public long getSendErrors() {
+        return sendErrors;
+    }
+    public long getSendsSuppressed() {
+        return sendsSuppressed;
+    }
+    public double getSendLatencyMean() {
+        return sendLatencyMean;
+    }
+    public double getSendLatencyP99() {
+        return sendLatencyP99;
+    }
+    public double getSendLatencyMax() {
+        return sendLatencyMax;
+    }
+    @Override
+    public String toString() {
+        return String.format("%s %s: polled=%s parsed=%s dropped=%s parseFailures=%s handler=%s (mean %.1fus, p99 %.1fus, max %.1fus) sent=%s errors=%s suppressed=%s (mean %.1fus, p99 %.1fus, max %.1fus)",
+                scope, name, recordsPolled, recordsParsed, recordsDropped, parseFailures,
+                handlerInvocations, handlerLatencyMean, handlerLatencyP99, handlerLatencyMax,
+                sendCount, sendErrors, sendsSuppressed, sendLatencyMean, sendLatencyP99, sendLatencyMax);
+    }
+}
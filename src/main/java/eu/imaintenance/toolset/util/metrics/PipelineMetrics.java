@@ -0,0 +1,155 @@
+package eu.imaintenance.toolset.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Counters and latencies of the observation pipeline for a single scope, e.g. a topic,
+ * a thing or a datastream. All methods are lock-free, instances are obtained with
+ * {@link Metrics} and should be kept by the caller to avoid the lookup per record.
+ * @author dglachs
+ *
+ */
+public final class PipelineMetrics implements PipelineMetricsMBean {
+    private final Metrics.Scope scope;
+    private final String name;
+
+    private final LongAdder polled = new LongAdder();
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder sendsSuppressed = new LongAdder();
+
+    PipelineMetrics(Metrics.Scope scope, String name) {
+        this.scope = scope;
+        this.name = name;
+    }
+    /**
+     * Record received from the messaging infrastructure
+     */
+    public void polled() {
+        polled.increment();
+    }
+    /**
+     * Record parsed and handed over to a handler
+     */
+    public void parsed() {
+        parsed.increment();
+    }
+    /**
+     * Record skipped, no handler is registered for the record's datastream
+     */
+    public void dropped() {
+        dropped.increment();
+    }
+    /**
+     * Record cannot be parsed
+     */
+    public void parseFailed() {
+        parseFailures.increment();
+    }
+    /**
+     * Handler invoked
+     * @param nanos The duration of the invocation
+     */
+    public void handled(long nanos) {
+        handlerLatency.record(nanos);
+    }
+    /**
+     * Record acknowledged by the messaging infrastructure
+     * @param nanos The time from sending to the acknowledgement
+     */
+    public void sent(long nanos) {
+        sendLatency.record(nanos);
+    }
+    /**
+     * Record not sent, e.g. not serializable or not acknowledged
+     */
+    public void sendFailed() {
+        sendErrors.increment();
+    }
+    /**
+     * Value not sent, filtered by the send policy of the producer
+     */
+    public void suppressed() {
+        sendsSuppressed.increment();
+    }
+    /**
+     * Values of a buffer not sent, filtered by the send policy of the producer
+     * @param count
+     */
+    public void suppressed(int count) {
+        sendsSuppressed.add(count);
+    }
+    /**
+     * @return The current values
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(this);
+    }
+    @Override
+    public String getScope() {
+        return scope.name().toLowerCase();
+    }
+    @Override
+    public String getName() {
+        return name;
+    }
+    @Override
+    public long getRecordsPolled() {
+        return polled.sum();
+    }
+    @Override
+    public long getRecordsParsed() {
+        return parsed.sum();
+    }
+    @Override
+    public long getRecordsDropped() {
+        return dropped.sum();
+    }
+    @Override
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+    @Override
+    public long getHandlerInvocations() {
+        return handlerLatency.getCount();
+    }
+    @Override
+    public double getHandlerLatencyMean() {
+        return handlerLatency.getMeanMicros();
+    }
+    @Override
+    public double getHandlerLatencyP99() {
+        return handlerLatency.getPercentileMicros(0.99);
+    }
+    @Override
+    public double getHandlerLatencyMax() {
+        return handlerLatency.getMaxMicros();
+    }
+    @Override
+    public long getSendCount() {
+        return sendLatency.getCount();
+    }
+    @Override
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+    @Override
+    public long getSendsSuppressed() {
+        return sendsSuppressed.sum();
+    }
+    @Override
+    public double getSendLatencyMean() {
+        return sendLatency.getMeanMicros();
+    }
+    @Override
+    public double getSendLatencyP99() {
+        return sendLatency.getPercentileMicros(0.99);
+    }
+    @Override
+    public double getSendLatencyMax() {
+        return sendLatency.getMaxMicros();
+    }
+}
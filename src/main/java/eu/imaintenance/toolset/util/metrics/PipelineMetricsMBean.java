@@ -0,0 +1,24 @@
+package eu.imaintenance.toolset.util.metrics;
+/**
+ * JMX view of the {@link PipelineMetrics}, latencies are reported in microseconds.
+ * @author dglachs
+ *
+ */
+public interface PipelineMetricsMBean {
+    String getScope();
+    String getName();
+    long getRecordsPolled();
+    long getRecordsParsed();
+    long getRecordsDropped();
+    long getParseFailures();
+    long getHandlerInvocations();
+    double getHandlerLatencyMean();
+    double getHandlerLatencyP99();
+    double getHandlerLatencyMax();
+    long getSendCount();
+    long getSendErrors();
+    long getSendsSuppressed();
+    double getSendLatencyMean();
+    double getSendLatencyP99();
+    double getSendLatencyMax();
+}
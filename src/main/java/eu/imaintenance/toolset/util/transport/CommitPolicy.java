@@ -0,0 +1,69 @@
+package eu.imaintenance.toolset.util.transport;
+
+import java.time.Duration;
+/**
+ * Specifies when the positions of the consumer group are committed.
+ * <ul>
+ * <li>{@link #AUTO}: the transport commits periodically (Kafka's auto-commit), the 
+ * records may be committed before the handlers have processed them</li>
+ * <li>{@link #atLeastOnce(Duration, int)}: the highest offset up to which all records of 
+ * a partition are processed is committed asynchronously, whenever the interval is over
+ * or the given number of records has been polled. Records are redelivered after a crash 
+ * but never skipped.</li>
+ * </ul>
+ * @author dglachs
+ *
+ */
+public final class CommitPolicy {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+    public static final int DEFAULT_RECORDS = 10000;
+    /**
+     * Commits performed by the transport
+     */
+    public static final CommitPolicy AUTO = new CommitPolicy(false, 0, 0);
+
+    private final boolean manual;
+    private final long intervalMillis;
+    private final int maxRecords;
+
+    private CommitPolicy(boolean manual, long intervalMillis, int maxRecords) {
+        this.manual = manual;
+        this.intervalMillis = intervalMillis;
+        this.maxRecords = maxRecords;
+    }
+    /**
+     * At-least-once processing with the default interval and number of records
+     * @return
+     */
+    public static CommitPolicy atLeastOnce() {
+        return atLeastOnce(DEFAULT_INTERVAL, DEFAULT_RECORDS);
+    }
+    /**
+     * At-least-once processing, the processed records are committed in batches
+     * @param interval The maximum time between two commits
+     * @param records The number of polled records triggering a commit
+     * @return
+     */
+    public static CommitPolicy atLeastOnce(Duration interval, int records) {
+        if ( interval.isNegative() || records < 1 ) {
+            throw new IllegalArgumentException("Commit interval and number of records must be positive!");
+        }
+        return new CommitPolicy(true, interval.toMillis(), records);
+    }
+    /**
+     * @return <code>true</code> when the consumer commits the processed records
+     */
+    public boolean isManual() {
+        return manual;
+    }
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+    @Override
+    public String toString() {
+        return manual ? String.format("at-least-once (%sms, %s records)", intervalMillis, maxRecords) : "auto";
+    }
+}
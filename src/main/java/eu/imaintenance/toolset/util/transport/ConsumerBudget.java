@@ -0,0 +1,54 @@
+package eu.imaintenance.toolset.util.transport;
+/**
+ * Global limit for the number of consumer threads, shared by all consumer groups of a client.
+ * The consumer groups request one consumer per partition, the budget grants the consumers
+ * while available.
+ * @author dglachs
+ *
+ */
+public final class ConsumerBudget {
+    private final int max;
+    private int used;
+
+    /**
+     * Create the budget
+     * @param max The maximum number of consumers
+     */
+    public ConsumerBudget(int max) {
+        if ( max < 1 ) {
+            throw new IllegalArgumentException("The consumer budget must be positive!");
+        }
+        this.max = max;
+    }
+    /**
+     * Acquire consumers from the budget
+     * @param wanted The number of consumers requested
+     * @param minimum The number of consumers granted regardless of the budget, e.g. so that
+     *        every consumer group is served by at least one consumer
+     * @return The number of consumers granted
+     */
+    public synchronized int acquire(int wanted, int minimum) {
+        int granted = Math.max(Math.min(wanted, max - used), Math.min(wanted, minimum));
+        used += granted;
+        return granted;
+    }
+    /**
+     * Return consumers to the budget
+     * @param count
+     */
+    public synchronized void release(int count) {
+        used = Math.max(0, used - count);
+    }
+    /**
+     * @return The maximum number of consumers
+     */
+    public int getMax() {
+        return max;
+    }
+    /**
+     * @return The number of consumers granted
+     */
+    public synchronized int getUsed() {
+        return used;
+    }
+}
@@ -0,0 +1,347 @@
+package eu.imaintenance.toolset.util.transport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+/**
+ * In-process {@link Transport}, the partitions of the topics are lock-free ring buffers.
+ * Runs the full pipeline without a broker, e.g. for load tests or when producers and
+ * consumers are co-located on one gateway.
+ * <p>
+ * The semantics follow Kafka where applicable: the records of a key are kept in order
+ * within a partition, each consumer group receives every record once and the partitions
+ * are balanced among the members of a group. A consumer group starts with the records
+ * sent after it's first subscription. Senders wait while a partition is full, i.e. while
+ * a consumer group has not yet read the oldest record. The records do not survive the
+ * process, hence the commits are not kept.
+ * </p>
+ * @author dglachs
+ *
+ */
+public final class MemoryTransport implements Transport {
+    public static final int DEFAULT_PARTITIONS = 4;
+    public static final int DEFAULT_CAPACITY = 65536;
+    /**
+     * Maximum number of records handed over with a single poll
+     */
+    private static final int MAX_POLL_RECORDS = 1024;
+    /**
+     * Maximum time a sender waits for a free slot
+     */
+    private static final long SEND_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+    /**
+     * Number of empty checks before an idle consumer parks until a record is published
+     */
+    private static final int SPINS = 100;
+
+    private final String name;
+    private final int partitions;
+    private final int capacity;
+    private final Map<String, RingBuffer[]> topics = new ConcurrentHashMap<String, RingBuffer[]>();
+    private final Map<String, Group> groups = new ConcurrentHashMap<String, Group>();
+
+    public MemoryTransport() {
+        this("memory", DEFAULT_PARTITIONS, DEFAULT_CAPACITY);
+    }
+    /**
+     * Create the transport
+     * @param name The name of the transport
+     * @param partitions The number of partitions per topic
+     * @param capacity The number of records per partition, rounded up to a power of two
+     */
+    public MemoryTransport(String name, int partitions, int capacity) {
+        if ( partitions < 1 || capacity < 1 ) {
+            throw new IllegalArgumentException("Number of partitions and capacity must be positive!");
+        }
+        this.name = name;
+        this.partitions = partitions;
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public TransportConsumer subscribe(String groupId, List<String> topics, KafkaProfile profile, CommitPolicy policy, ConsumerRebalanceListener listener) {
+        Group group = groups.computeIfAbsent(groupId, g -> new Group());
+        List<Assignment> subscribed = new ArrayList<Assignment>();
+        for (String topic : topics) {
+            for (RingBuffer partition : topic(topic)) {
+                subscribed.add(group.assignment(partition));
+            }
+        }
+        return new Member(group, subscribed, listener);
+    }
+
+    @Override
+    public int partitions(String topic) {
+        return partitions;
+    }
+
+    @Override
+    public TransportSender sender(String name, String topic, String key, KafkaProfile profile) {
+        return new MemorySender(topic(topic), key);
+    }
+
+    private RingBuffer[] topic(String topic) {
+        return topics.computeIfAbsent(topic, t -> {
+            RingBuffer[] buffers = new RingBuffer[partitions];
+            for (int i = 0; i < partitions; i++) {
+                buffers[i] = new RingBuffer(new TopicPartition(t, i), capacity);
+            }
+            return buffers;
+        });
+    }
+    /**
+     * Consumer group, keeps the cursor per partition
+     */
+    private static final class Group {
+        private final Map<TopicPartition, Assignment> assignments = new ConcurrentHashMap<TopicPartition, Assignment>();
+        private final AtomicInteger members = new AtomicInteger();
+
+        Assignment assignment(RingBuffer partition) {
+            return assignments.computeIfAbsent(partition.getPartition(), p -> new Assignment(partition, partition.cursor()));
+        }
+    }
+    /**
+     * Partition of a group, owned by at most one member at a time
+     */
+    private static final class Assignment {
+        private final RingBuffer partition;
+        private final AtomicLong cursor;
+        private final AtomicReference<Member> owner = new AtomicReference<Member>();
+
+        Assignment(RingBuffer partition, AtomicLong cursor) {
+            this.partition = partition;
+            this.cursor = cursor;
+        }
+    }
+    /**
+     * Member of a group. The partitions are balanced cooperatively, with each poll a member
+     * releases the partitions exceeding it's share and takes over unowned partitions.
+     */
+    private static final class Member implements TransportConsumer {
+        private final Group group;
+        private final List<Assignment> subscribed;
+        private final ConsumerRebalanceListener listener;
+        private final List<Assignment> owned = new ArrayList<Assignment>();
+        private final Set<TopicPartition> paused = new HashSet<TopicPartition>();
+        /**
+         * Parks the polling thread while the owned partitions are empty
+         */
+        private final RingBuffer.Waiter waiter = new RingBuffer.Waiter();
+        private volatile boolean woken;
+        private boolean closed;
+        /**
+         * The partition polled first, rotated for fairness
+         */
+        private int start;
+
+        Member(Group group, List<Assignment> subscribed, ConsumerRebalanceListener listener) {
+            this.group = group;
+            this.subscribed = subscribed;
+            this.listener = listener;
+            group.members.incrementAndGet();
+        }
+
+        @Override
+        public boolean poll(long timeout, RecordHandler handler) {
+            if ( closed ) {
+                return false;
+            }
+            balance();
+            try {
+                return drain(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout), handler);
+            } finally {
+                waiter.done();
+            }
+        }
+        /**
+         * Drain the owned partitions, waits until a record is available or the deadline has passed
+         */
+        private boolean drain(long deadline, RecordHandler handler) {
+            int idle = 0;
+            while (true) {
+                if ( woken ) {
+                    woken = false;
+                    return false;
+                }
+                int count = 0;
+                int size = owned.size();
+                for (int i = 0; i < size && count < MAX_POLL_RECORDS; i++) {
+                    Assignment assignment = owned.get((start + i) % size);
+                    if (! paused.contains(assignment.partition.getPartition())) {
+                        count += assignment.partition.drain(assignment.cursor, handler, MAX_POLL_RECORDS - count);
+                    }
+                }
+                if ( size > 0 ) {
+                    start = (start + 1) % size;
+                }
+                long remaining = deadline - System.nanoTime();
+                if ( count > 0 || remaining <= 0 ) {
+                    return true;
+                }
+                if ( ++idle < SPINS ) {
+                    Thread.yield();
+                }
+                else if (! waiter.announce()) {
+                    waiter.park(remaining);
+                }
+            }
+        }
+        /**
+         * Release the partitions exceeding the share, take over unowned partitions
+         */
+        private void balance() {
+            int share = (subscribed.size() + group.members.get() - 1) / Math.max(1, group.members.get());
+            if ( owned.size() > share ) {
+                List<TopicPartition> revoked = new ArrayList<TopicPartition>();
+                while ( owned.size() > share ) {
+                    Assignment assignment = owned.remove(owned.size() - 1);
+                    assignment.partition.removeReader(waiter);
+                    assignment.owner.set(null);
+                    revoked.add(assignment.partition.getPartition());
+                }
+                listener.onPartitionsRevoked(revoked);
+            }
+            if ( owned.size() < share ) {
+                List<TopicPartition> assigned = new ArrayList<TopicPartition>();
+                for (Assignment assignment : subscribed) {
+                    if ( owned.size() >= share ) {
+                        break;
+                    }
+                    if ( assignment.owner.get() == null && assignment.owner.compareAndSet(null, this)) {
+                        assignment.partition.addReader(waiter);
+                        owned.add(assignment);
+                        assigned.add(assignment.partition.getPartition());
+                    }
+                }
+                if (! assigned.isEmpty()) {
+                    listener.onPartitionsAssigned(assigned);
+                }
+            }
+        }
+
+        @Override
+        public void pause(TopicPartition partition) {
+            paused.add(partition);
+        }
+
+        @Override
+        public void resume(TopicPartition partition) {
+            paused.remove(partition);
+        }
+
+        @Override
+        public void commit(Map<TopicPartition, Long> offsets, boolean sync) {
+            // the records do not survive the process, the cursor is the position
+        }
+
+        @Override
+        public void wakeup() {
+            woken = true;
+            waiter.signal();
+        }
+
+        @Override
+        public void close() {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            Collection<TopicPartition> revoked = new ArrayList<TopicPartition>();
+            for (Assignment assignment : owned) {
+                assignment.partition.removeReader(waiter);
+                assignment.owner.set(null);
+                revoked.add(assignment.partition.getPartition());
+            }
+            owned.clear();
+            group.members.decrementAndGet();
+            listener.onPartitionsRevoked(revoked);
+        }
+    }
+    /**
+     * Sender publishing to the partition of the key, records without key are distributed round robin
+     */
+    private static final class MemorySender implements TransportSender {
+        private final RingBuffer[] partitions;
+        private final String key;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile boolean closed;
+
+        MemorySender(RingBuffer[] partitions, String key) {
+            this.partitions = partitions;
+            this.key = key;
+        }
+
+        @Override
+        public boolean sendRecord(byte[] value, Callback callback) {
+            if ( closed ) {
+                return false;
+            }
+            send(partition(), value, callback);
+            return true;
+        }
+
+        @Override
+        public boolean sendRecords(List<byte[]> values, Callback callback) {
+            if ( closed ) {
+                return false;
+            }
+            for (byte[] value : values) {
+                send(partition(), value, callback);
+            }
+            return true;
+        }
+
+        private RingBuffer partition() {
+            if ( key != null ) {
+                return partitions[(key.hashCode() & 0x7fffffff) % partitions.length];
+            }
+            return partitions[(next.getAndIncrement() & 0x7fffffff) % partitions.length];
+        }
+        /**
+         * Publish a copy of the value, the caller may reuse the array
+         */
+        private void send(RingBuffer partition, byte[] value, Callback callback) {
+            long offset = partition.publish(key, value.clone(), SEND_TIMEOUT);
+            if ( callback == null ) {
+                return;
+            }
+            if ( offset < 0 ) {
+                callback.onCompletion(null, new TimeoutException(String.format("Partition %s is full!", partition.getPartition())));
+            }
+            else {
+                callback.onCompletion(new RecordMetadata(partition.getPartition(), offset, 0), null);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+}
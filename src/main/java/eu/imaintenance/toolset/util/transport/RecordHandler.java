@@ -0,0 +1,19 @@
+package eu.imaintenance.toolset.util.transport;
+
+import org.apache.kafka.common.TopicPartition;
+/**
+ * Receiver of the records polled with a {@link TransportConsumer}
+ * @author dglachs
+ *
+ */
+@FunctionalInterface
+public interface RecordHandler {
+    /**
+     * Process a record
+     * @param partition The partition of the record
+     * @param offset The offset of the record within the partition
+     * @param key The key of the record, may be <code>null</code>
+     * @param value The serialized observation
+     */
+    void onRecord(TopicPartition partition, long offset, String key, byte[] value);
+}
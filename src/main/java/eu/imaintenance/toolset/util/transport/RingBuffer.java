@@ -0,0 +1,245 @@
+package eu.imaintenance.toolset.util.transport;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.kafka.common.TopicPartition;
+/**
+ * Lock-free multi-producer ring buffer holding the records of a partition of the
+ * {@link MemoryTransport}. The sequence of a record is it's offset. Producers claim a
+ * sequence with a CAS and publish the record by writing the sequence to the slot,
+ * consumer groups read with their own cursor. A slot is reused only when all cursors
+ * have passed it, without cursors the oldest records are overwritten.
+ * <p>
+ * Idle consumers and senders waiting for a free slot spin briefly and then park, they 
+ * are unparked by the producers publishing a record and by the consumers advancing
+ * their cursor respectively.
+ * </p>
+ * @author dglachs
+ *
+ */
+final class RingBuffer {
+    /**
+     * Number of checks before a sender waiting for a free slot parks
+     */
+    private static final int SPINS = 100;
+    private final TopicPartition partition;
+    private final int capacity;
+    private final int mask;
+    private final String[] keys;
+    private final byte[][] values;
+    /**
+     * The sequence published per slot
+     */
+    private final AtomicLongArray published;
+    /**
+     * The next sequence to claim
+     */
+    private final AtomicLong claimed = new AtomicLong();
+    /**
+     * The cursors of the consumer groups, the next sequence each group reads
+     */
+    private final List<AtomicLong> cursors = new CopyOnWriteArrayList<AtomicLong>();
+    /**
+     * The minimum of the cursors as seen with the last check. The cursors only advance and
+     * new cursors start at the claimed sequence, so an outdated value is on the safe side.
+     */
+    private volatile long minCursor;
+    /**
+     * The consumers reading the partition, signalled when a record is published
+     */
+    private final List<Waiter> readers = new CopyOnWriteArrayList<Waiter>();
+    /**
+     * The senders parked while the buffer is full
+     */
+    private final Queue<Thread> blocked = new ConcurrentLinkedQueue<Thread>();
+
+    RingBuffer(TopicPartition partition, int capacity) {
+        this.partition = partition;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.keys = new String[capacity];
+        this.values = new byte[capacity][];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+    TopicPartition getPartition() {
+        return partition;
+    }
+    /**
+     * Add the cursor of a consumer group, the group reads the records published from now on
+     * @return The cursor
+     */
+    AtomicLong cursor() {
+        AtomicLong cursor = new AtomicLong(claimed.get());
+        cursors.add(cursor);
+        return cursor;
+    }
+    /**
+     * Signal the consumer when records are published
+     * @param reader
+     */
+    void addReader(Waiter reader) {
+        readers.add(reader);
+    }
+    void removeReader(Waiter reader) {
+        readers.remove(reader);
+    }
+    /**
+     * Publish a record, waits while the buffer is full
+     * @param key The key of the record
+     * @param value The value of the record, must not be modified afterwards
+     * @param timeout The maximum time in nanoseconds to wait for a free slot
+     * @return The offset of the record, <code>-1</code> when no slot has become free
+     */
+    long publish(String key, byte[] value, long timeout) {
+        long deadline = 0;
+        int spins = 0;
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            long wrap = sequence - capacity;
+            if ( wrap >= minCursor ) {
+                long min = minCursor(sequence);
+                minCursor = min;
+                if ( wrap >= min ) {
+                    // full, wait for the slowest consumer group
+                    if ( deadline == 0 ) {
+                        deadline = System.nanoTime() + timeout;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if ( remaining <= 0 ) {
+                        return -1;
+                    }
+                    if ( ++spins < SPINS ) {
+                        Thread.yield();
+                    }
+                    else {
+                        awaitSlot(wrap, remaining);
+                    }
+                    continue;
+                }
+            }
+            if ( claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        int slot = (int) (sequence & mask);
+        keys[slot] = key;
+        values[slot] = value;
+        // the record is visible to the consumers with the sequence, the volatile write is 
+        // not reordered with the check of the parked consumers
+        published.set(slot, sequence);
+        for (Waiter reader : readers) {
+            reader.signal();
+        }
+        return sequence;
+    }
+    /**
+     * Park the sender until a consumer advances it's cursor
+     * @param wrap The sequence which must have been read by all consumer groups
+     * @param nanos The maximum time to wait
+     */
+    private void awaitSlot(long wrap, long nanos) {
+        Thread current = Thread.currentThread();
+        blocked.add(current);
+        try {
+            // a cursor advanced before the sender was added has not unparked it
+            if ( wrap >= minCursor(wrap + capacity)) {
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            blocked.remove(current);
+        }
+    }
+    /**
+     * Hand the published records over to the handler, must be called by a single thread per cursor
+     * @param cursor The cursor of the consumer group
+     * @param handler The handler receiving the records
+     * @param max The maximum number of records
+     * @return The number of records handed over
+     */
+    int drain(AtomicLong cursor, RecordHandler handler, int max) {
+        long next = cursor.get();
+        int count = 0;
+        while ( count < max ) {
+            int slot = (int) (next & mask);
+            if ( published.get(slot) != next ) {
+                break;
+            }
+            String key = keys[slot];
+            byte[] value = values[slot];
+            // release the slot before processing
+            cursor.lazySet(next + 1);
+            handler.onRecord(partition, next, key, value);
+            next++;
+            count++;
+        }
+        if ( count > 0 ) {
+            // the volatile write is not reordered with the check of the parked senders
+            cursor.set(next);
+            for (Thread sender : blocked) {
+                LockSupport.unpark(sender);
+            }
+        }
+        return count;
+    }
+    /**
+     * @param sequence The sequence to claim, used when no consumer group reads the partition
+     * @return The minimum of the cursors
+     */
+    private long minCursor(long sequence) {
+        long min = sequence;
+        for (AtomicLong cursor : cursors) {
+            min = Math.min(min, cursor.get());
+        }
+        return min;
+    }
+    /**
+     * Consumer parking while no records are available, see {@link RingBuffer#addReader(Waiter)}
+     */
+    static final class Waiter {
+        private volatile Thread parked;
+        /**
+         * Announce that the current thread is about to park, the records must be checked 
+         * once more afterwards as a record published meanwhile has not seen the thread
+         * @return <code>false</code> when already announced, the thread may park now
+         */
+        boolean announce() {
+            if ( parked != null ) {
+                return false;
+            }
+            parked = Thread.currentThread();
+            return true;
+        }
+        /**
+         * Park the announced thread until signalled
+         * @param nanos The maximum time to wait
+         */
+        void park(long nanos) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        /**
+         * The thread continues, no longer signalled
+         */
+        void done() {
+            parked = null;
+        }
+        /**
+         * Unpark the announced thread
+         */
+        void signal() {
+            Thread thread = parked;
+            if ( thread != null ) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+}
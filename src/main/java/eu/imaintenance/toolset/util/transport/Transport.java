@@ -0,0 +1,58 @@
+package eu.imaintenance.toolset.util.transport;
+
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+import eu.imaintenance.toolset.util.kafka.KafkaTransport;
+/**
+ * Messaging infrastructure carrying the serialized observations. The pipeline subscribes, 
+ * polls and commits with {@link TransportConsumer}s and sends with {@link TransportSender}s,
+ * so it runs unchanged on top of Kafka ({@link KafkaTransport}) or in-process 
+ * ({@link MemoryTransport}).
+ * @author dglachs
+ *
+ */
+public interface Transport {
+    /**
+     * @return The name of the transport, transports with the same name share the consumers
+     */
+    String getName();
+    /**
+     * Check whether the other transport reaches the same messaging infrastructure, the 
+     * processors of the same infrastructure share one dispatcher and consumer group
+     * @param other The other transport
+     * @return <code>true</code> by default when the names are equal
+     */
+    default boolean isSameCluster(Transport other) {
+        return other != null && getName().equals(other.getName());
+    }
+    /**
+     * Create a member of the consumer group, each record of the topics is delivered to one
+     * member of the group
+     * @param groupId The consumer group
+     * @param topics The topics to subscribe
+     * @param profile The consumer settings
+     * @param policy Specifies whether the transport or the consumer commits the positions
+     * @param listener Notified when partitions are assigned to or revoked from the member
+     * @return The consumer, to be used by a single thread
+     */
+    TransportConsumer subscribe(String groupId, List<String> topics, KafkaProfile profile, CommitPolicy policy, ConsumerRebalanceListener listener);
+    /**
+     * Obtain the number of partitions of the topic, a consumer group is served by at most 
+     * one consumer per partition
+     * @param topic The topic
+     * @return The number of partitions, <code>0</code> when the topic is not known (yet)
+     */
+    int partitions(String topic);
+    /**
+     * Create a sender for the topic
+     * @param name The name of the sender
+     * @param topic The topic to send to
+     * @param key The key of the records, may be <code>null</code>
+     * @param profile The producer settings
+     * @return The sender
+     */
+    TransportSender sender(String name, String topic, String key, KafkaProfile profile);
+}
@@ -0,0 +1,44 @@
+package eu.imaintenance.toolset.util.transport;
+
+import java.util.Map;
+
+import org.apache.kafka.common.TopicPartition;
+/**
+ * Member of a consumer group, see {@link Transport#subscribe}. Except for {@link #wakeup()}
+ * the methods must be called by the polling thread only.
+ * @author dglachs
+ *
+ */
+public interface TransportConsumer {
+    /**
+     * Wait for records and hand them over to the handler
+     * @param timeout The maximum time in milliseconds to wait for records
+     * @param handler The handler receiving the records
+     * @return <code>false</code> when the consumer has been woken up for shutdown
+     */
+    boolean poll(long timeout, RecordHandler handler);
+    /**
+     * Stop fetching records of the partition, the consumer stays in the group
+     * @param partition
+     */
+    void pause(TopicPartition partition);
+    /**
+     * Continue fetching records of a paused partition
+     * @param partition
+     */
+    void resume(TopicPartition partition);
+    /**
+     * Commit the positions of the partitions
+     * @param offsets The offset of the next record to consume per partition
+     * @param sync <code>true</code> to wait for the acknowledgement, e.g. before leaving the group
+     */
+    void commit(Map<TopicPartition, Long> offsets, boolean sync);
+    /**
+     * Abort a pending or the next {@link #poll(long, RecordHandler)}, safe to be called by any thread
+     */
+    void wakeup();
+    /**
+     * Leave the consumer group and release the resources
+     */
+    void close();
+}
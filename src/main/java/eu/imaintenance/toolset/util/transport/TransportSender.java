@@ -0,0 +1,34 @@
+package eu.imaintenance.toolset.util.transport;
+
+import java.util.List;
+
+import org.apache.kafka.clients.producer.Callback;
+/**
+ * Sender of serialized observations to a single topic, see {@link Transport#sender}. 
+ * Senders are safe to be used by multiple threads.
+ * @author dglachs
+ *
+ */
+public interface TransportSender {
+    /**
+     * Send a serialized observation. The value is copied or handed over before the method
+     * returns, so the array may be reused by the caller afterwards.
+     * @param value The serialized observation
+     * @param callback The callback, may be <code>null</code>
+     * @return <code>true</code> when the record has been accepted
+     */
+    boolean sendRecord(byte[] value, Callback callback);
+    /**
+     * Send serialized observations in one burst
+     * @param values The serialized observations
+     * @param callback The callback invoked per record, may be <code>null</code>
+     * @return <code>true</code> when the records have been accepted
+     */
+    boolean sendRecords(List<byte[]> values, Callback callback);
+    /**
+     * Close the sender
+     */
+    void close();
+
+    boolean isClosed();
+}
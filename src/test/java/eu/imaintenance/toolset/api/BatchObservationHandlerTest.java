@@ -0,0 +1,51 @@
+package eu.imaintenance.toolset.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+/**
+ * Observations not collected by a dispatcher are delivered as batch of one
+ * @author dglachs
+ *
+ */
+public class BatchObservationHandlerTest {
+
+    @Test
+    public void singleObservationIsDeliveredAsBatch() {
+        List<ObservationBatch<Double>> delivered = new ArrayList<ObservationBatch<Double>>();
+        BatchObservationHandler<Double> handler = new BatchObservationHandler<Double>() {
+            @Override
+            public Class<Double> getObservedType() {
+                return Double.class;
+            }
+            @Override
+            public void onObservations(ObservationBatch<Double> batch) {
+                delivered.add(batch);
+            }
+        };
+        Observation observation = new Observation();
+        handler.onObservation(observation, 42.5);
+
+        assertEquals(1, delivered.size());
+        ObservationBatch<Double> batch = delivered.get(0);
+        assertEquals(1, batch.size());
+        assertTrue(batch.getObservation(0) == observation);
+        assertEquals(Double.valueOf(42.5), batch.getResult(0));
+        assertEquals(42.5, batch.getValue(0), 0);
+        assertEquals(42.5, batch.getValues()[0], 0);
+        assertEquals(1, batch.getResults().size());
+        try {
+            batch.getResult(1);
+            fail("Index 1 is out of bounds");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
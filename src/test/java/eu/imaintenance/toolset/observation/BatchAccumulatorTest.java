@@ -0,0 +1,83 @@
+package eu.imaintenance.toolset.observation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.api.BatchObservationHandler;
+import eu.imaintenance.toolset.api.ObservationBatch;
+import eu.imaintenance.toolset.util.kafka.PartitionState;
+/**
+ * The records of batched observations are completed once the batch has been delivered
+ * @author dglachs
+ *
+ */
+public class BatchAccumulatorTest {
+    private static final int BATCH_SIZE = 3;
+
+    private final PartitionState partition = new PartitionState(new TopicPartition("observations", 0), true);
+    /**
+     * The records in flight while the batches are delivered
+     */
+    private final List<Integer> inFlightOnDelivery = new ArrayList<Integer>();
+
+    private final BatchAccumulator<Double> accumulator = new BatchAccumulator<Double>(new BatchObservationHandler<Double>() {
+        @Override
+        public void onObservations(ObservationBatch<Double> batch) {
+            inFlightOnDelivery.add(partition.getInFlight());
+        }
+        @Override
+        public int getMaxBatchSize() {
+            return BATCH_SIZE;
+        }
+        @Override
+        public Class<Double> getObservedType() {
+            return Double.class;
+        }
+    });
+
+    @Test
+    public void recordsAreCompletedAfterDelivery() {
+        for (int offset = 0; offset < BATCH_SIZE + 2; offset++) {
+            process(offset);
+            if ( offset < BATCH_SIZE - 1 ) {
+                // held by the batch
+                assertEquals(-1, partition.committable());
+                assertEquals(offset + 1, partition.getInFlight());
+            }
+        }
+        // the full batch was delivered with it's records in flight
+        assertEquals(1, inFlightOnDelivery.size());
+        assertEquals(BATCH_SIZE, (int) inFlightOnDelivery.get(0));
+        assertEquals(BATCH_SIZE, partition.committable());
+        assertEquals(2, partition.getInFlight());
+        accumulator.flush();
+        assertEquals(2, inFlightOnDelivery.size());
+        assertEquals(BATCH_SIZE + 2, partition.committable());
+        assertEquals(0, partition.getInFlight());
+    }
+
+    @Test
+    public void recordsWithoutBatchAreCompletedRightAway() {
+        partition.started(0);
+        BatchAccumulator.processing(partition, 0);
+        BatchAccumulator.processed();
+        assertEquals(1, partition.committable());
+        assertEquals(0, partition.getInFlight());
+    }
+
+    private void process(long offset) {
+        partition.started(offset);
+        BatchAccumulator.processing(partition, offset);
+        try {
+            accumulator.add(new Observation(), (double) offset);
+        } finally {
+            BatchAccumulator.processed();
+        }
+    }
+}
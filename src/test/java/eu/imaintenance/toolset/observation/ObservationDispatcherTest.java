@@ -0,0 +1,172 @@
+package eu.imaintenance.toolset.observation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import eu.imaintenance.toolset.observation.handler.DoubleObservationHandler;
+import eu.imaintenance.toolset.util.kafka.PartitionState;
+import eu.imaintenance.toolset.util.transport.MemoryTransport;
+/**
+ * Messages of datastreams not registered upfront are parked until the lookup of the
+ * datastream has finished, see {@link ObservationDispatcher#processResolved()}
+ * @author dglachs
+ *
+ */
+public class ObservationDispatcherTest {
+    private static final String TOPIC = "observations";
+    private static final int CONSUMERS = 4;
+    private static final int STREAMS_PER_CONSUMER = 5;
+    private static final int MESSAGES_PER_STREAM = 500;
+
+    private final Map<Long, List<Double>> received = new ConcurrentHashMap<Long, List<Double>>();
+    private ObservationProcessor processor;
+
+    @Before
+    public void setUp() throws Exception {
+        Thing thing = new Thing("machine", "test machine");
+        thing.setProperties(new HashMap<String, Object>());
+        processor = new ObservationProcessor(thing);
+        DoubleObservationHandler handler = (datastreamId, time, value) -> {
+            if ( value < 0 ) {
+                throw new IllegalStateException("Failing handler");
+            }
+            received.computeIfAbsent(datastreamId, id -> Collections.synchronizedList(new ArrayList<Double>())).add(value);
+        };
+        for (long id = 1; id <= CONSUMERS * STREAMS_PER_CONSUMER; id++) {
+            Datastream stream = new Datastream();
+            stream.setId(new IdLong(id));
+            stream.setObservationType(ObservationType.MEASUREMENT.getType());
+            stream.setThing(thing);
+            processor.registerHandler(handler, stream);
+        }
+    }
+
+    @Test
+    public void parkedMessagesAreDeliveredInOrder() throws Exception {
+        // slow lookup, the messages of the datastreams are parked meanwhile
+        ObservationDispatcher dispatcher = new ObservationDispatcher(new MemoryTransport(), streamId -> {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 20));
+            return processor.handlesDatastream(streamId) ? processor : null;
+        });
+        List<PartitionState> partitions = new ArrayList<PartitionState>();
+        List<Thread> consumers = new ArrayList<Thread>();
+        for (int c = 0; c < CONSUMERS; c++) {
+            PartitionState partition = new PartitionState(new TopicPartition(TOPIC, c), true);
+            partitions.add(partition);
+            long firstStream = 1 + c * STREAMS_PER_CONSUMER;
+            consumers.add(new Thread(() -> {
+                long offset = 0;
+                try {
+                    for (int i = 0; i < MESSAGES_PER_STREAM; i++) {
+                        for (long id = firstStream; id < firstStream + STREAMS_PER_CONSUMER; id++) {
+                            partition.started(offset);
+                            dispatcher.processKafkaMessage(TOPIC, null, payload(id, i), partition, offset++);
+                        }
+                        if ( i % 50 == 0 ) {
+                            dispatcher.endOfPoll();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        consumers.forEach(Thread::start);
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( inFlight(partitions) > 0 && System.nanoTime() < deadline ) {
+            dispatcher.endOfPoll();
+            Thread.sleep(5);
+        }
+        assertEquals("messages in flight", 0, inFlight(partitions));
+        assertEquals(CONSUMERS * STREAMS_PER_CONSUMER, received.size());
+        for (Map.Entry<Long, List<Double>> entry : received.entrySet()) {
+            List<Double> values = entry.getValue();
+            assertEquals("messages of datastream " + entry.getKey(), MESSAGES_PER_STREAM, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals("order of datastream " + entry.getKey(), i, values.get(i), 0.0);
+            }
+        }
+        for (PartitionState partition : partitions) {
+            assertEquals(MESSAGES_PER_STREAM * STREAMS_PER_CONSUMER, partition.committable());
+        }
+    }
+
+    @Test
+    public void unknownDatastreamsAreCompleted() throws Exception {
+        ObservationDispatcher dispatcher = new ObservationDispatcher(new MemoryTransport(), streamId -> null);
+        PartitionState partition = new PartitionState(new TopicPartition(TOPIC, 0), true);
+        for (long offset = 0; offset < 100; offset++) {
+            partition.started(offset);
+            dispatcher.processKafkaMessage(TOPIC, null, payload(1000 + offset % 3, (int) offset), partition, offset);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( partition.getInFlight() > 0 && System.nanoTime() < deadline ) {
+            dispatcher.endOfPoll();
+            Thread.sleep(5);
+        }
+        assertEquals(0, partition.getInFlight());
+        assertEquals(100, partition.committable());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void failingMessagesAreCompleted() throws Exception {
+        ObservationDispatcher dispatcher = new ObservationDispatcher(new MemoryTransport(), streamId -> processor);
+        PartitionState partition = new PartitionState(new TopicPartition(TOPIC, 0), true);
+        byte[][] payloads = {
+                payload(1, 0),
+                // invalid phenomenon time
+                "{\"phenomenonTime\":\"yesterday\",\"result\":1.0,\"Datastream\":{\"@iot.id\":1}}".getBytes(StandardCharsets.UTF_8),
+                // failing handler
+                "{\"phenomenonTime\":\"2020-01-01T00:00:00Z\",\"result\":-1.0,\"Datastream\":{\"@iot.id\":1}}".getBytes(StandardCharsets.UTF_8),
+                // truncated payload
+                "{\"result\":1.0,\"Datastream\":{\"@iot.id\":1".getBytes(StandardCharsets.UTF_8),
+                payload(1, 1)
+        };
+        for (int offset = 0; offset < payloads.length; offset++) {
+            partition.started(offset);
+            assertTrue(dispatcher.processKafkaMessage(TOPIC, null, payloads[offset], partition, offset));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( partition.getInFlight() > 0 && System.nanoTime() < deadline ) {
+            dispatcher.endOfPoll();
+            Thread.sleep(5);
+        }
+        assertEquals(0, partition.getInFlight());
+        assertEquals(payloads.length, partition.committable());
+        assertEquals(2, received.get(1L).size());
+    }
+
+    private static int inFlight(List<PartitionState> partitions) {
+        int inFlight = 0;
+        for (PartitionState partition : partitions) {
+            inFlight += partition.getInFlight();
+        }
+        return inFlight;
+    }
+
+    private static byte[] payload(long datastreamId, int sequence) {
+        return String.format("{\"phenomenonTime\":\"2020-01-01T00:00:%02d.%03dZ\",\"result\":%d.0,\"Datastream\":{\"@iot.id\":%d}}",
+                sequence / 1000 % 60, sequence % 1000, sequence, datastreamId).getBytes(StandardCharsets.UTF_8);
+    }
+}
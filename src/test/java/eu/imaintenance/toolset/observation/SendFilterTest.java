@@ -0,0 +1,56 @@
+package eu.imaintenance.toolset.observation;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+/**
+ * Deadband semantics of the send policy, values are recorded once handed over
+ * @author dglachs
+ *
+ */
+public class SendFilterTest {
+
+    @Test
+    public void eitherDeadbandIsAChange() {
+        SendFilter filter = new SendFilter(SendPolicy.always().withDeadband(5).withRelativeDeadband(0.01));
+        assertTrue(filter.accept(100d, 0));
+        // outside of the relative band (1.0), inside of the absolute band
+        assertTrue(filter.accept(102d, 1));
+        assertFalse(filter.accept(102.5, 2));
+        filter = new SendFilter(SendPolicy.always().withDeadband(0.5).withRelativeDeadband(0.1));
+        assertTrue(filter.accept(100d, 0));
+        // outside of the absolute band, inside of the relative band (10.0)
+        assertTrue(filter.accept(101d, 1));
+    }
+
+    @Test
+    public void singleDeadband() {
+        SendFilter filter = new SendFilter(SendPolicy.always().withRelativeDeadband(0.1));
+        assertTrue(filter.accept(100d, 0));
+        assertFalse(filter.accept(109d, 1));
+        assertTrue(filter.accept(111d, 2));
+    }
+
+    @Test
+    public void testDoesNotRecord() {
+        SendFilter filter = new SendFilter(SendPolicy.always().withDeadband(1));
+        assertTrue(filter.test(10d, 0));
+        assertTrue(filter.test(10d, 1));
+        filter.sent(10d, 1);
+        assertFalse(filter.test(10.5, 2));
+    }
+
+    @Test
+    public void pendingIsRecordedOnCommit() {
+        SendFilter filter = new SendFilter(SendPolicy.always().withDeadband(1));
+        filter.sent(10d, 0);
+        SendFilter pending = filter.pending();
+        assertTrue(pending.accept(20d, 1));
+        assertFalse(pending.accept(20.5, 2));
+        // not yet handed over
+        assertTrue(filter.test(20.5, 2));
+        pending.commit();
+        assertFalse(filter.test(20.5, 2));
+    }
+}
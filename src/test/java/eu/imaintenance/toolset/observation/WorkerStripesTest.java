@@ -0,0 +1,195 @@
+package eu.imaintenance.toolset.observation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import eu.imaintenance.toolset.observation.handler.DoubleObservationHandler;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+import eu.imaintenance.toolset.util.kafka.PartitionState;
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.ConsumerBudget;
+import eu.imaintenance.toolset.util.transport.MemoryTransport;
+import eu.imaintenance.toolset.util.transport.TransportSender;
+/**
+ * The workers reject messages when their slots are taken, the polling thread holds them
+ * back instead of waiting for the workers
+ * @author dglachs
+ *
+ */
+public class WorkerStripesTest {
+    private static final String TOPIC = "observations";
+    private static final int WORKERS = 2;
+    private static final int CAPACITY = 4;
+    private static final int MESSAGES = 200;
+
+    private final Map<Long, List<Double>> received = new ConcurrentHashMap<Long, List<Double>>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ObservationProcessor processor;
+    private ObservationScheduler scheduler;
+    /**
+     * Datastream served by the first worker, it's handler waits for {@link #release}
+     */
+    private long blocked;
+    /**
+     * Datastream served by the second worker
+     */
+    private long free;
+
+    @Before
+    public void setUp() throws Exception {
+        blocked = datastreamOfWorker(0);
+        free = datastreamOfWorker(1);
+        Thing thing = new Thing("machine", "test machine");
+        thing.setProperties(new HashMap<String, Object>());
+        processor = new ObservationProcessor(thing, new ArrayList<String>(), Collections.singletonList(TOPIC));
+        DoubleObservationHandler handler = (datastreamId, time, value) -> {
+            if ( datastreamId == blocked ) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            received.computeIfAbsent(datastreamId, id -> Collections.synchronizedList(new ArrayList<Double>())).add(value);
+        };
+        for (long id : new long[] { blocked, free }) {
+            Datastream stream = new Datastream();
+            stream.setId(new IdLong(id));
+            stream.setObservationType(ObservationType.MEASUREMENT.getType());
+            stream.setThing(thing);
+            processor.registerHandler(handler, stream);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if ( scheduler != null ) {
+            scheduler.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void publishDoesNotWaitForTheWorker() throws Exception {
+        WorkerStripes workers = new WorkerStripes("test", 1, CAPACITY);
+        PartitionState partition = new PartitionState(new TopicPartition(TOPIC, 0), true);
+        // the worker is not started, the slots are taken
+        for (int offset = 0; offset < CAPACITY; offset++) {
+            partition.started(offset);
+            assertTrue(dispatch(workers, partition, offset));
+        }
+        partition.started(CAPACITY);
+        assertFalse(dispatch(workers, partition, CAPACITY));
+        workers.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (! dispatch(workers, partition, CAPACITY)) {
+            assertTrue("worker did not catch up", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        while ( partition.getInFlight() > 0 && System.nanoTime() < deadline ) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, partition.getInFlight());
+        assertEquals(CAPACITY + 1, partition.committable());
+        assertEquals(CAPACITY + 1, received.get(free).size());
+        workers.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Dispatch a message of the free datastream with the header read like the dispatcher does
+     */
+    private boolean dispatch(WorkerStripes workers, PartitionState partition, int offset) throws Exception {
+        byte[] payload = payload(free, offset);
+        ObservationHeader header = new ObservationHeader();
+        assertTrue(header.read(payload));
+        return workers.dispatch(processor, TOPIC, null, payload, header, partition, offset);
+    }
+
+    @Test
+    public void busyWorkerDoesNotStallOtherPartitions() throws Exception {
+        // one consumer polling both partitions
+        MemoryTransport transport = new MemoryTransport("test", 2, MemoryTransport.DEFAULT_CAPACITY);
+        // a new group starts at the end of the partitions, join before sending
+        transport.subscribe("test", Collections.singletonList(TOPIC), KafkaProfile.DEFAULT, CommitPolicy.AUTO, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            }
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            }
+        }).close();
+        scheduler = new ObservationScheduler("test", WORKERS, CAPACITY, false);
+        ObservationDispatcher dispatcher = new ObservationDispatcher(transport);
+        dispatcher.setScheduler(scheduler);
+        dispatcher.setConsumerBudget(new ConsumerBudget(1));
+        dispatcher.register(processor);
+        dispatcher.startup("test");
+        // the keys select different partitions
+        TransportSender blockedSender = transport.sender("test", TOPIC, "a", null);
+        TransportSender freeSender = transport.sender("test", TOPIC, "b", null);
+        for (int i = 0; i < MESSAGES; i++) {
+            blockedSender.sendRecord(payload(blocked, i), null);
+            freeSender.sendRecord(payload(free, i), null);
+        }
+        // the blocked worker's slots are taken, the messages of the other partition still arrive
+        assertTrue("messages of the free partition", awaitMessages(free, MESSAGES));
+        assertFalse(received.containsKey(blocked));
+        release.countDown();
+        assertTrue("messages of the blocked partition", awaitMessages(blocked, MESSAGES));
+        for (long id : new long[] { blocked, free }) {
+            List<Double> values = received.get(id);
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals("order of datastream " + id, i, values.get(i), 0.0);
+            }
+        }
+    }
+
+    private boolean awaitMessages(long datastreamId, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( System.nanoTime() < deadline ) {
+            List<Double> values = received.get(datastreamId);
+            if ( values != null && values.size() >= count ) {
+                return values.size() == count;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    private static long datastreamOfWorker(int worker) {
+        ObservationHeader header = new ObservationHeader();
+        for (long id = 1; ; id++) {
+            header.setId(id);
+            if ( (header.hash() & Integer.MAX_VALUE) % WORKERS == worker ) {
+                return id;
+            }
+        }
+    }
+
+    private static byte[] payload(long datastreamId, int sequence) {
+        return String.format("{\"phenomenonTime\":\"2020-01-01T00:00:%02d.%03dZ\",\"result\":%d.0,\"Datastream\":{\"@iot.id\":%d}}",
+                sequence / 1000 % 60, sequence % 1000, sequence, datastreamId).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+package eu.imaintenance.toolset.observation.handler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import eu.imaintenance.toolset.api.Aggregate;
+/**
+ * Windows close on the watermark of the datastream, observations of closed windows are dropped
+ * @author dglachs
+ *
+ */
+public class WindowAggregatorTest {
+    private static final long DATASTREAM = 7;
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<String> delivered = new ArrayList<String>();
+
+    @Test
+    public void tumblingWindowClosesAfterTheLateness() {
+        WindowAggregator.Measurements aggregator = WindowAggregator.measurements(
+                Window.tumbling(1, TimeUnit.SECONDS).withLateness(500, TimeUnit.MILLISECONDS), this::collect);
+        aggregator.onMeasurement(DATASTREAM, 100 * MILLIS, 1);
+        aggregator.onMeasurement(DATASTREAM, 500 * MILLIS, 3);
+        aggregator.onMeasurement(DATASTREAM, 900 * MILLIS, 2);
+        // the watermark has not passed the end of the first window
+        aggregator.onMeasurement(DATASTREAM, 1200 * MILLIS, 10);
+        assertEquals(0, delivered.size());
+        // late, but within the allowed lateness
+        aggregator.onMeasurement(DATASTREAM, 950 * MILLIS, 4);
+        assertEquals(0, delivered.size());
+        // the watermark passes the end of the first window
+        aggregator.onMeasurement(DATASTREAM, 1600 * MILLIS, 20);
+        assertEquals(1, delivered.size());
+        assertEquals(aggregate(0, SECOND, 4, 1, 4, 10, 4), delivered.get(0));
+        assertEquals(0, aggregator.getLateObservations());
+        // the first window is closed already
+        aggregator.onMeasurement(DATASTREAM, 300 * MILLIS, 100);
+        assertEquals(1, aggregator.getLateObservations());
+        assertEquals(1, delivered.size());
+        // closes the second window, the empty windows are skipped
+        aggregator.onMeasurement(DATASTREAM, 5 * SECOND, 0);
+        assertEquals(2, delivered.size());
+        assertEquals(aggregate(SECOND, 2 * SECOND, 2, 10, 20, 30, 20), delivered.get(1));
+    }
+
+    @Test
+    public void slidingWindowsShareTheirPanes() {
+        WindowAggregator.Counts aggregator = WindowAggregator.counts(Window.sliding(2, 1, TimeUnit.SECONDS), this::collect);
+        aggregator.onCount(DATASTREAM, 500 * MILLIS, 1);
+        aggregator.onCount(DATASTREAM, 1500 * MILLIS, 2);
+        // the window ending with the first observation's slide is closed
+        assertEquals(1, delivered.size());
+        assertEquals(aggregate(-SECOND, SECOND, 1, 1, 1, 1, 1), delivered.get(0));
+        aggregator.onCount(DATASTREAM, 3500 * MILLIS, 4);
+        assertEquals(3, delivered.size());
+        assertEquals(aggregate(0, 2 * SECOND, 2, 1, 2, 3, 2), delivered.get(1));
+        assertEquals(aggregate(SECOND, 3 * SECOND, 1, 2, 2, 2, 2), delivered.get(2));
+        // without lateness an observation of a closed window is dropped
+        aggregator.onCount(DATASTREAM, 900 * MILLIS, 8);
+        assertEquals(1, aggregator.getLateObservations());
+    }
+
+    @Test
+    public void datastreamsHaveTheirOwnWatermark() {
+        WindowAggregator.Truths aggregator = WindowAggregator.truths(Window.tumbling(1, TimeUnit.SECONDS), this::collect);
+        aggregator.onTruth(1, 100 * MILLIS, true);
+        aggregator.onTruth(1, 200 * MILLIS, false);
+        aggregator.onTruth(2, 5 * SECOND, true);
+        // the watermark of datastream 2 does not close the window of datastream 1
+        assertEquals(0, delivered.size());
+        aggregator.onTruth(2, 300 * MILLIS, true);
+        assertEquals(1, aggregator.getLateObservations());
+        aggregator.onTruth(1, 1100 * MILLIS, true);
+        assertEquals(1, delivered.size());
+        assertEquals("1:" + aggregate(0, SECOND, 2, 0, 1, 1, 0), delivered.get(0));
+    }
+
+    private void collect(Aggregate aggregate) {
+        // the aggregate is reused, keep it's values
+        String values = aggregate(aggregate.getWindowStart(), aggregate.getWindowEnd(), aggregate.getCount(),
+                aggregate.getMin(), aggregate.getMax(), aggregate.getSum(), aggregate.getLast());
+        delivered.add(aggregate.getDatastreamId() == DATASTREAM ? values : aggregate.getDatastreamId() + ":" + values);
+    }
+
+    private static String aggregate(long start, long end, long count, double min, double max, double sum, double last) {
+        return String.format("%s-%s count=%s min=%s max=%s sum=%s last=%s", start, end, count, min, max, sum, last);
+    }
+}
@@ -0,0 +1,100 @@
+package eu.imaintenance.toolset.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+/**
+ * Cursors over the history skip the observations overwritten while reading
+ * @author dglachs
+ *
+ */
+public class HistoryCursorTest {
+    private static final long DATASTREAM = 42;
+    private static final int CAPACITY = 8;
+
+    @Test
+    public void cursorCoversTheRange() {
+        ObservationHistory history = new ObservationHistory(CAPACITY, false);
+        record(history, 0, 6);
+        assertEquals(Arrays.asList(2L, 3L, 4L), read(history.history(DATASTREAM, 2, 5)));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L), read(history.history(DATASTREAM, Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertFalse(history.history(DATASTREAM + 1, Long.MIN_VALUE, Long.MAX_VALUE).next());
+    }
+
+    @Test
+    public void overwrittenObservationsAreSkipped() {
+        ObservationHistory history = new ObservationHistory(CAPACITY, false);
+        record(history, 0, CAPACITY);
+        HistoryCursor cursor = history.history(DATASTREAM, Long.MIN_VALUE, Long.MAX_VALUE);
+        List<Long> times = new ArrayList<Long>();
+        for (int i = 0; i < 2 && cursor.next(); i++) {
+            times.add(cursor.getTime());
+        }
+        // overwrites the observations 0 to 4, observation 5 is overwritten next
+        record(history, CAPACITY, CAPACITY + 5);
+        times.addAll(read(cursor));
+        assertEquals(Arrays.asList(1L, 2L, 6L, 7L), times);
+    }
+
+    @Test
+    public void oldestObservationIsNotReadWhileOverwritten() {
+        ObservationHistory history = new ObservationHistory(CAPACITY, false);
+        record(history, 0, 2 * CAPACITY);
+        // the next observation overwrites the oldest one
+        assertEquals(Arrays.asList((long) CAPACITY + 1), read(history.history(DATASTREAM, 0, CAPACITY + 2)));
+    }
+
+    @Test
+    public void concurrentReadsAreConsistent() throws Exception {
+        ObservationHistory history = new ObservationHistory(64, true);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (long time = 0; running.get(); time++) {
+                history.record(DATASTREAM, time, time);
+            }
+        });
+        writer.start();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        HistoryCursor cursor = new HistoryCursor();
+        long observations = 0;
+        try {
+            while ( System.nanoTime() < deadline ) {
+                history.history(DATASTREAM, Long.MIN_VALUE, Long.MAX_VALUE, cursor);
+                long previous = Long.MIN_VALUE;
+                while ( cursor.next()) {
+                    assertEquals("torn observation", (double) cursor.getTime(), cursor.getValue(), 0.0);
+                    assertTrue("order", cursor.getTime() > previous);
+                    previous = cursor.getTime();
+                    observations++;
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertTrue(observations > 0);
+    }
+
+    private static void record(ObservationHistory history, long from, long to) {
+        for (long time = from; time < to; time++) {
+            history.record(DATASTREAM, time, time);
+        }
+    }
+
+    private static List<Long> read(HistoryCursor cursor) {
+        List<Long> times = new ArrayList<Long>();
+        while ( cursor.next()) {
+            assertEquals((double) cursor.getTime(), cursor.getValue(), 0.0);
+            times.add(cursor.getTime());
+        }
+        return times;
+    }
+}
@@ -0,0 +1,125 @@
+package eu.imaintenance.toolset.util.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.threeten.extra.Interval;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.observation.ObservationType;
+import eu.imaintenance.toolset.util.json.IsoTime;
+import eu.imaintenance.toolset.util.json.ObservationHeader;
+import eu.imaintenance.toolset.util.json.PrimitiveObservation;
+/**
+ * The binary codec restores the encoded observations, received payloads are decoded
+ * with the codec detected per payload
+ * @author dglachs
+ *
+ */
+public class ObservationCodecsTest {
+    private static final Instant TIME = Instant.parse("2017-07-14T02:40:00.123456789Z");
+
+    @Test
+    public void binaryMeasurementRoundTrip() throws Exception {
+        Observation observation = observation(TIME, 21.5);
+        observation.setValidTime(Interval.of(TIME, Duration.ofSeconds(30)));
+        Observation decoded = roundTrip(stream(7, ObservationType.MEASUREMENT), observation);
+
+        assertEquals(7L, decoded.getDatastream().getId().getValue());
+        assertFalse(decoded.getPhenomenonTime().isInterval());
+        assertEquals(TIME, decoded.getPhenomenonTime().getAsDateTime().toInstant());
+        assertEquals(TIME, decoded.getValidTime().getStart());
+        assertEquals(TIME.plusSeconds(30), decoded.getValidTime().getEnd());
+        assertEquals(21.5, decoded.getResult());
+    }
+
+    @Test
+    public void binaryRoundTripKeepsTheResultTypes() throws Exception {
+        Instant end = TIME.plusMillis(1500);
+        Observation interval = new Observation();
+        interval.setPhenomenonTimeFrom(Interval.of(TIME, end));
+        interval.setResult(-42);
+        Observation count = roundTrip(stream(1, ObservationType.COUNT_OBSERVATION), interval);
+        assertTrue(count.getPhenomenonTime().isInterval());
+        assertEquals(TIME, count.getPhenomenonTime().getAsInterval().getStart());
+        assertEquals(end, count.getPhenomenonTime().getAsInterval().getEnd());
+        assertEquals(Integer.valueOf(-42), count.getResult());
+
+        assertEquals(Long.valueOf(1L << 40), roundTrip(stream(1, ObservationType.COUNT_OBSERVATION), observation(TIME, 1L << 40)).getResult());
+        assertEquals(Boolean.TRUE, roundTrip(stream(2, ObservationType.TRUTH_OBSERVATION), observation(TIME, true)).getResult());
+        assertEquals(Boolean.FALSE, roundTrip(stream(2, ObservationType.TRUTH_OBSERVATION), observation(TIME, false)).getResult());
+        assertEquals("running", roundTrip(stream(3, ObservationType.CATEGORY_OBSERVATION), observation(TIME, "running")).getResult());
+    }
+
+    @Test
+    public void detectsTheCodecOfMixedPayloads() throws Exception {
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        List<Double> values = new ArrayList<Double>();
+        for (int i = 0; i < 10; i++) {
+            double value = i * 1.5;
+            if ( i % 2 == 0 ) {
+                payloads.add(ObservationCodecs.BINARY.encode(stream(100 + i, ObservationType.MEASUREMENT), observation(TIME, value)));
+            }
+            else {
+                payloads.add(String.format("{\"phenomenonTime\":\"%s\",\"result\":%s,\"Datastream\":{\"@iot.id\":%d}}", TIME, value, 100 + i)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            values.add(value);
+        }
+        ObservationHeader header = new ObservationHeader();
+        PrimitiveObservation primitive = new PrimitiveObservation();
+        for (int i = 0; i < payloads.size(); i++) {
+            byte[] payload = payloads.get(i);
+            ObservationCodec codec = ObservationCodecs.detect(payload);
+            assertEquals(i % 2 == 0 ? ObservationCodecs.BINARY : ObservationCodecs.JSON, codec);
+
+            assertTrue(codec.readHeader(payload, header));
+            assertEquals(100 + i, header.getNumericId());
+            assertTrue(codec.readPrimitive(payload, primitive));
+            assertEquals(100 + i, primitive.getDatastreamId());
+            assertEquals(IsoTime.toEpochNanos(TIME), primitive.getPhenomenonTime());
+            assertEquals(values.get(i), primitive.getDouble(), 0.0);
+        }
+    }
+
+    @Test
+    public void jsonIsTheFallback() {
+        assertEquals(ObservationCodecs.JSON, ObservationCodecs.detect("{}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(ObservationCodecs.JSON, ObservationCodecs.detect(new byte[] { BinaryObservationCodec.MAGIC }));
+        assertEquals(ObservationCodecs.BINARY, ObservationCodecs.forName("binary"));
+        assertEquals(ObservationCodecs.JSON, ObservationCodecs.forName(null));
+    }
+
+    private static Observation roundTrip(Datastream stream, Observation observation) throws Exception {
+        byte[] payload = ObservationCodecs.BINARY.encode(stream, observation);
+        assertTrue(ObservationCodecs.BINARY.isEncoded(payload));
+        return ObservationCodecs.BINARY.decode(payload);
+    }
+
+    private static Observation observation(Instant time, Object result) {
+        Observation observation = new Observation();
+        observation.setPhenomenonTimeFrom(ZonedDateTime.ofInstant(time, ZoneOffset.UTC));
+        observation.setResult(result);
+        return observation;
+    }
+
+    private static Datastream stream(long id, ObservationType type) {
+        Datastream stream = new Datastream();
+        stream.setId(new IdLong(id));
+        stream.setName("stream " + id);
+        stream.setObservationType(type.getType());
+        return stream;
+    }
+}
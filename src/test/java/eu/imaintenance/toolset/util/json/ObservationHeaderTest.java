@@ -0,0 +1,55 @@
+package eu.imaintenance.toolset.util.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+/**
+ * The header reads up to the datastream id, the values are read by the {@link PrimitiveObservation}
+ * @author dglachs
+ *
+ */
+public class ObservationHeaderTest {
+
+    private static byte[] payload(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void stopsAfterTheDatastreamId() throws Exception {
+        ObservationHeader header = new ObservationHeader();
+        // neither the time nor the truncated rest is parsed
+        assertTrue(header.read(payload("{\"phenomenonTime\":\"yesterday\",\"Datastream\":{\"@iot.id\":42},\"result\":")));
+        assertTrue(header.isNumeric());
+        assertEquals(42, header.getNumericId());
+        assertTrue(header.read(payload("{\"Datastream\":{\"@iot.id\":\"s1\"}")));
+        assertFalse(header.isNumeric());
+        assertEquals("s1", header.getStringId());
+        assertFalse(header.read(payload("{\"result\":1}")));
+    }
+
+    @Test
+    public void readsThePrimitiveValues() throws Exception {
+        PrimitiveObservation observation = new PrimitiveObservation();
+        assertTrue(observation.read(payload("{\"result\":7,\"Datastream\":{\"@iot.id\":3},\"phenomenonTime\":\"2017-07-14T02:40:00Z\"}")));
+        assertEquals(3, observation.getDatastreamId());
+        assertEquals(1_500_000_000_000_000_000L, observation.getPhenomenonTime());
+        assertEquals(7, observation.getLong());
+        assertFalse(observation.read(payload("{\"result\":{\"a\":1},\"Datastream\":{\"@iot.id\":3}}")));
+    }
+
+    @Test
+    public void invalidTimeIsAParseFailure() {
+        try {
+            new PrimitiveObservation().read(payload("{\"phenomenonTime\":\"yesterday\",\"result\":1,\"Datastream\":{\"@iot.id\":3}}"));
+            fail("invalid phenomenon time accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package eu.imaintenance.toolset.util.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.threeten.extra.Interval;
+
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import eu.imaintenance.toolset.observation.ObservationType;
+/**
+ * The rendered observations are byte by byte equal to the output of the object mapper
+ * @author dglachs
+ *
+ */
+public class ObservationTemplateTest {
+    private static final ZoneId VIENNA = ZoneId.of("Europe/Vienna");
+    private static final Instant VALID = Instant.parse("2018-03-25T00:59:59.999Z");
+    /**
+     * Phenomenon times covering the fraction styles and the change to daylight saving time
+     */
+    private static final Instant[] TIMES = new Instant[] {
+            Instant.parse("2018-03-25T00:59:59Z"),
+            Instant.parse("2018-03-25T01:00:00Z"),
+            Instant.parse("2018-10-28T00:30:00.5Z"),
+            Instant.parse("2018-10-28T01:30:00.120Z"),
+            Instant.parse("1970-01-01T00:00:00.000001Z"),
+            Instant.parse("2038-01-19T03:14:07.123456789Z"),
+    };
+
+    @Test
+    public void measurementsMatchTheMapper() throws Exception {
+        Random random = new Random(42);
+        Object[] values = new Object[] { 0d, -0d, 1d, -1.5d, 0.1d, 1.0E-5d, 1.0E7d, 123456789.123d, Double.MAX_VALUE, Double.MIN_VALUE };
+        for (ZoneId zone : new ZoneId[] { ZoneOffset.UTC, VIENNA }) {
+            for (Object value : values) {
+                assertRendered(ObservationType.MEASUREMENT, zone, value);
+            }
+            for (int i = 0; i < 100; i++) {
+                assertRendered(ObservationType.MEASUREMENT, zone, (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(30) - 15));
+            }
+        }
+    }
+
+    @Test
+    public void countsAndTruthValuesMatchTheMapper() throws Exception {
+        for (ZoneId zone : new ZoneId[] { ZoneOffset.UTC, VIENNA }) {
+            for (Object value : new Object[] { 0, 7, -42, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+                assertRendered(ObservationType.COUNT_OBSERVATION, zone, value);
+            }
+            assertRendered(ObservationType.TRUTH_OBSERVATION, zone, true);
+            assertRendered(ObservationType.TRUTH_OBSERVATION, zone, false);
+        }
+    }
+
+    @Test
+    public void unsupportedValuesAreNotRendered() {
+        ObservationTemplate template = ObservationTemplate.create(stream(ObservationType.MEASUREMENT), ZoneOffset.UTC);
+        assertNotNull(template);
+        assertNull(template.render(0, 0, Double.NaN, 0, 0));
+        assertNull(template.render(0, 0, Double.POSITIVE_INFINITY, 0, 0));
+        assertNull(template.render(0, 0, "text", 0, 0));
+        assertNull(ObservationTemplate.create(stream(ObservationType.CATEGORY_OBSERVATION), ZoneOffset.UTC));
+    }
+
+    private static void assertRendered(ObservationType type, ZoneId zone, Object value) throws Exception {
+        Datastream stream = stream(type);
+        ObservationTemplate template = ObservationTemplate.create(stream, zone);
+        assertNotNull("template for " + type + " in " + zone, template);
+        for (Instant time : TIMES) {
+            Observation observation = new Observation();
+            observation.setDatastream(stream.withOnlyId());
+            observation.setPhenomenonTimeFrom(ZonedDateTime.ofInstant(time, zone));
+            observation.setResult(value);
+            observation.setValidTime(Interval.of(VALID, ObservationTemplate.VALIDITY));
+            byte[] expected = ObjectMapperFactory.get().writeValueAsBytes(observation);
+            byte[] rendered = template.render(time.getEpochSecond(), time.getNano(), value, VALID.getEpochSecond(), VALID.getNano());
+            assertNotNull(rendered);
+            assertTrue(String.format("expected %s but was %s", new String(expected, StandardCharsets.UTF_8), new String(rendered, StandardCharsets.UTF_8)),
+                    Arrays.equals(expected, rendered));
+        }
+    }
+
+    private static Datastream stream(ObservationType type) {
+        Datastream stream = new Datastream();
+        stream.setId(new IdLong(4711L));
+        stream.setName("stream");
+        stream.setObservationType(type.getType());
+        assertEquals(type, ObservationType.fromString(stream.getObservationType()));
+        return stream;
+    }
+}
@@ -0,0 +1,118 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import eu.imaintenance.toolset.observation.ObservationDispatcher;
+import eu.imaintenance.toolset.util.transport.CommitPolicy;
+import eu.imaintenance.toolset.util.transport.MemoryTransport;
+import eu.imaintenance.toolset.util.transport.RecordHandler;
+import eu.imaintenance.toolset.util.transport.Transport;
+import eu.imaintenance.toolset.util.transport.TransportConsumer;
+import eu.imaintenance.toolset.util.transport.TransportSender;
+/**
+ * Records failing to parse are completed, the committed position passes them
+ * @author dglachs
+ *
+ */
+public class ConsumerTest {
+    private static final String TOPIC = "observations";
+    private static final int RECORDS = 10;
+
+    private final MemoryTransport memory = new MemoryTransport("test", 1, MemoryTransport.DEFAULT_CAPACITY);
+    private final Map<TopicPartition, Long> committed = new ConcurrentHashMap<TopicPartition, Long>();
+
+    @Test
+    public void failingRecordsAreCompleted() throws Exception {
+        Transport transport = new RecordingTransport();
+        // a new group starts at the end of the partitions, join before sending
+        transport.subscribe("test", Collections.singletonList(TOPIC), KafkaProfile.DEFAULT, CommitPolicy.AUTO, new NoRebalance()).close();
+        // no processor is registered, the valid records are dropped
+        ObservationDispatcher dispatcher = new ObservationDispatcher(transport);
+        Consumer consumer = new Consumer(0, transport, "test", Collections.singletonList(TOPIC), dispatcher, KafkaProfile.DEFAULT)
+                .withCommitPolicy(CommitPolicy.atLeastOnce(Duration.ofMillis(1), 1));
+        Thread thread = new Thread(consumer);
+        thread.start();
+        TransportSender sender = transport.sender("test", TOPIC, null, KafkaProfile.DEFAULT);
+        for (int i = 0; i < RECORDS; i++) {
+            String time = i % 3 == 1 ? "yesterday" : "2020-01-01T00:00:00Z";
+            sender.sendRecord(String.format("{\"phenomenonTime\":\"%s\",\"result\":%d,\"Datastream\":{\"@iot.id\":1}}", time, i).getBytes(StandardCharsets.UTF_8), null);
+        }
+        TopicPartition partition = new TopicPartition(TOPIC, 0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( committed.getOrDefault(partition, -1L) < RECORDS && System.nanoTime() < deadline ) {
+            Thread.sleep(5);
+        }
+        consumer.shutdown();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        assertEquals(RECORDS, committed.get(partition).longValue());
+    }
+    /**
+     * Memory transport recording the commits
+     */
+    private final class RecordingTransport implements Transport {
+        @Override
+        public String getName() {
+            return memory.getName();
+        }
+        @Override
+        public TransportConsumer subscribe(String groupId, List<String> topics, KafkaProfile profile, CommitPolicy policy, ConsumerRebalanceListener listener) {
+            TransportConsumer consumer = memory.subscribe(groupId, topics, profile, policy, listener);
+            return new TransportConsumer() {
+                @Override
+                public boolean poll(long timeout, RecordHandler handler) {
+                    return consumer.poll(timeout, handler);
+                }
+                @Override
+                public void pause(TopicPartition partition) {
+                    consumer.pause(partition);
+                }
+                @Override
+                public void resume(TopicPartition partition) {
+                    consumer.resume(partition);
+                }
+                @Override
+                public void commit(Map<TopicPartition, Long> offsets, boolean sync) {
+                    committed.putAll(offsets);
+                }
+                @Override
+                public void wakeup() {
+                    consumer.wakeup();
+                }
+                @Override
+                public void close() {
+                    consumer.close();
+                }
+            };
+        }
+        @Override
+        public int partitions(String topic) {
+            return memory.partitions(topic);
+        }
+        @Override
+        public TransportSender sender(String name, String topic, String key, KafkaProfile profile) {
+            return memory.sender(name, topic, key, profile);
+        }
+    }
+
+    private static final class NoRebalance implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        }
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        }
+    }
+}
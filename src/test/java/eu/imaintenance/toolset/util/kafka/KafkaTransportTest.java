@@ -0,0 +1,35 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.imaintenance.toolset.util.transport.MemoryTransport;
+/**
+ * Transports listing the brokers of a cluster differently share the dispatcher
+ * @author dglachs
+ *
+ */
+public class KafkaTransportTest {
+
+    @Test
+    public void sharedBrokerIsTheSameCluster() {
+        KafkaTransport both = new KafkaTransport(Arrays.asList("b:9092", "a:9092"));
+        KafkaTransport one = new KafkaTransport(Arrays.asList("a:9092"));
+        KafkaTransport other = new KafkaTransport(Arrays.asList("c:9092"));
+        assertTrue(both.isSameCluster(one));
+        assertTrue(one.isSameCluster(both));
+        assertFalse(both.isSameCluster(other));
+        assertFalse(both.isSameCluster(new MemoryTransport()));
+    }
+
+    @Test
+    public void memoryTransportsByName() {
+        MemoryTransport memory = new MemoryTransport();
+        assertTrue(memory.isSameCluster(new MemoryTransport()));
+        assertFalse(memory.isSameCluster(new MemoryTransport("other", 1, 16)));
+    }
+}
@@ -0,0 +1,98 @@
+package eu.imaintenance.toolset.util.kafka;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * The committable position of a partition, including offsets beyond the tracked window
+ * @author dglachs
+ *
+ */
+public class PartitionStateTest {
+    /**
+     * The number of offsets tracked by the partition state
+     */
+    private static final int WINDOW = 1 << 14;
+
+    private PartitionState state;
+
+    @Before
+    public void setUp() {
+        state = new PartitionState(new TopicPartition("observations", 0), true);
+    }
+
+    @Test
+    public void positionAdvancesOverCompletedPrefix() {
+        start(0, 10);
+        assertEquals(-1, state.committable());
+        complete(0, 3);
+        complete(5, 10);
+        assertEquals(3, state.committable());
+        complete(3, 5);
+        assertEquals(10, state.committable());
+        assertEquals(0, state.getInFlight());
+    }
+
+    @Test
+    public void positionAdvancesWhileOverflowed() {
+        int untracked = 1000;
+        start(0, WINDOW + untracked);
+        // the tracked prefix is committable while the untracked records are in flight
+        complete(0, WINDOW);
+        assertEquals(WINDOW, state.committable());
+        assertEquals(untracked, state.getInFlight());
+        // the untracked records are committable once all of them are completed
+        complete(WINDOW + 1, WINDOW + untracked);
+        assertEquals(WINDOW, state.committable());
+        // the tracked offsets are drained, tracking resumes with the next record
+        start(WINDOW + untracked, WINDOW + untracked + 10);
+        complete(WINDOW + untracked, WINDOW + untracked + 10);
+        assertEquals(WINDOW, state.committable());
+        complete(WINDOW, WINDOW + 1);
+        assertEquals(WINDOW + untracked + 10, state.committable());
+        assertEquals(0, state.getInFlight());
+        // tracked again
+        start(WINDOW + untracked + 10, WINDOW + untracked + 20);
+        complete(WINDOW + untracked + 15, WINDOW + untracked + 20);
+        complete(WINDOW + untracked + 10, WINDOW + untracked + 12);
+        assertEquals(WINDOW + untracked + 12, state.committable());
+    }
+
+    @Test
+    public void stalledRecordHoldsThePosition() {
+        start(0, 3 * WINDOW);
+        complete(1, 3 * WINDOW);
+        assertEquals(-1, state.committable());
+        assertEquals(1, state.getInFlight());
+        complete(0, 1);
+        assertEquals(3 * WINDOW, state.committable());
+    }
+
+    @Test
+    public void gapsWiderThanTheWindow() {
+        state.started(0);
+        // the offset would share the slot of a tracked offset
+        state.started(WINDOW);
+        state.started(WINDOW + 1);
+        state.completed(WINDOW);
+        assertEquals(-1, state.committable());
+        state.completed(0);
+        assertEquals(1, state.committable());
+        state.completed(WINDOW + 1);
+        assertEquals(WINDOW + 2, state.committable());
+    }
+
+    private void start(long from, long to) {
+        for (long offset = from; offset < to; offset++) {
+            state.started(offset);
+        }
+    }
+
+    private void complete(long from, long to) {
+        for (long offset = from; offset < to; offset++) {
+            state.completed(offset);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package eu.imaintenance.toolset.util.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import eu.imaintenance.toolset.util.kafka.KafkaProfile;
+/**
+ * The members of a group share the partitions, idle consumers and senders waiting for a 
+ * free slot park and are unparked by the counterpart
+ * @author dglachs
+ *
+ */
+public class MemoryTransportTest {
+    private static final String TOPIC = "observations";
+    /**
+     * Poll timeout, far beyond the time the tests wait for the counterpart
+     */
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    @Test
+    public void parkedConsumerIsUnparkedByPublish() throws Exception {
+        MemoryTransport transport = new MemoryTransport("test", 1, 16);
+        TransportConsumer consumer = subscribe(transport, "group");
+        AtomicInteger received = new AtomicInteger();
+        Thread poller = new Thread(() -> consumer.poll(TIMEOUT, (partition, offset, key, value) -> received.incrementAndGet()));
+        poller.start();
+        // let the consumer spin and park
+        Thread.sleep(100);
+        send(transport, 1);
+        poller.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse("poll returned with the record", poller.isAlive());
+        assertEquals(1, received.get());
+        consumer.close();
+    }
+
+    @Test
+    public void wakeupUnparksThePoll() throws Exception {
+        MemoryTransport transport = new MemoryTransport("test", 1, 16);
+        TransportConsumer consumer = subscribe(transport, "group");
+        boolean[] polled = new boolean[] { true };
+        Thread poller = new Thread(() -> polled[0] = consumer.poll(TIMEOUT, (partition, offset, key, value) -> { }));
+        poller.start();
+        Thread.sleep(100);
+        consumer.wakeup();
+        poller.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse("poll returned", poller.isAlive());
+        assertFalse("woken", polled[0]);
+        consumer.close();
+    }
+
+    @Test
+    public void blockedSenderIsUnparkedByConsumer() throws Exception {
+        MemoryTransport transport = new MemoryTransport("test", 1, 4);
+        TransportConsumer consumer = subscribe(transport, "group");
+        send(transport, 4);
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            send(transport, 1);
+            sent.countDown();
+        });
+        sender.start();
+        // the partition is full, the sender parks until a slot becomes free
+        assertFalse(sent.await(100, TimeUnit.MILLISECONDS));
+        AtomicInteger received = new AtomicInteger();
+        consumer.poll(TIMEOUT, (partition, offset, key, value) -> received.incrementAndGet());
+        assertEquals(4, received.get());
+        assertTrue("sender unparked", sent.await(5, TimeUnit.SECONDS));
+        consumer.poll(TIMEOUT, (partition, offset, key, value) -> received.incrementAndGet());
+        assertEquals(5, received.get());
+        consumer.close();
+    }
+
+    @Test
+    public void membersShareThePartitions() throws Exception {
+        MemoryTransport transport = new MemoryTransport("test", 4, 16);
+        Owned first = new Owned();
+        Owned second = new Owned();
+        TransportConsumer one = transport.subscribe("group", Collections.singletonList(TOPIC), KafkaProfile.DEFAULT, CommitPolicy.AUTO, first);
+        one.poll(1, (partition, offset, key, value) -> { });
+        assertEquals(4, first.partitions.size());
+        // the second member joins, the first one releases half of the partitions with it's next poll
+        TransportConsumer two = transport.subscribe("group", Collections.singletonList(TOPIC), KafkaProfile.DEFAULT, CommitPolicy.AUTO, second);
+        one.poll(1, (partition, offset, key, value) -> { });
+        two.poll(1, (partition, offset, key, value) -> { });
+        assertEquals(2, first.partitions.size());
+        assertEquals(2, second.partitions.size());
+        Set<TopicPartition> all = new HashSet<TopicPartition>(first.partitions);
+        all.addAll(second.partitions);
+        assertEquals(4, all.size());
+
+        // records without key are distributed among the partitions, each is received once
+        send(transport, 8);
+        List<String> received = new ArrayList<String>();
+        Set<TopicPartition> polledByOne = new HashSet<TopicPartition>();
+        Set<TopicPartition> polledByTwo = new HashSet<TopicPartition>();
+        one.poll(TIMEOUT, (partition, offset, key, value) -> {
+            polledByOne.add(partition);
+            received.add(new String(value, StandardCharsets.UTF_8));
+        });
+        two.poll(TIMEOUT, (partition, offset, key, value) -> {
+            polledByTwo.add(partition);
+            received.add(new String(value, StandardCharsets.UTF_8));
+        });
+        assertEquals(first.partitions, polledByOne);
+        assertEquals(second.partitions, polledByTwo);
+        Collections.sort(received);
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7"), received);
+
+        // the remaining member takes over the partitions of the member leaving
+        two.close();
+        assertTrue(second.partitions.isEmpty());
+        one.poll(1, (partition, offset, key, value) -> { });
+        assertEquals(4, first.partitions.size());
+        one.close();
+    }
+
+    private static TransportConsumer subscribe(MemoryTransport transport, String group) {
+        return transport.subscribe(group, Collections.singletonList(TOPIC), KafkaProfile.DEFAULT, CommitPolicy.AUTO, new NoRebalance());
+    }
+
+    private static void send(MemoryTransport transport, int records) {
+        TransportSender sender = transport.sender("test", TOPIC, null, KafkaProfile.DEFAULT);
+        for (int i = 0; i < records; i++) {
+            sender.sendRecord(String.valueOf(i).getBytes(StandardCharsets.UTF_8), null);
+        }
+    }
+
+    /**
+     * Keeps the partitions currently assigned to the member
+     */
+    private static final class Owned implements ConsumerRebalanceListener {
+        private final Set<TopicPartition> partitions = new HashSet<TopicPartition>();
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> revoked) {
+            partitions.removeAll(revoked);
+        }
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> assigned) {
+            partitions.addAll(assigned);
+        }
+    }
+
+    private static final class NoRebalance implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        }
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        }
+    }
+}